@@ -0,0 +1,134 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.doxia.module.confluence.parser.CharArrayLineSource;
+import org.apache.maven.doxia.module.confluence.parser.CharSequenceBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.DefinitionListBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.FigureBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.LineClassifier;
+import org.apache.maven.doxia.module.confluence.parser.ParagraphBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.SectionBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.VerbatimBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.list.ListBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.table.TableBlockParser;
+import org.apache.maven.doxia.parser.ParseException;
+import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each block parser alone on a document made only of the construct it parses: the lines are handed to the
+ * parser the way <code>ConfluenceParser</code> does, and each block is traversed into a sink that ignores every
+ * event. Tables, lists and code blocks only parse their rows, items and text while they are traversed, so a block
+ * that is not traversed would measure little more than where it ends.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class BlockParserBenchmark
+{
+    @Param( { "section", "figure", "flatList", "nestedList", "narrowTable", "wideTable", "verbatim", "macro",
+        "paragraph" } )
+    private String construct;
+
+    /** The number of blocks, or of list items or table rows. */
+    @Param( { "1000" } )
+    private int size;
+
+    private char[] document;
+
+    private CharSequenceBlockParser parser;
+
+    private Sink sink;
+
+    @Setup
+    public void setUp()
+    {
+        document = Documents.create( construct, size ).toCharArray();
+        parser = createParser( construct );
+        sink = new SinkAdapter();
+    }
+
+    @Benchmark
+    public void visit()
+        throws ParseException
+    {
+        CharArrayLineSource source = new CharArrayLineSource( document, document.length, "" );
+        CharSequence line;
+
+        while ( ( line = source.getNextLineSequence() ) != null )
+        {
+            if ( LineClassifier.classify( line ) != LineClassifier.BLANK )
+            {
+                parser.visit( line, source ).traverse( sink );
+            }
+        }
+    }
+
+    private static CharSequenceBlockParser createParser( String construct )
+    {
+        if ( "section".equals( construct ) )
+        {
+            return new SectionBlockParser();
+        }
+        if ( "figure".equals( construct ) )
+        {
+            return new FigureBlockParser();
+        }
+        if ( construct.endsWith( "List" ) )
+        {
+            return new ListBlockParser();
+        }
+        if ( construct.endsWith( "Table" ) )
+        {
+            return new TableBlockParser();
+        }
+        if ( "verbatim".equals( construct ) )
+        {
+            return new VerbatimBlockParser();
+        }
+        if ( "macro".equals( construct ) )
+        {
+            return new DefinitionListBlockParser();
+        }
+
+        // as set up by ConfluenceParser
+        return new ParagraphBlockParser( LineClassifier.SECTION | LineClassifier.FIGURE | LineClassifier.LIST
+            | LineClassifier.TABLE | LineClassifier.VERBATIM );
+    }
+}
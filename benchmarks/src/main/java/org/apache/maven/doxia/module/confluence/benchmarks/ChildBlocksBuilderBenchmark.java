@@ -0,0 +1,106 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.doxia.module.confluence.parser.Block;
+import org.apache.maven.doxia.module.confluence.parser.ChildBlocksBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the inline parser on one long paragraph of text.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ChildBlocksBuilderBenchmark
+{
+    /**
+     * The kind of text: <code>plain</code> words, every inline <code>format</code>, <code>links</code>, or
+     * <code>unbalanced</code> delimiters that never close.
+     */
+    @Param( { "plain", "format", "links", "unbalanced" } )
+    private String text;
+
+    /** The length of the paragraph, in characters. */
+    @Param( { "1000", "100000" } )
+    private int length;
+
+    private String input;
+
+    @Setup
+    public void setUp()
+    {
+        String unit;
+
+        if ( "plain".equals( text ) )
+        {
+            unit = "Some plain text without any markup, just words and punctuation. ";
+        }
+        else if ( "format".equals( text ) )
+        {
+            unit = "*bold* _italic_ -struck- +under+ ^sup^ ~sub~ ??cite?? {{mono}} *_nested_ bold* \\\\ ";
+        }
+        else if ( "links".equals( text ) )
+        {
+            unit = "see [a link|http://example.com/page] and [#anchor] or [http://example.com] ";
+        }
+        else if ( "unbalanced".equals( text ) )
+        {
+            unit = "-a +b ^c ~d ??e *f _g [h {{i {j ";
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown text: " + text );
+        }
+
+        StringBuilder builder = new StringBuilder( length + unit.length() );
+
+        while ( builder.length() < length )
+        {
+            builder.append( unit );
+        }
+
+        input = builder.toString();
+    }
+
+    @Benchmark
+    public List<Block> getBlocks()
+    {
+        return new ChildBlocksBuilder( input ).getBlocks();
+    }
+}
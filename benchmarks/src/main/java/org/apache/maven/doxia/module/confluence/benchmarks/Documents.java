@@ -0,0 +1,268 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Generates Confluence documents made of one construct, or of all of them, for the benchmarks.
+ */
+public final class Documents
+{
+    /** The constructs a document can be made of, see {@link #create(String, int)}. */
+    public static final String[] CONSTRUCTS = { "section", "figure", "flatList", "nestedList", "narrowTable",
+        "wideTable", "verbatim", "macro", "paragraph" };
+
+    private static final String[] MACROS = { "note", "tip", "info", "quote" };
+
+    /** How deep {@link #nestedList(int)} goes. */
+    private static final int LIST_DEPTH = 8;
+
+    /** How many columns {@link #wideTable(int)} has. */
+    private static final int WIDE_TABLE_COLUMNS = 30;
+
+    private Documents()
+    {
+        // utility class
+    }
+
+    /**
+     * Creates a document made of one construct.
+     *
+     * @param construct one of {@link #CONSTRUCTS}, or <code>mixed</code> for all of them in turn.
+     * @param size the number of blocks, or of list items or table rows for lists and tables.
+     * @return the document.
+     */
+    public static String create( String construct, int size )
+    {
+        if ( "section".equals( construct ) )
+        {
+            return sections( size );
+        }
+        if ( "figure".equals( construct ) )
+        {
+            return figures( size );
+        }
+        if ( "flatList".equals( construct ) )
+        {
+            return flatList( size );
+        }
+        if ( "nestedList".equals( construct ) )
+        {
+            return nestedList( size );
+        }
+        if ( "narrowTable".equals( construct ) )
+        {
+            return table( size, 2 );
+        }
+        if ( "wideTable".equals( construct ) )
+        {
+            return table( size, WIDE_TABLE_COLUMNS );
+        }
+        if ( "verbatim".equals( construct ) )
+        {
+            return verbatim( size );
+        }
+        if ( "macro".equals( construct ) )
+        {
+            return macros( size );
+        }
+        if ( "paragraph".equals( construct ) )
+        {
+            return paragraphs( size );
+        }
+        if ( "mixed".equals( construct ) )
+        {
+            return mixed( size );
+        }
+
+        throw new IllegalArgumentException( "Unknown construct: " + construct );
+    }
+
+    private static String sections( int size )
+    {
+        StringBuilder document = new StringBuilder();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            document.append( 'h' ).append( 1 + i % 5 ).append( ". Section " ).append( i ).append( "\n\n" );
+        }
+
+        return document.toString();
+    }
+
+    private static String figures( int size )
+    {
+        StringBuilder document = new StringBuilder();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            document.append( "!images/figure-" ).append( i ).append( ".png!\nThe caption of figure " ).append( i )
+                .append( "\n\n" );
+        }
+
+        return document.toString();
+    }
+
+    private static String flatList( int size )
+    {
+        StringBuilder document = new StringBuilder();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            document.append( i % 2 == 0 ? "* " : "- " ).append( "Item " ).append( i ).append( " with *bold* text\n" );
+        }
+
+        return document.append( '\n' ).toString();
+    }
+
+    private static String nestedList( int size )
+    {
+        return list( size, LIST_DEPTH );
+    }
+
+    /**
+     * Creates a list that goes down to a given depth and back up, one level at a time, with bulleted and numbered
+     * lists in turn.
+     *
+     * @param size the number of items.
+     * @param depth the number of levels, 1 for a flat list.
+     * @return the document.
+     */
+    public static String list( int size, int depth )
+    {
+        StringBuilder document = new StringBuilder();
+        int period = 2 * depth - 2;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            int phase = period == 0 ? 0 : i % period;
+            int level = 1 + ( phase < depth ? phase : period - phase );
+
+            for ( int j = 0; j < level; j++ )
+            {
+                document.append( j % 2 == 0 ? '*' : '#' );
+            }
+
+            document.append( " Item " ).append( i ).append( " at level " ).append( level ).append( '\n' );
+        }
+
+        return document.append( '\n' ).toString();
+    }
+
+    private static String table( int rows, int columns )
+    {
+        StringBuilder document = new StringBuilder();
+
+        for ( int j = 0; j < columns; j++ )
+        {
+            document.append( "|| Heading " ).append( j ).append( ' ' );
+        }
+
+        document.append( "||\n" );
+
+        for ( int i = 0; i < rows; i++ )
+        {
+            for ( int j = 0; j < columns; j++ )
+            {
+                document.append( "| " );
+
+                if ( j % 3 == 2 )
+                {
+                    document.append( "[cell " ).append( i ).append( '|' ).append( "http://example.com/" ).append( j )
+                        .append( ']' );
+                }
+                else
+                {
+                    document.append( "_cell_ " ).append( i ).append( ',' ).append( j );
+                }
+
+                document.append( ' ' );
+            }
+
+            document.append( "|\n" );
+        }
+
+        return document.append( '\n' ).toString();
+    }
+
+    private static String verbatim( int size )
+    {
+        StringBuilder document = new StringBuilder();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            document.append( i % 2 == 0 ? "{code}\n" : "{noformat}\n" );
+
+            for ( int j = 0; j < 20; j++ )
+            {
+                document.append( "    if ( a < b && c > d ) { call( \"" ).append( j ).append( "\" ); }\n" );
+            }
+
+            document.append( i % 2 == 0 ? "{code}\n\n" : "{noformat}\n\n" );
+        }
+
+        return document.toString();
+    }
+
+    private static String macros( int size )
+    {
+        StringBuilder document = new StringBuilder();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            String macro = MACROS[i % MACROS.length];
+
+            document.append( '{' ).append( macro ).append( ":title=A " ).append( macro ).append( "}\n" );
+            document.append( "Some text in the " ).append( macro ).append( ",\non two lines.\n" );
+            document.append( '{' ).append( macro ).append( "}\n\n" );
+        }
+
+        return document.toString();
+    }
+
+    private static String paragraphs( int size )
+    {
+        StringBuilder document = new StringBuilder();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            document.append( "A paragraph with *bold*, _italic_, -struck-, +underlined+, ^super^ and ~sub~ text, " );
+            document.append( "a ??citation??, {{monospaced code}}, a [link|http://example.com/" ).append( i );
+            document.append( "], an {anchor:a" ).append( i ).append( "}, an escaped \\* star\n" );
+            document.append( "and a second line with a line break \\\\ and *_nested_ formats*.\n\n" );
+        }
+
+        return document.toString();
+    }
+
+    private static String mixed( int size )
+    {
+        StringBuilder document = new StringBuilder();
+        int blocks = Math.max( 1, size / CONSTRUCTS.length );
+
+        for ( int i = 0; i < CONSTRUCTS.length; i++ )
+        {
+            document.append( create( CONSTRUCTS[i], blocks ) );
+        }
+
+        return document.toString();
+    }
+}
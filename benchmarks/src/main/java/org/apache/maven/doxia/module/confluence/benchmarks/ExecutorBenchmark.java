@@ -0,0 +1,106 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringReader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.doxia.module.confluence.ConfluenceParser;
+import org.apache.maven.doxia.parser.ParseException;
+import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the wall-clock time of <code>ConfluenceParser.parse(Reader, Sink)</code> on a page of about 20 million
+ * characters that mixes every construct, parsed in chunks by a pool of threads, with a sink that ignores every event.
+ * With no threads, the page is parsed on the calling thread only, as without an executor. The scaling with the
+ * number of threads is only meaningful up to the number of processors of the machine, for example with
+ * <code>-p threads=0,1,2,4,8</code> on eight cores.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ExecutorBenchmark
+{
+    /** The number of blocks of the page, about 220 characters each. */
+    @Param( { "90000" } )
+    private int size;
+
+    /** The number of threads of the executor, 0 for none. */
+    @Param( { "0", "1", "2", "4", "8" } )
+    private int threads;
+
+    private String document;
+
+    private ExecutorService executor;
+
+    private ConfluenceParser parser;
+
+    private Sink sink;
+
+    @Setup
+    public void setUp()
+    {
+        document = Documents.create( "mixed", size );
+        parser = new ConfluenceParser();
+        sink = new SinkAdapter();
+
+        if ( threads > 0 )
+        {
+            executor = Executors.newFixedThreadPool( threads );
+            parser.setExecutor( executor );
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        if ( executor != null )
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void parse()
+        throws ParseException
+    {
+        parser.parse( new StringReader( document ), sink );
+    }
+}
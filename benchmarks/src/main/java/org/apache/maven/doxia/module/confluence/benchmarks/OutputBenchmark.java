@@ -0,0 +1,169 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.doxia.module.confluence.ConfluenceSinkFactory;
+import org.apache.maven.doxia.sink.Sink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how <code>ConfluenceSink</code> output reaches a file: through the writer that
+ * <code>ConfluenceSinkFactory.createSink(File, String, String)</code> opens, which is an
+ * <code>OutputStreamWriter</code>, or encoded by the sink itself into pooled buffers that are written to an
+ * <code>OutputStream</code> or, with gathering writes, to a <code>FileChannel</code>.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class OutputBenchmark
+{
+    private static final int SENTENCES = 16;
+
+    private static final int WORDS_PER_SENTENCE = 12;
+
+    /** How the sink writes to the file: <code>writer</code>, <code>stream</code> or <code>channel</code>. */
+    @Param( { "writer", "stream", "channel" } )
+    private String target;
+
+    /** The text of the paragraphs: <code>ascii</code>, or <code>unicode</code> with two and three byte characters. */
+    @Param( { "ascii", "unicode" } )
+    private String text;
+
+    /** The number of paragraphs, each about a hundred bytes of text in one event. */
+    @Param( { "10000", "100000" } )
+    private int size;
+
+    private final ConfluenceSinkFactory factory = new ConfluenceSinkFactory();
+
+    private File directory;
+
+    private File file;
+
+    private final String[] sentences = new String[SENTENCES];
+
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        directory = File.createTempFile( "output-benchmark", "" );
+
+        if ( !directory.delete() || !directory.mkdir() )
+        {
+            throw new IOException( "Unable to create directory " + directory );
+        }
+
+        file = new File( directory, "output.confluence" );
+
+        String[] words;
+
+        if ( "ascii".equals( text ) )
+        {
+            words = new String[] { "Lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit" };
+        }
+        else if ( "unicode".equals( text ) )
+        {
+            words = new String[] { "Gr\u00fc\u00dfe", "caf\u00e9", "\u00e0", "bient\u00f4t", "\u20ac",
+                "\u65e5\u672c\u8a9e", "\u0391\u03b8\u03ae\u03bd\u03b1", "na\u00efve" };
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown text: " + text );
+        }
+
+        for ( int i = 0; i < SENTENCES; i++ )
+        {
+            StringBuilder sentence = new StringBuilder();
+
+            for ( int j = 0; j < WORDS_PER_SENTENCE; j++ )
+            {
+                sentence.append( words[( i + j ) % words.length] ).append( ' ' );
+            }
+
+            sentences[i] = sentence.toString();
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        file.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public long render()
+        throws IOException
+    {
+        Sink sink;
+
+        if ( "writer".equals( target ) )
+        {
+            sink = factory.createSink( directory, file.getName(), "UTF-8" );
+        }
+        else if ( "stream".equals( target ) )
+        {
+            sink = factory.createSink( new FileOutputStream( file ), "UTF-8" );
+        }
+        else if ( "channel".equals( target ) )
+        {
+            sink = factory.createSink( new FileOutputStream( file ).getChannel() );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown target: " + target );
+        }
+
+        for ( int i = 0; i < size; i++ )
+        {
+            sink.paragraph();
+
+            sink.text( sentences[i % SENTENCES] );
+            sink.bold();
+            sink.text( Integer.toString( i ) );
+            sink.bold_();
+            sink.paragraph_();
+        }
+
+        sink.close();
+
+        return file.length();
+    }
+}
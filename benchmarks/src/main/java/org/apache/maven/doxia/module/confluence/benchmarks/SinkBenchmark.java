@@ -0,0 +1,325 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.doxia.module.confluence.ConfluenceSinkFactory;
+import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkEventAttributeSet;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures <code>ConfluenceSink</code> on the events of documents of growing size, so that rendering which does not
+ * scale linearly shows up as a throughput that drops with the size.
+ * <p>
+ * Besides the time per document, the {@link Counters} report the events and the output bytes rendered per second:
+ * the time per event is the inverse of <code>events</code>, and the bytes allocated per KB of output are
+ * <code>gc.alloc.rate</code> from <code>-prof gc</code> divided by <code>outputBytes</code> / 1024.
+ * </p>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class SinkBenchmark
+{
+    /** How deep the nested lists go. */
+    private static final int LIST_DEPTH = 10;
+
+    private static final int TABLE_COLUMNS = 5;
+
+    private static final int VERBATIM_LINES = 50;
+
+    /**
+     * The document: <code>paragraphs</code> under section titles, nested <code>bulletedLists</code> or
+     * <code>numberedLists</code>, one <code>table</code>, or <code>verbatim</code> blocks.
+     */
+    @Param( { "paragraphs", "bulletedLists", "numberedLists", "table", "verbatim" } )
+    private String document;
+
+    /** The number of paragraphs, list items, table rows or verbatim blocks. */
+    @Param( { "100", "1000", "10000" } )
+    private int size;
+
+    private final ConfluenceSinkFactory factory = new ConfluenceSinkFactory();
+
+    private int eventsPerDocument;
+
+    private final CountingOutputStream out = new CountingOutputStream();
+
+    /** The rates reported next to the time per document. */
+    @State( Scope.Thread )
+    @AuxCounters( AuxCounters.Type.OPERATIONS )
+    public static class Counters
+    {
+        /** The events sent to the sink. */
+        public long events;
+
+        /** The bytes written by the sink. */
+        public long outputBytes;
+
+        @Setup( Level.Iteration )
+        public void reset()
+        {
+            events = 0;
+            outputBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp()
+    {
+        EventCounter counter = new EventCounter();
+
+        render( (Sink) Proxy.newProxyInstance( Sink.class.getClassLoader(), new Class<?>[] { Sink.class }, counter ) );
+        eventsPerDocument = counter.count;
+    }
+
+    @Benchmark
+    public long render( Counters counters )
+        throws IOException
+    {
+        long before = out.count;
+        Sink sink = factory.createSink( out, "UTF-8" );
+
+        render( sink );
+
+        counters.events += eventsPerDocument;
+        counters.outputBytes += out.count - before;
+
+        return out.count;
+    }
+
+    private void render( Sink sink )
+    {
+        sink.head();
+        sink.head_();
+        sink.body();
+
+        if ( "paragraphs".equals( document ) )
+        {
+            paragraphs( sink );
+        }
+        else if ( "bulletedLists".equals( document ) )
+        {
+            lists( sink, false );
+        }
+        else if ( "numberedLists".equals( document ) )
+        {
+            lists( sink, true );
+        }
+        else if ( "table".equals( document ) )
+        {
+            table( sink );
+        }
+        else if ( "verbatim".equals( document ) )
+        {
+            verbatim( sink );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown document: " + document );
+        }
+
+        sink.body_();
+        sink.flush();
+        sink.close();
+    }
+
+    private void paragraphs( Sink sink )
+    {
+        for ( int i = 0; i < size; i++ )
+        {
+            if ( i % 10 == 0 )
+            {
+                sink.section2();
+                sink.sectionTitle2();
+                sink.text( "Section " + i );
+                sink.sectionTitle2_();
+            }
+
+            sink.paragraph();
+            sink.text( "A paragraph with some " );
+            sink.bold();
+            sink.text( "bold" );
+            sink.bold_();
+            sink.text( ", " );
+            sink.italic();
+            sink.text( "italic" );
+            sink.italic_();
+            sink.text( " and " );
+            sink.monospaced();
+            sink.text( "monospaced" );
+            sink.monospaced_();
+            sink.text( " text, a " );
+            sink.link( "http://example.com/" + i );
+            sink.text( "link" );
+            sink.link_();
+            sink.text( " and characters to escape: a < b & c > d." );
+            sink.paragraph_();
+
+            if ( i % 10 == 9 )
+            {
+                sink.section2_();
+            }
+        }
+    }
+
+    /** Lists that go down to {@link #LIST_DEPTH} levels, one item per level, until there are enough items. */
+    private void lists( Sink sink, boolean numbered )
+    {
+        for ( int items = 0; items < size; items += LIST_DEPTH )
+        {
+            for ( int level = 0; level < LIST_DEPTH; level++ )
+            {
+                if ( numbered )
+                {
+                    sink.numberedList( Sink.NUMBERING_DECIMAL );
+                    sink.numberedListItem();
+                }
+                else
+                {
+                    sink.list();
+                    sink.listItem();
+                }
+
+                sink.text( "Item at level " + level );
+            }
+
+            for ( int level = 0; level < LIST_DEPTH; level++ )
+            {
+                if ( numbered )
+                {
+                    sink.numberedListItem_();
+                    sink.numberedList_();
+                }
+                else
+                {
+                    sink.listItem_();
+                    sink.list_();
+                }
+            }
+        }
+    }
+
+    private void table( Sink sink )
+    {
+        sink.table();
+        sink.tableRows( null, false );
+
+        sink.tableRow();
+        for ( int j = 0; j < TABLE_COLUMNS; j++ )
+        {
+            sink.tableHeaderCell();
+            sink.text( "Heading " + j );
+            sink.tableHeaderCell_();
+        }
+        sink.tableRow_();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            sink.tableRow();
+            for ( int j = 0; j < TABLE_COLUMNS; j++ )
+            {
+                sink.tableCell();
+                sink.text( "Cell " + i + "," + j );
+                sink.tableCell_();
+            }
+            sink.tableRow_();
+        }
+
+        sink.tableRows_();
+        sink.table_();
+    }
+
+    private void verbatim( Sink sink )
+    {
+        StringBuilder text = new StringBuilder();
+
+        for ( int j = 0; j < VERBATIM_LINES; j++ )
+        {
+            text.append( "    if ( a < b && c > d ) { call( \"" ).append( j ).append( "\" ); }\n" );
+        }
+
+        String body = text.toString();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            sink.verbatim( i % 2 == 0 ? SinkEventAttributeSet.BOXED : null );
+            sink.text( body );
+            sink.verbatim_();
+        }
+    }
+
+    /** Counts the calls to a proxy. */
+    private static final class EventCounter
+        implements InvocationHandler
+    {
+        private int count;
+
+        /** {@inheritDoc} */
+        public Object invoke( Object proxy, Method method, Object[] args )
+        {
+            count++;
+            return null;
+        }
+    }
+
+    /** Counts the bytes written and drops them. */
+    private static final class CountingOutputStream
+        extends OutputStream
+    {
+        private long count;
+
+        /** {@inheritDoc} */
+        public void write( int b )
+        {
+            count++;
+        }
+
+        /** {@inheritDoc} */
+        public void write( byte[] b, int off, int len )
+        {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of heap byte buffers of the same size, shared by the sinks of a factory. A buffer that is released when the
+ * pool is full is left to the garbage collector.
+ *
+ * @since 1.3-e1
+ */
+final class ByteBufferPool
+{
+    private final int bufferSize;
+
+    private final int capacity;
+
+    private final List<ByteBuffer> buffers;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param bufferSize the size of the buffers, in bytes.
+     * @param capacity the number of buffers the pool keeps at most.
+     */
+    ByteBufferPool( int bufferSize, int capacity )
+    {
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+        this.buffers = new ArrayList<ByteBuffer>( capacity );
+    }
+
+    /**
+     * Takes a buffer from the pool, or allocates one if the pool is empty.
+     *
+     * @return a cleared buffer.
+     */
+    ByteBuffer acquire()
+    {
+        synchronized ( buffers )
+        {
+            if ( !buffers.isEmpty() )
+            {
+                return buffers.remove( buffers.size() - 1 );
+            }
+        }
+
+        return ByteBuffer.allocate( bufferSize );
+    }
+
+    /**
+     * Gives a buffer back to the pool.
+     *
+     * @param buffer a buffer taken from this pool, not used any more.
+     */
+    void release( ByteBuffer buffer )
+    {
+        buffer.clear();
+
+        synchronized ( buffers )
+        {
+            if ( buffers.size() < capacity )
+            {
+                buffers.add( buffer );
+            }
+        }
+    }
+}
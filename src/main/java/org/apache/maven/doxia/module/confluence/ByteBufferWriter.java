@@ -0,0 +1,368 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A writer that encodes characters in UTF-8 straight into the arrays of heap byte buffers taken from a pool, and writes the buffers to a
+ * channel or to an output stream once they are full. The buffers for a channel are written together, with one
+ * gathering write if the channel supports it. Like an <code>OutputStreamWriter</code>, the writer replaces a
+ * surrogate that is not part of a pair with <code>'?'</code>.
+ *
+ * @since 1.3-e1
+ */
+final class ByteBufferWriter
+    extends Writer
+{
+    /** The most bytes a character may take: three, after a <code>'?'</code> for a dangling high surrogate. */
+    private static final int MAX_BYTES_PER_CHAR = 4;
+
+    private static final int SCRATCH_SIZE = 1024;
+
+    private final WritableByteChannel channel;
+
+    private final OutputStream stream;
+
+    private final ByteBufferPool pool;
+
+    /** The buffers taken from the pool: the first {@link #acquired} ones, up to the one being filled. */
+    private final ByteBuffer[] buffers;
+
+    private int acquired;
+
+    /** The index of the buffer being filled. */
+    private int current;
+
+    private ByteBuffer buffer;
+
+    /** The high surrogate written last, which waits for the low surrogate that makes a pair with it, or 0. */
+    private char highSurrogate;
+
+    private boolean closed;
+
+    /** Holds the characters of a string while they are encoded, allocated when a string is first written. */
+    private char[] scratch;
+
+    /**
+     * Creates a writer to a channel.
+     *
+     * @param channel the channel, closed when the writer is closed.
+     * @param pool the pool of buffers.
+     * @param gathered the number of buffers to fill before they are written.
+     */
+    ByteBufferWriter( WritableByteChannel channel, ByteBufferPool pool, int gathered )
+    {
+        this( channel, null, pool, gathered );
+    }
+
+    /**
+     * Creates a writer to an output stream.
+     *
+     * @param stream the stream, closed when the writer is closed.
+     * @param pool the pool of buffers.
+     */
+    ByteBufferWriter( OutputStream stream, ByteBufferPool pool )
+    {
+        this( null, stream, pool, 1 );
+    }
+
+    private ByteBufferWriter( WritableByteChannel channel, OutputStream stream, ByteBufferPool pool, int gathered )
+    {
+        this.channel = channel;
+        this.stream = stream;
+        this.pool = pool;
+        this.buffers = new ByteBuffer[gathered];
+        this.buffer = pool.acquire();
+        this.buffers[0] = buffer;
+        this.acquired = 1;
+    }
+
+    /** {@inheritDoc} */
+    public void write( int c )
+        throws IOException
+    {
+        ensureOpen();
+        encode( new char[] { (char) c }, 0, 1 );
+    }
+
+    /** {@inheritDoc} */
+    public void write( char[] cbuf, int off, int len )
+        throws IOException
+    {
+        ensureOpen();
+        encode( cbuf, off, off + len );
+    }
+
+    /** {@inheritDoc} */
+    public void write( String str, int off, int len )
+        throws IOException
+    {
+        ensureOpen();
+
+        if ( scratch == null )
+        {
+            scratch = new char[SCRATCH_SIZE];
+        }
+
+        for ( int start = off, end = off + len; start < end; start += scratch.length )
+        {
+            int stop = Math.min( end, start + scratch.length );
+
+            str.getChars( start, stop, scratch, 0 );
+            encode( scratch, 0, stop - start );
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void flush()
+        throws IOException
+    {
+        ensureOpen();
+        drain();
+
+        if ( stream != null )
+        {
+            stream.flush();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void close()
+        throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        closed = true;
+
+        try
+        {
+            if ( highSurrogate != 0 )
+            {
+                highSurrogate = 0;
+                buffer.put( (byte) '?' );
+            }
+
+            drain();
+        }
+        finally
+        {
+            for ( int i = 0; i < acquired; i++ )
+            {
+                pool.release( buffers[i] );
+                buffers[i] = null;
+            }
+
+            buffer = null;
+
+            if ( channel != null )
+            {
+                channel.close();
+            }
+            else
+            {
+                stream.close();
+            }
+        }
+    }
+
+    private void ensureOpen()
+        throws IOException
+    {
+        if ( closed )
+        {
+            throw new IOException( "Writer closed" );
+        }
+    }
+
+    /** Encodes characters into the buffers, moving on to the next buffer when one is nearly full. */
+    private void encode( char[] chars, int start, int end )
+        throws IOException
+    {
+        int i = start;
+
+        while ( i < end )
+        {
+            if ( buffer.remaining() < MAX_BYTES_PER_CHAR )
+            {
+                next();
+            }
+
+            byte[] bytes = buffer.array();
+            int position = buffer.position();
+            // there is room for the longest encoding as long as the position is not past this
+            int last = buffer.limit() - MAX_BYTES_PER_CHAR;
+
+            while ( i < end && position <= last )
+            {
+                char c = chars[i++];
+
+                if ( c < 0x80 && highSurrogate == 0 )
+                {
+                    bytes[position++] = (byte) c;
+                }
+                else
+                {
+                    position = encode( c, bytes, position );
+                }
+            }
+
+            buffer.position( position );
+        }
+    }
+
+    /**
+     * Encodes a character that is not plain ASCII, or that follows a high surrogate.
+     *
+     * @return the position after the bytes of the character.
+     */
+    private int encode( char c, byte[] bytes, int position )
+    {
+        int p = position;
+
+        if ( highSurrogate != 0 )
+        {
+            char high = highSurrogate;
+            highSurrogate = 0;
+
+            if ( Character.isLowSurrogate( c ) )
+            {
+                int codePoint = Character.toCodePoint( high, c );
+
+                bytes[p++] = (byte) ( 0xF0 | ( codePoint >> 18 ) );
+                bytes[p++] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+                bytes[p++] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+                bytes[p++] = (byte) ( 0x80 | ( codePoint & 0x3F ) );
+                return p;
+            }
+
+            bytes[p++] = (byte) '?';
+        }
+
+        if ( c < 0x80 )
+        {
+            bytes[p++] = (byte) c;
+        }
+        else if ( c < 0x800 )
+        {
+            bytes[p++] = (byte) ( 0xC0 | ( c >> 6 ) );
+            bytes[p++] = (byte) ( 0x80 | ( c & 0x3F ) );
+        }
+        else if ( Character.isHighSurrogate( c ) )
+        {
+            highSurrogate = c;
+        }
+        else if ( Character.isLowSurrogate( c ) )
+        {
+            bytes[p++] = (byte) '?';
+        }
+        else
+        {
+            bytes[p++] = (byte) ( 0xE0 | ( c >> 12 ) );
+            bytes[p++] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+            bytes[p++] = (byte) ( 0x80 | ( c & 0x3F ) );
+        }
+
+        return p;
+    }
+
+    /** Moves on to the next buffer, taking it from the pool or writing all the buffers first. */
+    private void next()
+        throws IOException
+    {
+        if ( current + 1 == buffers.length )
+        {
+            drain();
+            return;
+        }
+
+        current++;
+
+        if ( current == acquired )
+        {
+            buffers[acquired++] = pool.acquire();
+        }
+
+        buffer = buffers[current];
+    }
+
+    /** Writes the buffers filled so far and starts again with the first one. */
+    private void drain()
+        throws IOException
+    {
+        long length = 0;
+
+        for ( int i = 0; i <= current; i++ )
+        {
+            buffers[i].flip();
+            length += buffers[i].remaining();
+        }
+
+        try
+        {
+            if ( stream != null )
+            {
+                for ( int i = 0; i <= current; i++ )
+                {
+                    stream.write( buffers[i].array(), buffers[i].arrayOffset(), buffers[i].remaining() );
+                }
+            }
+            else if ( channel instanceof GatheringByteChannel )
+            {
+                GatheringByteChannel gathering = (GatheringByteChannel) channel;
+
+                while ( length > 0 )
+                {
+                    length -= gathering.write( buffers, 0, current + 1 );
+                }
+            }
+            else
+            {
+                for ( int i = 0; i <= current; i++ )
+                {
+                    while ( buffers[i].hasRemaining() )
+                    {
+                        channel.write( buffers[i] );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            for ( int i = 0; i <= current; i++ )
+            {
+                buffers[i].clear();
+            }
+
+            current = 0;
+            buffer = buffers[0];
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkFactory;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Converts all the Confluence pages of a directory tree, several pages at a time.
+ * <p>
+ * Every <code>.confluence</code> file below the input directory is parsed and rendered by a sink factory into a file
+ * at the same place below the output directory. The pages are handed to an executor largest first, so that a large
+ * page does not keep one thread busy at the end of the batch while the others have nothing left to do. A page that
+ * cannot be converted is recorded in the {@link ConfluenceBatchReport} and the batch goes on with the others.
+ * </p>
+ * <p>
+ * A page is held in memory while it is converted, as two bytes per character. The pages converted at the same time
+ * may not take more than a memory budget together: a page waits for the pages before it to free enough of the
+ * budget, and a page larger than the whole budget is converted alone.
+ * </p>
+ *
+ * @since 1.3-e1
+ */
+public class ConfluenceBatchConverter
+{
+    /** The default memory budget of the pages converted at the same time, in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private static final String EXTENSION = ".confluence";
+
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private static final String BACKUP_EXTENSION = ".bak";
+
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    /** The memory budget is counted in units of this many bytes, as a semaphore only has so many permits. */
+    private static final int BUDGET_UNIT = 1024;
+
+    private final ConfluenceParser parser;
+
+    private final SinkFactory sinkFactory;
+
+    private final String outputExtension;
+
+    private ExecutorService executor;
+
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    private String inputEncoding;
+
+    private String outputEncoding = "UTF-8";
+
+    /**
+     * Creates a converter from Confluence to Confluence, which normalizes the markup of the pages.
+     */
+    public ConfluenceBatchConverter()
+    {
+        this( new ConfluenceParser(), new PooledConfluenceSinkFactory(), "confluence" );
+    }
+
+    /**
+     * Creates a converter.
+     *
+     * @param parser the parser of the pages, used by several threads at once.
+     * @param sinkFactory the factory of the sinks that render the pages, used by several threads at once.
+     * @param outputExtension the extension of the rendered files, without a dot.
+     */
+    public ConfluenceBatchConverter( ConfluenceParser parser, SinkFactory sinkFactory, String outputExtension )
+    {
+        this.parser = parser;
+        this.sinkFactory = sinkFactory;
+        this.outputExtension = outputExtension;
+    }
+
+    /**
+     * Sets the executor that converts the pages. Any executor will do: a fixed thread pool or a
+     * <code>ForkJoinPool</code> when the pages are on a fast disk, or an executor that starts a virtual thread per
+     * task when the storage is slow and threads spend most of their time waiting for it. The executor must not be
+     * the one the parser uses to parse large pages in parallel, as a page would then wait for tasks queued behind
+     * it. The executor is not shut down by the converter.
+     *
+     * @param executor the executor, <code>null</code> to use a new thread pool with one thread per processor for
+     * each batch, which is the default.
+     */
+    public void setExecutor( ExecutorService executor )
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the memory that the pages converted at the same time may take together.
+     *
+     * @param memoryBudget a number of bytes, {@link #DEFAULT_MEMORY_BUDGET} by default.
+     */
+    public void setMemoryBudget( long memoryBudget )
+    {
+        if ( memoryBudget < BUDGET_UNIT )
+        {
+            throw new IllegalArgumentException( "Memory budget must be at least " + BUDGET_UNIT + " bytes: "
+                + memoryBudget );
+        }
+
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the encoding of the pages.
+     *
+     * @param inputEncoding the encoding, <code>null</code> for UTF-8, which is the default.
+     */
+    public void setInputEncoding( String inputEncoding )
+    {
+        this.inputEncoding = inputEncoding;
+    }
+
+    /**
+     * Sets the encoding of the rendered files.
+     *
+     * @param outputEncoding the encoding, UTF-8 by default.
+     */
+    public void setOutputEncoding( String outputEncoding )
+    {
+        this.outputEncoding = outputEncoding;
+    }
+
+    /**
+     * Converts all the pages below a directory. Each page is rendered into a temporary file that replaces its output
+     * file once the page is complete, so a page that fails leaves its previous output, if any, as it was.
+     *
+     * @param inputDirectory the directory to look for <code>.confluence</code> files in, recursively.
+     * @param outputDirectory the directory to write the rendered files in, created if needed.
+     * @return the pages converted and the pages that failed.
+     * @throws IOException if the input directory cannot be listed.
+     * @throws InterruptedException if the thread is interrupted while it waits for the pages to be converted, in
+     * which case the pages already submitted are still converted.
+     */
+    public ConfluenceBatchReport convert( File inputDirectory, File outputDirectory )
+        throws IOException, InterruptedException
+    {
+        if ( !inputDirectory.isDirectory() )
+        {
+            throw new IOException( "Not a directory: " + inputDirectory );
+        }
+
+        List<Page> pages = new ArrayList<Page>();
+        findPages( inputDirectory, outputDirectory, pages );
+        Collections.sort( pages );
+
+        ConfluenceBatchReport report = new ConfluenceBatchReport();
+        Semaphore memory = new Semaphore( toUnits( memoryBudget ), true );
+
+        ExecutorService executor = this.executor;
+        boolean ownExecutor = executor == null;
+
+        if ( ownExecutor )
+        {
+            executor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+        }
+
+        long start = System.nanoTime();
+
+        try
+        {
+            List<Future<?>> conversions = new ArrayList<Future<?>>( pages.size() );
+
+            for ( Page page : pages )
+            {
+                int cost = Math.min( toUnits( 2 * page.length ), toUnits( memoryBudget ) );
+                memory.acquire( cost );
+
+                try
+                {
+                    conversions.add( executor.submit( new Conversion( page, cost, memory, report ) ) );
+                }
+                catch ( RejectedExecutionException e )
+                {
+                    memory.release( cost );
+                    report.failed( page.source, e );
+                }
+            }
+
+            for ( Future<?> conversion : conversions )
+            {
+                try
+                {
+                    conversion.get();
+                }
+                catch ( ExecutionException e )
+                {
+                    Throwable cause = e.getCause();
+
+                    if ( cause instanceof RuntimeException )
+                    {
+                        throw (RuntimeException) cause;
+                    }
+
+                    if ( cause instanceof Error )
+                    {
+                        throw (Error) cause;
+                    }
+
+                    // a conversion records its own exceptions, but an executor may fail a task on its own
+                    IOException failure = new IOException( "Unable to convert the pages of " + inputDirectory );
+                    failure.initCause( cause );
+
+                    throw failure;
+                }
+            }
+        }
+        finally
+        {
+            report.setElapsedTime( System.nanoTime() - start );
+
+            if ( ownExecutor )
+            {
+                executor.shutdown();
+            }
+        }
+
+        return report;
+    }
+
+    private void findPages( File inputDirectory, File outputDirectory, List<Page> pages )
+        throws IOException
+    {
+        File[] files = inputDirectory.listFiles();
+
+        if ( files == null )
+        {
+            throw new IOException( "Unable to list " + inputDirectory );
+        }
+
+        for ( int i = 0; i < files.length; i++ )
+        {
+            String name = files[i].getName();
+
+            if ( files[i].isDirectory() )
+            {
+                findPages( files[i], new File( outputDirectory, name ), pages );
+            }
+            else if ( name.endsWith( EXTENSION ) )
+            {
+                String outputName = name.substring( 0, name.length() - EXTENSION.length() ) + "." + outputExtension;
+
+                pages.add( new Page( files[i], new File( outputDirectory, outputName ) ) );
+            }
+        }
+    }
+
+    /**
+     * Converts a page into a temporary file, renamed to the target once the page is complete, so that a page that
+     * fails leaves no truncated output behind.
+     */
+    private void convert( Page page )
+        throws Exception
+    {
+        File directory = page.target.getParentFile();
+
+        if ( !directory.isDirectory() && !directory.mkdirs() )
+        {
+            throw new IOException( "Unable to create directory " + directory );
+        }
+
+        File temporary = new File( directory, page.target.getName() + TEMPORARY_EXTENSION );
+        boolean written = false;
+
+        try
+        {
+            write( page.source, temporary );
+
+            TemporaryFiles.replace( temporary, page.target,
+                                    new File( directory, page.target.getName() + BACKUP_EXTENSION ) );
+
+            written = true;
+        }
+        finally
+        {
+            if ( !written )
+            {
+                temporary.delete();
+            }
+        }
+    }
+
+    private void write( File source, File target )
+        throws Exception
+    {
+        FileOutputStream file = new FileOutputStream( target );
+        OutputStream out = file;
+
+        try
+        {
+            Sink sink;
+
+            if ( sinkFactory instanceof ConfluenceSinkFactory && ConfluenceSinkFactory.isUtf8( outputEncoding ) )
+            {
+                // the sink encodes into its own buffers and writes them to the file channel
+                sink = ( (ConfluenceSinkFactory) sinkFactory ).createSink( file.getChannel() );
+            }
+            else
+            {
+                out = new BufferedOutputStream( file, OUTPUT_BUFFER_SIZE );
+                sink = sinkFactory.createSink( out, outputEncoding );
+            }
+
+            try
+            {
+                parser.parse( source, inputEncoding, sink );
+            }
+            finally
+            {
+                sink.close();
+            }
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+    }
+
+    private static int toUnits( long bytes )
+    {
+        return (int) Math.min( Integer.MAX_VALUE, Math.max( 1, ( bytes + BUDGET_UNIT - 1 ) / BUDGET_UNIT ) );
+    }
+
+    /** A page to convert and where to write it. Pages sort largest first. */
+    private static final class Page
+        implements Comparable<Page>
+    {
+        private final File source;
+
+        private final File target;
+
+        private final long length;
+
+        Page( File source, File target )
+        {
+            this.source = source;
+            this.target = target;
+            this.length = source.length();
+        }
+
+        /** {@inheritDoc} */
+        public int compareTo( Page other )
+        {
+            return length > other.length ? -1 : ( length < other.length ? 1 : 0 );
+        }
+    }
+
+    /** The conversion of a page, which gives its share of the memory budget back when it is done. */
+    private final class Conversion
+        implements Runnable
+    {
+        private final Page page;
+
+        private final int cost;
+
+        private final Semaphore memory;
+
+        private final ConfluenceBatchReport report;
+
+        Conversion( Page page, int cost, Semaphore memory, ConfluenceBatchReport report )
+        {
+            this.page = page;
+            this.cost = cost;
+            this.memory = memory;
+            this.report = report;
+        }
+
+        /** {@inheritDoc} */
+        public void run()
+        {
+            try
+            {
+                convert( page );
+                report.converted( page.source, page.length );
+            }
+            catch ( Exception e )
+            {
+                report.failed( page.source, e );
+            }
+            finally
+            {
+                memory.release( cost );
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What a {@link ConfluenceBatchConverter} did: how many pages it converted, how fast, and which pages failed.
+ *
+ * @since 1.3-e1
+ */
+public class ConfluenceBatchReport
+{
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    private static final double BYTES_PER_MEGABYTE = 1024.0 * 1024.0;
+
+    private int convertedCount;
+
+    private long convertedBytes;
+
+    private final Map<File, Exception> failures = new LinkedHashMap<File, Exception>();
+
+    private long elapsedTime;
+
+    synchronized void converted( File page, long length )
+    {
+        convertedCount++;
+        convertedBytes += length;
+    }
+
+    synchronized void failed( File page, Exception e )
+    {
+        failures.put( page, e );
+    }
+
+    synchronized void setElapsedTime( long nanos )
+    {
+        this.elapsedTime = nanos;
+    }
+
+    /**
+     * <p>getConvertedCount.</p>
+     *
+     * @return the number of pages converted.
+     */
+    public synchronized int getConvertedCount()
+    {
+        return convertedCount;
+    }
+
+    /**
+     * <p>getConvertedBytes.</p>
+     *
+     * @return the size of the pages converted, in bytes.
+     */
+    public synchronized long getConvertedBytes()
+    {
+        return convertedBytes;
+    }
+
+    /**
+     * Returns the pages that could not be converted, in the order they failed.
+     *
+     * @return the exception that stopped the conversion of each page that failed.
+     */
+    public synchronized Map<File, Exception> getFailures()
+    {
+        return Collections.unmodifiableMap( new LinkedHashMap<File, Exception>( failures ) );
+    }
+
+    /**
+     * <p>getElapsedTime.</p>
+     *
+     * @return the time the batch took, in nanoseconds.
+     */
+    public synchronized long getElapsedTime()
+    {
+        return elapsedTime;
+    }
+
+    /**
+     * <p>getFilesPerSecond.</p>
+     *
+     * @return the number of pages converted per second.
+     */
+    public synchronized double getFilesPerSecond()
+    {
+        return elapsedTime == 0 ? 0 : convertedCount * NANOS_PER_SECOND / elapsedTime;
+    }
+
+    /**
+     * <p>getMegabytesPerSecond.</p>
+     *
+     * @return the size of the pages converted per second, in megabytes.
+     */
+    public synchronized double getMegabytesPerSecond()
+    {
+        return elapsedTime == 0 ? 0 : convertedBytes / BYTES_PER_MEGABYTE * NANOS_PER_SECOND / elapsedTime;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized String toString()
+    {
+        return convertedCount + " pages converted, " + failures.size() + " failed, in "
+            + elapsedTime / 1000000 + " ms (" + Math.round( getFilesPerSecond() ) + " files/s, "
+            + Math.round( getMegabytesPerSecond() * 10 ) / 10.0 + " MB/s)";
+    }
+}
@@ -0,0 +1,564 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.apache.maven.doxia.module.confluence.parser.CharArraySequence;
+import org.apache.maven.doxia.sink.Sink;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A cache of parsed documents for {@link ConfluenceParser} kept in a directory, so that it outlives the build that
+ * filled it.
+ * <p>
+ * A parser that is given a disk cache looks a document up there before parsing it, after its
+ * {@link ConfluenceParseCache} if it has one. Each document takes one file, named by a hash of its text, that holds
+ * the events its blocks sent in a compact binary form: one byte per event, followed by its arguments. On a hit, the
+ * events are sent to the sink straight from the file, which is mapped in memory if it is large, so the document is
+ * neither parsed nor decoded into blocks. On a miss, the document is parsed and its file is written: a rebuild of a
+ * site whose pages did not change parses none of them.
+ * </p>
+ * <p>
+ * The file of a document starts with a header that tells the version of the module that wrote it, the length and
+ * two independent hashes of the text of the document, and a checksum of the events. A file written by another
+ * version of the module, or that is truncated or damaged, is deleted and the document parsed again. A file whose
+ * text does not match is left for the document that owns it. A file is written under another name and renamed once
+ * complete, so builds that share a directory never read half a file, and a file that cannot be written only costs a
+ * parse on the next build. Parsers that share a directory should be configured alike.
+ * </p>
+ *
+ * @since 1.3-e1
+ */
+public class ConfluenceDiskCache
+{
+    /** The version of the layout of the files, to change whenever it or the codes of the events change. */
+    static final int FORMAT_VERSION = 1;
+
+    /** The first bytes of every file, <code>DXCF</code>. */
+    private static final int MAGIC = 0x44584346;
+
+    /** The size of the header of a file, in bytes. */
+    static final int HEADER_SIZE = 44;
+
+    /** The size above which a file is mapped in memory rather than read. */
+    private static final int MAPPING_THRESHOLD = 64 * 1024;
+
+    private static final String EXTENSION = ".events";
+
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private static final String BACKUP_EXTENSION = ".bak";
+
+    private static final String POM_PROPERTIES =
+        "/META-INF/maven/org.apache.maven.doxia/doxia-module-confluence/pom.properties";
+
+    private final File directory;
+
+    private final String version;
+
+    private final long versionHash;
+
+    /** Tells the files this cache is writing apart from those of other caches on the same directory. */
+    private final String writer = Long.toHexString( new Random().nextLong() );
+
+    private long temporaries;
+
+    private long hits;
+
+    private long misses;
+
+    private long discarded;
+
+    private long writes;
+
+    private long failures;
+
+    /**
+     * Creates a cache for the running version of the module.
+     *
+     * @param directory the directory of the cache, created when the first file is written.
+     */
+    public ConfluenceDiskCache( File directory )
+    {
+        this( directory, moduleVersion() );
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param directory the directory of the cache, created when the first file is written.
+     * @param version the version of the module, files written by any other version being stale.
+     */
+    ConfluenceDiskCache( File directory, String version )
+    {
+        if ( directory == null || version == null )
+        {
+            throw new IllegalArgumentException( "Directory and version must not be null" );
+        }
+
+        this.directory = directory;
+        this.version = version;
+        this.versionHash = hash( version );
+    }
+
+    /**
+     * Sends the events of a document to a sink, if its file is in the cache. No event is sent if it is not.
+     *
+     * @param document the text of the document.
+     * @param sink the sink.
+     * @return <code>true</code> if the events of the document were sent, <code>false</code> if it was not found.
+     */
+    boolean replay( CharArraySequence document, Sink sink )
+    {
+        long hash = ConfluenceParseCache.hash( document );
+        File file = getFile( hash );
+        ByteBuffer entry;
+
+        try
+        {
+            entry = read( file );
+        }
+        catch ( FileNotFoundException e )
+        {
+            entry = null;
+        }
+        catch ( IOException e )
+        {
+            discard( file );
+            entry = null;
+        }
+
+        if ( entry == null || !isValid( entry, file, document, hash ) )
+        {
+            count( false );
+            return false;
+        }
+
+        entry.position( HEADER_SIZE );
+        RecordingSink.replay( entry, sink );
+        count( true );
+
+        return true;
+    }
+
+    /**
+     * Writes the file of a document, in place of any file with the same name. A file that cannot be written is
+     * skipped.
+     *
+     * @param document the text of the document.
+     * @param events the events of the document, all recorded.
+     */
+    void put( CharArraySequence document, RecordingSink events )
+    {
+        long hash = ConfluenceParseCache.hash( document );
+        byte[] payload = events.encode();
+
+        CRC32 crc = new CRC32();
+        crc.update( payload );
+
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        header.putInt( MAGIC );
+        header.putInt( FORMAT_VERSION );
+        header.putLong( versionHash );
+        header.putInt( document.length() );
+        header.putLong( hash );
+        header.putLong( check( document ) );
+        header.putInt( payload.length );
+        header.putInt( (int) crc.getValue() );
+
+        File file = getFile( hash );
+        File temporary = null;
+
+        try
+        {
+            directory.mkdirs();
+            String name = file.getName() + '.' + writer + '-' + nextTemporary();
+            temporary = new File( directory, name + TEMPORARY_EXTENSION );
+
+            FileOutputStream out = new FileOutputStream( temporary );
+
+            try
+            {
+                out.write( header.array() );
+                out.write( payload );
+            }
+            finally
+            {
+                out.close();
+            }
+
+            TemporaryFiles.replace( temporary, file, new File( directory, name + BACKUP_EXTENSION ) );
+
+            temporary = null;
+
+            synchronized ( this )
+            {
+                writes++;
+            }
+        }
+        catch ( IOException e )
+        {
+            synchronized ( this )
+            {
+                failures++;
+            }
+        }
+        finally
+        {
+            if ( temporary != null )
+            {
+                temporary.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the files of the cache, and those left behind by writes that did not complete. The statistics are
+     * kept.
+     */
+    public void clear()
+    {
+        File[] files = directory.listFiles();
+
+        if ( files == null )
+        {
+            return;
+        }
+
+        for ( int i = 0; i < files.length; i++ )
+        {
+            String name = files[i].getName();
+
+            boolean leftBehind = name.endsWith( TEMPORARY_EXTENSION ) || name.endsWith( BACKUP_EXTENSION );
+
+            if ( name.endsWith( EXTENSION ) || leftBehind && name.indexOf( EXTENSION ) > 0 )
+            {
+                files[i].delete();
+            }
+        }
+    }
+
+    /**
+     * <p>getDirectory.</p>
+     *
+     * @return the directory of the cache.
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * <p>getVersion.</p>
+     *
+     * @return the version of the module that the files of the cache must have been written by.
+     */
+    public String getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * <p>getHits.</p>
+     *
+     * @return the number of documents found in the cache.
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * <p>getMisses.</p>
+     *
+     * @return the number of documents that were not in the cache, and were parsed.
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * <p>getHitRate.</p>
+     *
+     * @return the share of the documents looked up that were found in the cache, between 0 and 1.
+     */
+    public synchronized double getHitRate()
+    {
+        return hits + misses == 0 ? 0 : hits / (double) ( hits + misses );
+    }
+
+    /**
+     * <p>getDiscarded.</p>
+     *
+     * @return the number of files deleted because they were written by another version, or were damaged.
+     */
+    public synchronized long getDiscarded()
+    {
+        return discarded;
+    }
+
+    /**
+     * <p>getWrites.</p>
+     *
+     * @return the number of files written.
+     */
+    public synchronized long getWrites()
+    {
+        return writes;
+    }
+
+    /**
+     * <p>getFailures.</p>
+     *
+     * @return the number of files that could not be written.
+     */
+    public synchronized long getFailures()
+    {
+        return failures;
+    }
+
+    /** {@inheritDoc} */
+    public synchronized String toString()
+    {
+        return hits + " documents found, " + misses + " parsed (" + Math.round( getHitRate() * 100 ) + "% hits), "
+            + writes + " written, " + failures + " failed, " + discarded + " discarded in " + directory;
+    }
+
+    /**
+     * Returns the version of the module, as released, or with the time its classes were built if it is a snapshot or
+     * is not packaged, so that the files written by a build of the module are stale for the next one.
+     *
+     * @return the version of the module.
+     */
+    static String moduleVersion()
+    {
+        String version = null;
+        InputStream in = ConfluenceDiskCache.class.getResourceAsStream( POM_PROPERTIES );
+
+        if ( in != null )
+        {
+            try
+            {
+                Properties properties = new Properties();
+                properties.load( in );
+                version = properties.getProperty( "version" );
+            }
+            catch ( IOException e )
+            {
+                // not packaged as expected
+            }
+            finally
+            {
+                IOUtil.close( in );
+            }
+        }
+
+        if ( version != null && !version.endsWith( "-SNAPSHOT" ) )
+        {
+            return version;
+        }
+
+        long built = 0;
+        URL classFile = ConfluenceParser.class.getResource( "ConfluenceParser.class" );
+
+        if ( classFile != null )
+        {
+            try
+            {
+                built = classFile.openConnection().getLastModified();
+            }
+            catch ( IOException e )
+            {
+                // unknown
+            }
+        }
+
+        return ( version == null ? "unknown" : version ) + "@" + built;
+    }
+
+    private File getFile( long hash )
+    {
+        String name = Long.toHexString( hash );
+
+        return new File( directory, "0000000000000000".substring( name.length() ) + name + EXTENSION );
+    }
+
+    /** Reads a file, mapping it in memory if it is large. */
+    private static ByteBuffer read( File file )
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream( file );
+
+        try
+        {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+
+            if ( size < HEADER_SIZE || size > Integer.MAX_VALUE )
+            {
+                throw new IOException( "Not a cache file: " + file + " (" + size + " bytes)" );
+            }
+
+            if ( size >= MAPPING_THRESHOLD )
+            {
+                return channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+            }
+
+            ByteBuffer bytes = ByteBuffer.allocate( (int) size );
+
+            while ( bytes.hasRemaining() && channel.read( bytes ) >= 0 )
+            {
+                // keep reading
+            }
+
+            bytes.flip();
+
+            return bytes;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Tells whether a file holds the events of a document, and deletes it if it is stale or damaged.
+     */
+    private boolean isValid( ByteBuffer entry, File file, CharArraySequence document, long hash )
+    {
+        if ( entry.getInt( 0 ) != MAGIC || entry.getInt( 36 ) != entry.limit() - HEADER_SIZE
+            || entry.getInt( 4 ) != FORMAT_VERSION || entry.getLong( 8 ) != versionHash )
+        {
+            discard( file );
+            return false;
+        }
+
+        if ( entry.getInt( 16 ) != document.length() || entry.getLong( 20 ) != hash
+            || entry.getLong( 28 ) != check( document ) )
+        {
+            // the file of another document with the same name
+            return false;
+        }
+
+        if ( (int) checksum( entry ) != entry.getInt( 40 ) )
+        {
+            discard( file );
+            return false;
+        }
+
+        return true;
+    }
+
+    private void discard( File file )
+    {
+        file.delete();
+
+        synchronized ( this )
+        {
+            discarded++;
+        }
+    }
+
+    private synchronized long nextTemporary()
+    {
+        return temporaries++;
+    }
+
+    private synchronized void count( boolean hit )
+    {
+        if ( hit )
+        {
+            hits++;
+        }
+        else
+        {
+            misses++;
+        }
+    }
+
+    /** Computes the checksum of the events of a file. */
+    private static long checksum( ByteBuffer entry )
+    {
+        CRC32 crc = new CRC32();
+
+        if ( entry.hasArray() )
+        {
+            crc.update( entry.array(), entry.arrayOffset() + HEADER_SIZE, entry.limit() - HEADER_SIZE );
+        }
+        else
+        {
+            ByteBuffer events = entry.duplicate();
+            events.position( HEADER_SIZE );
+
+            byte[] bytes = new byte[8192];
+
+            while ( events.hasRemaining() )
+            {
+                int length = Math.min( bytes.length, events.remaining() );
+                events.get( bytes, 0, length );
+                crc.update( bytes, 0, length );
+            }
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Hashes a text another way than {@link ConfluenceParseCache#hash(CharArraySequence)}, so that two texts with the
+     * same length are only taken for one another if both hashes collide.
+     */
+    static long check( CharArraySequence text )
+    {
+        char[] chars = text.getChars();
+        long hash = 0;
+
+        for ( int i = text.getOffset(), end = i + text.length(); i < end; i++ )
+        {
+            hash = ( hash + chars[i] ) * 0x9e3779b97f4a7c15L;
+        }
+
+        // mix the high bits into the low ones
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    private static long hash( String version )
+    {
+        return check( new CharArraySequence( version.toCharArray(), 0, version.length() ) );
+    }
+}
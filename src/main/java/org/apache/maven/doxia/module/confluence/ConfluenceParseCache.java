@@ -0,0 +1,318 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.maven.doxia.module.confluence.parser.CharArraySequence;
+
+/**
+ * A cache of parsed documents for {@link ConfluenceParser}, keyed by a hash of their text.
+ * <p>
+ * A parser that is given a cache looks a document up before parsing it. On a hit, the events the blocks of the
+ * document sent the first time are sent again to the sink, which may be any sink. The events are kept rather than the
+ * blocks because tables and lists only parse their rows and items while they are traversed. A copy of the text of the
+ * document is kept with its events, so a hit is only taken when the texts are equal, and two documents with the same
+ * hash never get each other's events. Parsers that share a cache should be configured alike.
+ * </p>
+ * <p>
+ * The cache holds up to a number of bytes, estimated from the text and the events of each document, and drops the
+ * documents used least recently first. A document that would take more than that on its own is not kept. The
+ * statistics of the cache tell how often documents were found and how much memory they take.
+ * </p>
+ *
+ * @since 1.3-e1
+ */
+public class ConfluenceParseCache
+{
+    /** The default number of bytes the cache may hold. */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** The estimated size of an entry without its text and events, in bytes. */
+    private static final long ENTRY_SIZE = 128;
+
+    private final long maxBytes;
+
+    /** The entries, the one used least recently first. */
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>( 16, 0.75f, true );
+
+    private long bytes;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * Creates a cache of {@link #DEFAULT_MAX_BYTES} bytes.
+     */
+    public ConfluenceParseCache()
+    {
+        this( DEFAULT_MAX_BYTES );
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes the number of bytes the cache may hold, as estimated.
+     */
+    public ConfluenceParseCache( long maxBytes )
+    {
+        if ( maxBytes < 0 )
+        {
+            throw new IllegalArgumentException( "Maximum size must not be negative: " + maxBytes );
+        }
+
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Looks a document up.
+     *
+     * @param document the text of the document.
+     * @return the events of the document, <code>null</code> if it is not in the cache.
+     */
+    RecordingSink get( CharArraySequence document )
+    {
+        Long key = Long.valueOf( hash( document ) );
+
+        synchronized ( entries )
+        {
+            Entry entry = entries.get( key );
+
+            if ( entry != null && entry.contentEquals( document ) )
+            {
+                hits++;
+                return entry.events;
+            }
+
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the events of a document, in place of any document with the same hash, unless they would take more
+     * than the whole cache.
+     *
+     * @param document the text of the document, which is copied.
+     * @param events the events of the document, all recorded and trimmed.
+     */
+    void put( CharArraySequence document, RecordingSink events )
+    {
+        if ( ENTRY_SIZE + 2L * document.length() + events.getBytes() > maxBytes )
+        {
+            return;
+        }
+
+        Entry entry = new Entry( document, events );
+
+        Long key = Long.valueOf( hash( document ) );
+
+        synchronized ( entries )
+        {
+            Entry previous = entries.put( key, entry );
+
+            if ( previous != null )
+            {
+                bytes -= previous.size;
+            }
+
+            bytes += entry.size;
+
+            Iterator<Entry> eldest = entries.values().iterator();
+
+            while ( bytes > maxBytes )
+            {
+                bytes -= eldest.next().size;
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Empties the cache. The statistics are kept.
+     */
+    public void clear()
+    {
+        synchronized ( entries )
+        {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * <p>getMaxBytes.</p>
+     *
+     * @return the number of bytes the cache may hold, as estimated.
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * <p>getBytes.</p>
+     *
+     * @return the estimated number of bytes the documents in the cache take.
+     */
+    public long getBytes()
+    {
+        synchronized ( entries )
+        {
+            return bytes;
+        }
+    }
+
+    /**
+     * <p>getDocuments.</p>
+     *
+     * @return the number of documents in the cache.
+     */
+    public int getDocuments()
+    {
+        synchronized ( entries )
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * <p>getHits.</p>
+     *
+     * @return the number of documents found in the cache.
+     */
+    public long getHits()
+    {
+        synchronized ( entries )
+        {
+            return hits;
+        }
+    }
+
+    /**
+     * <p>getMisses.</p>
+     *
+     * @return the number of documents that were not in the cache, and were parsed.
+     */
+    public long getMisses()
+    {
+        synchronized ( entries )
+        {
+            return misses;
+        }
+    }
+
+    /**
+     * <p>getHitRate.</p>
+     *
+     * @return the share of the documents looked up that were found in the cache, between 0 and 1.
+     */
+    public double getHitRate()
+    {
+        synchronized ( entries )
+        {
+            return hits + misses == 0 ? 0 : hits / (double) ( hits + misses );
+        }
+    }
+
+    /**
+     * <p>getEvictions.</p>
+     *
+     * @return the number of documents dropped to make room for others.
+     */
+    public long getEvictions()
+    {
+        synchronized ( entries )
+        {
+            return evictions;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        synchronized ( entries )
+        {
+            return hits + " documents found, " + misses + " parsed (" + Math.round( getHitRate() * 100 )
+                + "% hits), " + entries.size() + " cached in about " + bytes + " of " + maxBytes + " bytes, "
+                + evictions + " evicted";
+        }
+    }
+
+    /** Hashes a text with 64-bit FNV-1a, one character at a time. */
+    static long hash( CharArraySequence text )
+    {
+        char[] chars = text.getChars();
+        long hash = 0xcbf29ce484222325L;
+
+        for ( int i = text.getOffset(), end = i + text.length(); i < end; i++ )
+        {
+            hash = ( hash ^ chars[i] ) * 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    /** The events of a document, with a copy of its text. */
+    private static final class Entry
+    {
+        private final char[] chars;
+
+        private final RecordingSink events;
+
+        /** The estimated size of the entry. */
+        private final long size;
+
+        Entry( CharArraySequence document, RecordingSink events )
+        {
+            this.chars = new char[document.length()];
+            System.arraycopy( document.getChars(), document.getOffset(), chars, 0, chars.length );
+            this.events = events;
+            this.size = ENTRY_SIZE + 2L * chars.length + events.getBytes();
+        }
+
+        boolean contentEquals( CharArraySequence document )
+        {
+            if ( document.length() != chars.length )
+            {
+                return false;
+            }
+
+            char[] other = document.getChars();
+
+            for ( int i = 0, j = document.getOffset(); i < chars.length; i++, j++ )
+            {
+                if ( chars[i] != other[j] )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
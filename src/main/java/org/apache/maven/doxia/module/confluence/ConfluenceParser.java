@@ -21,25 +21,34 @@ package org.apache.maven.doxia.module.confluence;
  * under the License.
  */
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.maven.doxia.module.confluence.parser.Block;
-import org.apache.maven.doxia.module.confluence.parser.BlockParser;
+import org.apache.maven.doxia.module.confluence.parser.CharArrayLineSource;
+import org.apache.maven.doxia.module.confluence.parser.CharArraySequence;
+import org.apache.maven.doxia.module.confluence.parser.CharSequenceBlockParser;
 import org.apache.maven.doxia.module.confluence.parser.DefinitionListBlockParser;
 import org.apache.maven.doxia.module.confluence.parser.FigureBlockParser;
 import org.apache.maven.doxia.module.confluence.parser.HorizontalRuleBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.LineClassifier;
 import org.apache.maven.doxia.module.confluence.parser.ParagraphBlockParser;
 import org.apache.maven.doxia.module.confluence.parser.SectionBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.SubDocumentParser;
 import org.apache.maven.doxia.module.confluence.parser.VerbatimBlockParser;
 import org.apache.maven.doxia.module.confluence.parser.list.ListBlockParser;
 import org.apache.maven.doxia.module.confluence.parser.table.TableBlockParser;
 import org.apache.maven.doxia.parser.AbstractTextParser;
 import org.apache.maven.doxia.parser.ParseException;
 import org.apache.maven.doxia.sink.Sink;
-import org.apache.maven.doxia.util.ByLineReaderSource;
-import org.apache.maven.doxia.util.ByLineSource;
 
 /**
  * Parse the <a href="http://www.atlassian.com/software/confluence/">Confluence</a>.
@@ -53,113 +62,859 @@ import org.apache.maven.doxia.util.ByLineSource;
 public class ConfluenceParser
     extends AbstractTextParser
 {
-    private BlockParser[] parsers;
+    /**
+     * The default size of the chunks that a document is split into when it is parsed in parallel, in characters.
+     *
+     * @since 1.3-e1
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 32 * 1024;
+
+    /** The first lines of the blocks that end with the next line that starts with one of the same prefixes. */
+    private static final String[] VERBATIM_STARTS = { "{code", "{noformat}" };
+
+    private static final String[] VERBATIM_ENDS = { "{code}", "{noformat}" };
+
+    private static final String[] MACRO_BOUNDARIES = { "{note", "{tip", "{info", "{quote" };
+
+    /**
+     * The block parsers, in order of precedence, indexed by {@link LineClassifier#kindIndex(int)}. They keep no state
+     * at all, so this one set is shared by every document parsed by this instance, including documents parsed
+     * concurrently. A new set replaces it when their settings change, and a parse uses the set it started with.
+     */
+    private volatile CharSequenceBlockParser[] parsers;
+
+    // the settings are read once at the start of each parse
+
+    /** Whether blocks are sent to the sink as soon as they are parsed. */
+    private volatile boolean streaming = true;
+
+    /** The executor that parses the chunks of large documents, <code>null</code> to parse on the calling thread. */
+    private volatile ExecutorService executor;
+
+    /** The size of the chunks of a document parsed in parallel, in characters. */
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /** The cache of parsed documents, <code>null</code> to parse every document. */
+    private volatile ConfluenceParseCache parseCache;
+
+    private volatile ConfluenceDiskCache diskCache;
 
     /**
      * <p>Constructor for ConfluenceParser.</p>
      */
     public ConfluenceParser()
     {
-        init();
+        this.parsers = createParsers( VerbatimBlockParser.DEFAULT_CHUNK_SIZE );
     }
 
-    private List<Block> parse( ByLineSource source )
-        throws ParseException
+    /** Creates a set of block parsers, macro bodies being parsed with the same set. */
+    private static CharSequenceBlockParser[] createParsers( int verbatimChunkSize )
     {
-        init();
+        // filled once its parsers are created, one of them referring to it
+        final CharSequenceBlockParser[] parsers = new CharSequenceBlockParser[LineClassifier.KIND_COUNT];
+
+        CharSequenceBlockParser headingParser = new SectionBlockParser();
+        CharSequenceBlockParser figureParser = new FigureBlockParser();
+        CharSequenceBlockParser verbatimParser = new VerbatimBlockParser( verbatimChunkSize );
+        CharSequenceBlockParser definitionParser = new DefinitionListBlockParser( new SubDocumentParser()
+        {
+            public List<Block> parse( CharArrayLineSource source )
+                throws ParseException
+            {
+                // the body of a macro, in place in the buffer of the document
+                return ConfluenceParser.parse( parsers, source );
+            }
+        } );
+        CharSequenceBlockParser horizontalRuleParser = new HorizontalRuleBlockParser();
+        CharSequenceBlockParser listParser = new ListBlockParser();
+        CharSequenceBlockParser tableParser = new TableBlockParser();
+
+        CharSequenceBlockParser paragraphParser = new ParagraphBlockParser( LineClassifier.SECTION
+            | LineClassifier.FIGURE | LineClassifier.LIST | LineClassifier.TABLE | LineClassifier.VERBATIM );
+
+        CharSequenceBlockParser[] created =
+            new CharSequenceBlockParser[] { headingParser, figureParser, verbatimParser, definitionParser,
+                horizontalRuleParser, listParser, tableParser, paragraphParser };
+        System.arraycopy( created, 0, parsers, 0, created.length );
+
+        return parsers;
+    }
+
+    /**
+     * Sets whether parsed blocks are sent to the sink as soon as they are parsed. In streaming mode, which is the
+     * default, each top-level block is traversed and dropped right after it has been read, so the blocks held in
+     * memory do not grow with the size of the document. The text of the document is still read whole, with the
+     * bounds of each of its lines. Otherwise the whole document is parsed before the first event is sent, so a
+     * document that fails to parse sends no events at all. Both modes send exactly the same events.
+     *
+     * @param streaming <code>true</code> to stream blocks to the sink, <code>false</code> to parse the whole document
+     * first.
+     * @since 1.3-e1
+     */
+    public void setStreaming( boolean streaming )
+    {
+        this.streaming = streaming;
+    }
+
+    /**
+     * <p>isStreaming.</p>
+     *
+     * @return <code>true</code> if blocks are sent to the sink as soon as they are parsed.
+     * @see #setStreaming(boolean)
+     * @since 1.3-e1
+     */
+    public boolean isStreaming()
+    {
+        return streaming;
+    }
+
+    /**
+     * Sets the executor that parses large documents in parallel. A document of at least two chunks is split after
+     * blank lines into chunks of about {@link #getChunkSize()} characters, which are parsed by the executor while
+     * the calling thread sends the events of each chunk to the sink, in order. The executor also traverses the
+     * blocks of its chunks, recording their events: the rows of a table or the items of a list, which are only
+     * parsed when their block is traversed, are thus parsed by the executor too, and the calling thread just replays
+     * the events.
+     * <p>
+     * A chunk is only guessed to start with a top-level block: a blank line inside a <code>{code}</code> block, for
+     * example, is no place to split. Each chunk is therefore checked against the one before it, and parsed again on
+     * the calling thread if the previous chunk ended past its start. The sink receives exactly the same events as
+     * without an executor, in the same order, and always from the calling thread.
+     * </p>
+     * <p>
+     * Up to two chunks per processor are parsed ahead of the sink, and their events are held in memory until they are
+     * sent, even in streaming mode; without streaming, the events of the whole document are. The executor is not shut
+     * down by the parser.
+     * </p>
+     *
+     * @param executor the executor, <code>null</code> to parse every document on the calling thread, which is the
+     * default.
+     * @since 1.3-e1
+     */
+    public void setExecutor( ExecutorService executor )
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * <p>getExecutor.</p>
+     *
+     * @return the executor that parses large documents in parallel, or <code>null</code>.
+     * @see #setExecutor(ExecutorService)
+     * @since 1.3-e1
+     */
+    public ExecutorService getExecutor()
+    {
+        return executor;
+    }
 
+    /**
+     * Sets the size of the chunks that a document is split into when it is parsed in parallel.
+     *
+     * @param chunkSize a number of characters, {@link #DEFAULT_CHUNK_SIZE} by default.
+     * @see #setExecutor(ExecutorService)
+     * @since 1.3-e1
+     */
+    public void setChunkSize( int chunkSize )
+    {
+        if ( chunkSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Chunk size must be positive: " + chunkSize );
+        }
+
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * <p>getChunkSize.</p>
+     *
+     * @return the size of the chunks that a document is split into when it is parsed in parallel.
+     * @see #setChunkSize(int)
+     * @since 1.3-e1
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the cache of parsed documents. A document found in the cache is not parsed again: the events it sent the
+     * first time are sent again to the sink. A document that is not in the cache is parsed on the calling thread,
+     * whatever the executor, and its events are recorded and kept in the cache before they are sent to the sink. A
+     * cache may be shared by threads, and by parsers that are configured alike.
+     *
+     * @param parseCache the cache, <code>null</code> to parse every document, which is the default.
+     * @since 1.3-e1
+     */
+    public void setParseCache( ConfluenceParseCache parseCache )
+    {
+        this.parseCache = parseCache;
+    }
+
+    /**
+     * <p>getParseCache.</p>
+     *
+     * @return the cache of parsed documents, or <code>null</code>.
+     * @see #setParseCache(ConfluenceParseCache)
+     * @since 1.3-e1
+     */
+    public ConfluenceParseCache getParseCache()
+    {
+        return parseCache;
+    }
+
+    /**
+     * Sets the cache of parsed documents kept on disk across builds. A document found in the cache is not parsed
+     * again: the events it sent when it was parsed are sent to the sink straight from its file. A document that is
+     * not in the cache is parsed on the calling thread, whatever the executor, and its events are written to the cache
+     * before they are sent to the sink. The disk cache is looked up after the cache set by
+     * {@link #setParseCache(ConfluenceParseCache)}, which then keeps the events of the documents found on disk.
+     *
+     * @param diskCache the cache, <code>null</code> to parse every document, which is the default.
+     * @since 1.3-e1
+     */
+    public void setDiskCache( ConfluenceDiskCache diskCache )
+    {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * <p>getDiskCache.</p>
+     *
+     * @return the cache of parsed documents kept on disk, or <code>null</code>.
+     * @see #setDiskCache(ConfluenceDiskCache)
+     * @since 1.3-e1
+     */
+    public ConfluenceDiskCache getDiskCache()
+    {
+        return diskCache;
+    }
+
+    /**
+     * Sets the size above which the body of a <code>{code}</code> or <code>{noformat}</code> block is sent to the
+     * sink in chunks. The body of a block is not copied when it is parsed, so a document with large code blocks
+     * takes no more memory than its text and the largest chunk.
+     * <p>
+     * The block parsers are replaced by new ones with this setting, so documents that are being parsed meanwhile
+     * keep the setting they started with.
+     *
+     * @param verbatimChunkSize a number of characters, {@link VerbatimBlockParser#DEFAULT_CHUNK_SIZE} by default.
+     * @since 1.3-e1
+     */
+    public void setVerbatimChunkSize( int verbatimChunkSize )
+    {
+        parsers = createParsers( verbatimChunkSize );
+    }
+
+    /**
+     * <p>getVerbatimChunkSize.</p>
+     *
+     * @return the size above which the body of a verbatim block is sent to the sink in chunks.
+     * @see #setVerbatimChunkSize(int)
+     * @since 1.3-e1
+     */
+    public int getVerbatimChunkSize()
+    {
+        return ( (VerbatimBlockParser) parsers[LineClassifier.kindIndex( LineClassifier.VERBATIM )] ).getChunkSize();
+    }
+
+    private static List<Block> parse( CharSequenceBlockParser[] parsers, CharArrayLineSource source )
+        throws ParseException
+    {
         List<Block> blocks = new ArrayList<Block>();
 
-        String line;
+        Block block;
 
-        while ( ( line = source.getNextLine() ) != null )
+        while ( ( block = nextBlock( parsers, source ) ) != null )
         {
-            //boolean accepted = false;
+            blocks.add( block );
+        }
 
-            for ( int i = 0; i < parsers.length; i++ )
-            {
-                BlockParser parser = parsers[i];
+        return blocks;
+    }
 
-                if ( line.trim().length() == 0 )
+    /**
+     * Parses the next top-level block, skipping any empty lines before it.
+     *
+     * @param parsers the block parsers.
+     * @param source the source to read lines from.
+     * @return the next block, or <code>null</code> if the source has no more lines.
+     * @throws ParseException if any.
+     */
+    private static Block nextBlock( CharSequenceBlockParser[] parsers, CharArrayLineSource source )
+        throws ParseException
+    {
+        return nextBlock( parsers, source, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Parses the next top-level block if it starts before a given offset, skipping any empty lines before it.
+     *
+     * @param parsers the block parsers.
+     * @param source the source to read lines from.
+     * @param limit the offset in the document where no more blocks may start.
+     * @return the next block, or <code>null</code> if the source has no more lines before the limit, in which case
+     * the first line at or after the limit is not read.
+     * @throws ParseException if any.
+     */
+    private static Block nextBlock( CharSequenceBlockParser[] parsers, CharArrayLineSource source, int limit )
+        throws ParseException
+    {
+        CharSequence line;
+
+        while ( ( line = source.getNextLineSequence() ) != null )
+        {
+            int kinds = LineClassifier.classify( line );
+
+            if ( kinds != LineClassifier.BLANK )
+            {
+                if ( source.getLineStart() >= limit )
                 {
-                    continue;
+                    source.ungetLine();
+                    return null;
                 }
 
-                if ( parser.accept( line, source ) )
-                {
-                    //accepted = true;
+                return parsers[LineClassifier.kindIndex( kinds )].visit( line, source );
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * All the state of a parse lives on the stack of the calling thread, so one instance can parse any number of
+     * documents concurrently. The whole document is read into memory first, and its lines are then handed to the
+     * block parsers as views of that one buffer.
+     */
+    public void parse( Reader source, Sink sink )
+        throws ParseException
+    {
+        CharArrayLineSource src;
+
+        try
+        {
+            src = new CharArrayLineSource( source );
+        }
+        catch ( IOException e )
+        {
+            throw new ParseException( "Unable to read the document", e );
+        }
+
+        parse( src, sink );
+    }
+
+    /**
+     * Parses a UTF-8 file.
+     *
+     * @param file the file to parse.
+     * @param sink the sink to receive the events.
+     * @throws ParseException if the file cannot be read or parsed.
+     * @see #parse(File, String, Sink)
+     * @since 1.3-e1
+     */
+    public void parse( File file, Sink sink )
+        throws ParseException
+    {
+        parse( file, null, sink );
+    }
+
+    /**
+     * Parses a file. This is faster than parsing a <code>Reader</code> on the file: large files are memory-mapped,
+     * UTF-8 and ASCII are decoded in bulk without a <code>Reader</code>, and line terminators are normalized while
+     * decoding.
+     *
+     * @param file the file to parse.
+     * @param encoding the encoding of the file, <code>null</code> for UTF-8.
+     * @param sink the sink to receive the events.
+     * @throws ParseException if the file cannot be read or parsed.
+     * @since 1.3-e1
+     */
+    public void parse( File file, String encoding, Sink sink )
+        throws ParseException
+    {
+        CharArrayLineSource src;
+
+        try
+        {
+            src = CharArrayLineSource.read( file, encoding );
+        }
+        catch ( IOException e )
+        {
+            throw new ParseException( e, file.getPath(), -1, -1 );
+        }
+
+        parse( src, sink );
+    }
+
+    private void parse( CharArrayLineSource src, Sink sink )
+        throws ParseException
+    {
+        // read once, the parser may be reconfigured while it parses
+        CharSequenceBlockParser[] parsers = this.parsers;
+        ConfluenceParseCache parseCache = this.parseCache;
+        ConfluenceDiskCache diskCache = this.diskCache;
+
+        if ( parseCache != null || diskCache != null )
+        {
+            parse( src, parsers, parseCache, diskCache, sink );
+            return;
+        }
+
+        boolean streaming = this.streaming;
+        ExecutorService executor = this.executor;
+
+        if ( executor != null )
+        {
+            Chunk[] chunks = split( src, parsers, chunkSize );
+
+            if ( chunks.length > 1 )
+            {
+                parse( src, parsers, chunks, executor, streaming, sink );
+                return;
+            }
+        }
+
+        try
+        {
+            if ( streaming )
+            {
+                stream( parsers, src, sink );
+            }
+            else
+            {
+                traverse( parse( parsers, src ), sink );
+            }
+        }
+        catch ( Exception e )
+        {
+            throw parseException( e, src );
+        }
+    }
+
+    /** Wraps a failure to parse a document, at the line the source has reached. */
+    private static ParseException parseException( Exception e, CharArrayLineSource src )
+    {
+        // TODO handle column number
+        return new ParseException( e, src.getName(), src.getLineNumber(), -1 );
+    }
+
+    /**
+     * Sends the events of a document to a sink, from the cache in memory or on disk if the document is there. Either
+     * cache may be <code>null</code>, but not both.
+     */
+    private static void parse( CharArrayLineSource src, CharSequenceBlockParser[] parsers,
+                               ConfluenceParseCache parseCache, ConfluenceDiskCache diskCache, Sink sink )
+        throws ParseException
+    {
+        CharArraySequence document = src.getDocument();
+        RecordingSink events = parseCache == null ? null : parseCache.get( document );
+
+        if ( events == null )
+        {
+            if ( parseCache == null && diskCache.replay( document, sink ) )
+            {
+                return;
+            }
 
-                    blocks.add( parser.visit( line, source ) );
+            events = new RecordingSink();
 
-                    break;
+            if ( parseCache == null || diskCache == null || !diskCache.replay( document, events ) )
+            {
+                try
+                {
+                    stream( parsers, src, events );
+                }
+                catch ( Exception e )
+                {
+                    throw parseException( e, src );
+                }
+
+                if ( diskCache != null )
+                {
+                    diskCache.put( document, events );
                 }
             }
 
-/*
-            if ( !accepted )
+            events.trim();
+
+            if ( parseCache != null )
             {
-                throw new ParseException( "don't know how to handle line: " + source.getLineNumber() + ": " + line );
+                parseCache.put( document, events );
             }
-*/
         }
 
-        return blocks;
+        events.replay( sink );
     }
 
-    /** {@inheritDoc} */
-    public synchronized void parse( Reader source, Sink sink )
+    /** Sends each block to the sink as soon as it is parsed. */
+    private static void stream( CharSequenceBlockParser[] parsers, CharArrayLineSource src, Sink sink )
+        throws ParseException
+    {
+        sink.head();
+
+        sink.head_();
+
+        sink.body();
+
+        Block block;
+
+        while ( ( block = nextBlock( parsers, src ) ) != null )
+        {
+            block.traverse( sink );
+        }
+
+        sink.body_();
+    }
+
+    private static void traverse( List<Block> blocks, Sink sink )
+    {
+        sink.head();
+
+        sink.head_();
+
+        sink.body();
+
+        for ( Block block : blocks )
+        {
+            block.traverse( sink );
+        }
+
+        sink.body_();
+    }
+
+    /**
+     * Parses the chunks of a document with an executor, and sends their blocks to the sink in order.
+     */
+    private static void parse( CharArrayLineSource src, CharSequenceBlockParser[] parsers, Chunk[] chunks,
+                               ExecutorService executor, boolean streaming, Sink sink )
         throws ParseException
     {
-        ByLineSource src = new ByLineReaderSource( source );
+        List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>( chunks.length );
+
+        // enough chunks ahead of the sink to keep every processor busy, but not the whole document
+        int ahead = 2 * Runtime.getRuntime().availableProcessors();
 
         try
         {
-            List<Block> blocks = parse( src );
+            submit( chunks, Math.min( ahead, chunks.length ), executor, futures );
+
+            List<RecordingSink> recordings = streaming ? null : new ArrayList<RecordingSink>();
+
+            if ( streaming )
+            {
+                sink.head();
 
-            sink.head();
+                sink.head_();
 
-            sink.head_();
+                sink.body();
+            }
 
-            sink.body();
+            // where the next block starts, which is the start of a chunk unless a block ran past it
+            int offset = 0;
+            int lineNumber = 0;
 
-            for ( Block block : blocks )
+            for ( int i = 0; i < chunks.length; i++ )
             {
-                block.traverse( sink );
+                if ( i + ahead < chunks.length )
+                {
+                    submit( chunks, i + ahead + 1, executor, futures );
+                }
+
+                Chunk chunk = chunks[i];
+                Future<Chunk> future = futures.get( i );
+
+                // let the blocks go once they are sent
+                chunks[i] = null;
+                futures.set( i, null );
+
+                if ( offset == chunk.start && future != null )
+                {
+                    chunk = future.get();
+                }
+                else
+                {
+                    if ( future != null )
+                    {
+                        future.cancel( false );
+                    }
+
+                    if ( offset >= chunk.end )
+                    {
+                        continue;
+                    }
+
+                    chunk = new Chunk( src, parsers, offset, lineNumber, chunk.end, chunk.endLineNumber ).call();
+                }
+
+                if ( streaming )
+                {
+                    try
+                    {
+                        chunk.events.replay( sink );
+                    }
+                    catch ( Exception e )
+                    {
+                        throw new ParseException( e, src.getName(), chunk.lineNumber, -1 );
+                    }
+                }
+                else
+                {
+                    // held until the whole document is parsed
+                    chunk.events.trim();
+                    recordings.add( chunk.events );
+                }
+
+                if ( chunk.failure != null )
+                {
+                    throw new ParseException( chunk.failure, src.getName(), chunk.lineNumber, -1 );
+                }
+
+                if ( chunk.offset > chunk.end )
+                {
+                    offset = chunk.offset;
+                    lineNumber = chunk.lineNumber;
+                }
+                else
+                {
+                    offset = chunk.end;
+                    lineNumber = chunk.endLineNumber;
+                }
             }
 
-            sink.body_();
+            try
+            {
+                if ( !streaming )
+                {
+                    sink.head();
+
+                    sink.head_();
+
+                    sink.body();
+
+                    for ( RecordingSink events : recordings )
+                    {
+                        events.replay( sink );
+                    }
+                }
+
+                sink.body_();
+            }
+            catch ( Exception e )
+            {
+                throw new ParseException( e, src.getName(), src.getLineNumber(), -1 );
+            }
         }
-        catch ( Exception e )
+        catch ( InterruptedException e )
         {
-            // TODO handle column number
-            throw new ParseException( e, src.getName(), src.getLineNumber(), -1 );
+            Thread.currentThread().interrupt();
+
+            throw new ParseException( "Interrupted while parsing the document", e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+
+            // a chunk records its own exceptions, but an executor may fail a task on its own
+            ParseException failure = new ParseException( "Unable to parse " + src.getName() );
+            failure.initCause( cause );
+
+            throw failure;
         }
         finally
         {
-            setSecondParsing( false );
-            init();
+            for ( Future<Chunk> future : futures )
+            {
+                if ( future != null )
+                {
+                    future.cancel( false );
+                }
+            }
+        }
+    }
+
+    /**
+     * Submits the chunks up to the given one that have not been submitted yet. A chunk the executor rejects is left
+     * to be parsed on the calling thread when its turn comes.
+     */
+    private static void submit( Chunk[] chunks, int count, ExecutorService executor, List<Future<Chunk>> futures )
+    {
+        while ( futures.size() < count )
+        {
+            Future<Chunk> future;
+
+            try
+            {
+                future = executor.submit( chunks[futures.size()] );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                future = null;
+            }
+
+            futures.add( future );
+        }
+    }
+
+    /**
+     * Splits a document into chunks of at least the given size. A chunk starts after a blank line that is not inside
+     * a <code>{code}</code>, <code>{noformat}</code>, <code>{note}</code>, <code>{tip}</code>, <code>{info}</code>
+     * or <code>{quote}</code> block, as far as the first characters of the lines tell.
+     */
+    private static Chunk[] split( CharArrayLineSource src, CharSequenceBlockParser[] parsers, int chunkSize )
+    {
+        CharArraySequence document = src.getDocument();
+        char[] chars = document.getChars();
+        int length = document.length();
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        int chunkStart = 0;
+        int chunkLineNumber = 0;
+        int target = chunkSize;
+
+        // the prefixes of the line that ends the block the current line is in, if any
+        String[] blockEnds = null;
+        int start = 0;
+        int lineNumber = 0;
+
+        while ( start < length && length - start > chunkSize / 2 )
+        {
+            int end = start;
+
+            while ( end < length && chars[end] != '\n' && chars[end] != '\r' )
+            {
+                end++;
+            }
+
+            int next = end + ( end + 1 < length && chars[end] == '\r' && chars[end + 1] == '\n' ? 2 : 1 );
+            lineNumber++;
+
+            if ( chars[start] == '{' )
+            {
+                CharSequence line = new CharArraySequence( chars, start, end - start );
+
+                if ( blockEnds == null )
+                {
+                    if ( startsWith( line, VERBATIM_STARTS ) )
+                    {
+                        blockEnds = VERBATIM_ENDS;
+                    }
+                    else if ( startsWith( line, MACRO_BOUNDARIES ) )
+                    {
+                        blockEnds = MACRO_BOUNDARIES;
+                    }
+                }
+                else if ( startsWith( line, blockEnds ) )
+                {
+                    blockEnds = null;
+                }
+            }
+            else if ( blockEnds == null && start >= target && next < length
+                && CharArraySequence.isBlank( new CharArraySequence( chars, start, end - start ) ) )
+            {
+                chunks.add( new Chunk( src, parsers, chunkStart, chunkLineNumber, next, lineNumber ) );
+                chunkStart = next;
+                chunkLineNumber = lineNumber;
+                target = next + chunkSize;
+            }
+
+            start = next;
+        }
+
+        chunks.add( new Chunk( src, parsers, chunkStart, chunkLineNumber, length, -1 ) );
+
+        return chunks.toArray( new Chunk[chunks.size()] );
+    }
+
+    private static boolean startsWith( CharSequence line, String[] prefixes )
+    {
+        for ( int i = 0; i < prefixes.length; i++ )
+        {
+            if ( CharArraySequence.startsWith( line, prefixes[i] ) )
+            {
+                return true;
+            }
         }
+
+        return false;
     }
 
-    /** {@inheritDoc} */
-    protected void init()
+    /**
+     * The events of the blocks that start in a range of a document, parsed from the start of the range as if it were
+     * the start of a top-level block, and traversed where they are parsed. The last block may end past the range.
+     */
+    private static final class Chunk
+        implements Callable<Chunk>
     {
-        super.init();
+        private final CharArrayLineSource document;
 
-        BlockParser headingParser = new SectionBlockParser();
-        BlockParser figureParser = new FigureBlockParser();
-        BlockParser verbatimParser = new VerbatimBlockParser();
-        BlockParser definitionParser = new DefinitionListBlockParser();
-        BlockParser horizontalRuleParser = new HorizontalRuleBlockParser();
-        BlockParser listParser = new ListBlockParser();
-        BlockParser tableParser = new TableBlockParser();
+        private final CharSequenceBlockParser[] parsers;
 
-        BlockParser[] subparsers =
-                new BlockParser[] { headingParser, figureParser, listParser, tableParser, verbatimParser };
-        BlockParser paragraphParser = new ParagraphBlockParser( subparsers );
+        private final int start;
 
-        this.parsers =
-            new BlockParser[] { headingParser, figureParser, verbatimParser, definitionParser, horizontalRuleParser,
-                listParser, tableParser, paragraphParser };
+        private final int startLineNumber;
+
+        /** The offset where the next chunk starts. */
+        private final int end;
+
+        private final int endLineNumber;
+
+        private final RecordingSink events = new RecordingSink();
+
+        /** Where the last block ends, or where parsing failed. */
+        private int offset;
+
+        private int lineNumber;
+
+        private Exception failure;
+
+        Chunk( CharArrayLineSource document, CharSequenceBlockParser[] parsers, int start, int startLineNumber,
+               int end, int endLineNumber )
+        {
+            this.document = document;
+            this.parsers = parsers;
+            this.start = start;
+            this.startLineNumber = startLineNumber;
+            this.end = end;
+            this.endLineNumber = endLineNumber;
+        }
+
+        /** {@inheritDoc} */
+        public Chunk call()
+        {
+            CharArrayLineSource source = document.fork( start, startLineNumber );
+            offset = start;
+            lineNumber = startLineNumber;
+
+            try
+            {
+                Block block;
+
+                while ( ( block = nextBlock( parsers, source, end ) ) != null )
+                {
+                    block.traverse( events );
+                    offset = source.getOffset();
+                    lineNumber = source.getLineNumber();
+                }
+            }
+            catch ( Exception e )
+            {
+                failure = e;
+                lineNumber = source.getLineNumber();
+            }
+
+            return this;
+        }
     }
 }
@@ -22,7 +22,6 @@ package org.apache.maven.doxia.module.confluence;
  */
 
 import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Stack;
 
@@ -37,6 +36,13 @@ import org.codehaus.plexus.util.StringUtils;
  * Confluence Sink implementation.
  * <br/>
  * <b>Note</b>: The encoding used is UTF-8.
+ * <p>
+ * The markup is sent to the writer as it is rendered, except for trailing whitespace, which the end of a line may
+ * still trim. A document that starts with whitespace is held back whole until the first line that is trimmed when it
+ * ends, like the end of a paragraph, which may be much later than its first line: the text of a long paragraph, for
+ * example, is all held back, whatever its size.
+ * {@link #flush()} sends everything else and flushes the writer, and {@link #close()} sends the rest.
+ * </p>
  *
  * @author <a href="mailto:vincent.siveton@gmail.com">Vincent Siveton</a>
  * @version $Id: ConfluenceSink.java 1091053 2011-04-11 12:55:07Z ltheussl $
@@ -47,19 +53,56 @@ public class ConfluenceSink
     implements ConfluenceMarkup
 {
     /**  The writer to use. */
-    private final PrintWriter out;
+    private PrintWriter out;
 
-    /**  The writer to use. */
-    private StringWriter writer;
+    /** The markup that starts a section title, by level. */
+    private static final String[] SECTION_TITLE_MARKUPS = { null, "h1. ", "h2. ", "h3. ", "h4. ", "h5. " };
+
+    /** The markup that starts a list item, by level, for the levels most lists stay within. */
+    private static final String[] LIST_ITEM_MARKUPS = new String[16];
+
+    static
+    {
+        for ( int i = 0; i < LIST_ITEM_MARKUPS.length; i++ )
+        {
+            LIST_ITEM_MARKUPS[i] = StringUtils.repeat( "*", i ) + " ";
+        }
+    }
+
+    /** Whether a line feed must be replaced when it is written, the system EOL being something else. */
+    private static final boolean UNIFY_LINE_FEEDS = !"\n".equals( EOL );
+
+    /** The size the buffer may grow to before its settled part is sent to the writer. */
+    private static final int FLUSH_THRESHOLD = 8192;
+
+    /**
+     * The end of the document written so far, which a later trim may still change: the trailing whitespace, or the
+     * whole document as long as leading whitespace may still be trimmed. The rest has already been sent to the
+     * writer. Only the ends of the buffer are ever looked at again, so every event takes time in proportion to what
+     * it writes, and memory use does not grow with the size of the document.
+     */
+    private StringBuilder buffer;
+
+    /**
+     * Whether the document starts with its first non-whitespace character, leading whitespace having been trimmed
+     * or there being none.
+     */
+    private boolean leadingTrimmed;
+
+    /** Used to copy the buffer to the writer. */
+    private final char[] chunk = new char[FLUSH_THRESHOLD];
 
     /** An indication on if we're in head mode. */
     private boolean headFlag;
 
     private int levelList = 0;
 
-    /**  listStyles. */
+    /**  listStyles, each one being the markup that starts an item. */
     private final Stack<String> listStyles;
 
+    /** An indication on if we're in verbatim mode. */
+    private boolean verbatimFlag;
+
     /** An indication on if we're in verbatim box mode. */
     private boolean verbatimBoxedFlag;
 
@@ -83,10 +126,38 @@ public class ConfluenceSink
         init();
     }
 
+    /**
+     * Makes a closed sink write a new document to another writer, so that it can be used again.
+     *
+     * @param writer not null writer to write the result.
+     */
+    void setWriter( Writer writer )
+    {
+        this.out = new PrintWriter( writer );
+    }
+
+    /**
+     * @return the number of characters the buffer can hold without growing.
+     */
+    int getBufferCapacity()
+    {
+        return buffer.capacity();
+    }
+
+    /**
+     * Replaces the buffer of a closed sink, which grew larger than it needs to be for most documents.
+     */
+    void trimBuffer()
+    {
+        this.buffer = new StringBuilder();
+    }
+
     /** {@inheritDoc} */
     public void anchor( String name )
     {
-        write( ANCHOR_START_MARKUP + name + ANCHOR_END_MARKUP );
+        write( ANCHOR_START_MARKUP );
+        write( name );
+        write( ANCHOR_END_MARKUP );
     }
 
     /** {@inheritDoc} */
@@ -176,7 +247,7 @@ public class ConfluenceSink
     /** {@inheritDoc} */
     public void close()
     {
-        out.write( writer.toString() );
+        writeBuffer( buffer.length() );
         out.close();
 
         init();
@@ -360,7 +431,9 @@ public class ConfluenceSink
     public void figureGraphics( String name )
     {
         writeEOL();
-        write( FIGURE_START_MARKUP + name + FIGURE_END_MARKUP );
+        write( FIGURE_START_MARKUP );
+        write( name );
+        write( FIGURE_END_MARKUP );
     }
 
     /** {@inheritDoc} */
@@ -374,11 +447,15 @@ public class ConfluenceSink
         }
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     *
+     * Whitespace at the end of the document is held back, as the next line may still trim it.
+     */
     public void flush()
     {
-        close();
-        writer.flush();
+        writeSettled();
+        out.flush();
     }
 
     /** {@inheritDoc} */
@@ -463,7 +540,7 @@ public class ConfluenceSink
     /** {@inheritDoc} */
     public void list()
     {
-        if ( !writer.toString().endsWith( EOL + EOL ) )
+        if ( !endsWith( EOL + EOL ) )
         {
             writeEOL( true );
         }
@@ -486,7 +563,14 @@ public class ConfluenceSink
     /** {@inheritDoc} */
     public void listItem()
     {
-        write( StringUtils.repeat( "*", levelList ) + " " );
+        if ( levelList >= 0 && levelList < LIST_ITEM_MARKUPS.length )
+        {
+            write( LIST_ITEM_MARKUPS[levelList] );
+        }
+        else
+        {
+            write( StringUtils.repeat( "*", levelList ) + " " );
+        }
     }
 
     /** {@inheritDoc} */
@@ -536,7 +620,7 @@ public class ConfluenceSink
             case NUMBERING_LOWER_ROMAN:
             case NUMBERING_DECIMAL:
             default:
-                style = NUMBERING_MARKUP;
+                style = NUMBERING_MARKUP + SPACE;
         }
 
         listStyles.push( style );
@@ -559,8 +643,7 @@ public class ConfluenceSink
     public void numberedListItem()
     {
         writeEOL( true );
-        String style = listStyles.peek();
-        write( style + SPACE );
+        write( listStyles.peek() );
     }
 
     /** {@inheritDoc} */
@@ -737,7 +820,7 @@ public class ConfluenceSink
     {
         if ( level > 0 && level < 6 )
         {
-            write( "h" + level + ". " );
+            write( SECTION_TITLE_MARKUPS[level] );
         }
     }
 
@@ -966,11 +1049,19 @@ public class ConfluenceSink
             write( LINK_START_MARKUP );
         }
 
-        content( text );
+        if ( verbatimFlag )
+        {
+            verbatimContent( text );
+        }
+        else
+        {
+            content( text );
+        }
 
         if ( linkName != null )
         {
-            write( LINK_MIDDLE_MARKUP + linkName );
+            write( LINK_MIDDLE_MARKUP );
+            write( linkName );
         }
     }
 
@@ -1016,6 +1107,8 @@ public class ConfluenceSink
     /** {@inheritDoc} */
     public void verbatim( boolean boxed )
     {
+        verbatimFlag = true;
+
         if ( boxed )
         {
             verbatimBoxedFlag = true;
@@ -1035,6 +1128,8 @@ public class ConfluenceSink
     /** {@inheritDoc} */
     public void verbatim_()
     {
+        verbatimFlag = false;
+
         if ( verbatimBoxedFlag )
         {
             write( "{code}" );
@@ -1054,7 +1149,172 @@ public class ConfluenceSink
 
     private void write( String text )
     {
-        writer.write( unifyEOLs( text ) );
+        append( text, false );
+    }
+
+    /**
+     * Writes the text of a verbatim block as it is, without escaping it or changing its line terminators, which
+     * would change the code. A large text is sent to the writer at once, after what the buffer holds, rather than
+     * copied through the buffer: only its trailing whitespace, which a later trim may still remove, is buffered, and
+     * so is a text of whitespace only, whatever its length.
+     */
+    private void verbatimContent( String text )
+    {
+        if ( text == null )
+        {
+            return;
+        }
+
+        int end = text.length();
+
+        if ( end < FLUSH_THRESHOLD || !leadingTrimmed )
+        {
+            buffer.append( text );
+        }
+        else
+        {
+            while ( end > 0 && text.charAt( end - 1 ) <= ' ' )
+            {
+                end--;
+            }
+
+            // whitespace alone settles nothing, the whitespace held back before it included
+            if ( end > 0 )
+            {
+                writeBuffer( buffer.length() );
+                out.write( text, 0, end );
+            }
+
+            buffer.append( text, end, text.length() );
+        }
+
+        if ( buffer.length() >= FLUSH_THRESHOLD )
+        {
+            writeSettled();
+        }
+    }
+
+    /**
+     * Appends text to the buffer in one pass over it: line terminators become {@link #EOL}, as with
+     * {@link #unifyEOLs(String)}, and the characters that {@link HtmlTools#escapeHTML(String)} escapes are escaped
+     * if asked to. The runs of characters in between are copied as they are, so no String is built.
+     */
+    private void append( String text, boolean escape )
+    {
+        int length = text.length();
+        int start = 0;
+
+        for ( int i = 0; i < length; i++ )
+        {
+            char c = text.charAt( i );
+            String replacement = null;
+            int end = i + 1;
+
+            switch ( c )
+            {
+                case '\r':
+                    replacement = EOL;
+                    if ( end < length && text.charAt( end ) == '\n' )
+                    {
+                        end++;
+                    }
+                    break;
+                case '\n':
+                    if ( UNIFY_LINE_FEEDS )
+                    {
+                        replacement = EOL;
+                    }
+                    break;
+                case '<':
+                    if ( escape )
+                    {
+                        replacement = "&lt;";
+                    }
+                    break;
+                case '>':
+                    if ( escape )
+                    {
+                        replacement = "&gt;";
+                    }
+                    break;
+                case '&':
+                    if ( escape )
+                    {
+                        replacement = "&amp;";
+                    }
+                    break;
+                case '"':
+                    if ( escape )
+                    {
+                        replacement = "&quot;";
+                    }
+                    break;
+                case '\'':
+                    if ( escape )
+                    {
+                        replacement = "&apos;";
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            if ( replacement != null )
+            {
+                buffer.append( text, start, i ).append( replacement );
+                start = end;
+                i = end - 1;
+            }
+        }
+
+        buffer.append( text, start, length );
+
+        if ( buffer.length() >= FLUSH_THRESHOLD )
+        {
+            writeSettled();
+        }
+    }
+
+    /**
+     * Sends the part of the buffer that no later trim can change to the writer: everything up to the last
+     * non-whitespace character, once leading whitespace is out of the way.
+     */
+    private void writeSettled()
+    {
+        if ( !leadingTrimmed )
+        {
+            if ( buffer.length() == 0 || buffer.charAt( 0 ) <= ' ' )
+            {
+                return;
+            }
+
+            leadingTrimmed = true;
+        }
+
+        int end = buffer.length();
+
+        while ( end > 0 && buffer.charAt( end - 1 ) <= ' ' )
+        {
+            end--;
+        }
+
+        writeBuffer( end );
+    }
+
+    /**
+     * Sends the start of the buffer to the writer, and removes it from the buffer.
+     */
+    private void writeBuffer( int end )
+    {
+        for ( int start = 0; start < end; start += chunk.length )
+        {
+            int length = Math.min( chunk.length, end - start );
+
+            buffer.getChars( start, start + length, chunk, 0 );
+            out.write( chunk, 0, length );
+        }
+
+        buffer.delete( 0, end );
     }
 
     /**
@@ -1076,12 +1336,55 @@ public class ConfluenceSink
             return;
         }
 
-        String tmp = writer.toString().trim();
-        writer = new StringWriter();
-        writer.write( tmp );
+        // what String.trim() would do to the whole document, looking only at the whitespace it removes
+        int end = buffer.length();
+
+        while ( end > 0 && buffer.charAt( end - 1 ) <= ' ' )
+        {
+            end--;
+        }
+
+        buffer.setLength( end );
+
+        if ( !leadingTrimmed )
+        {
+            int start = 0;
+
+            while ( start < end && buffer.charAt( start ) <= ' ' )
+            {
+                start++;
+            }
+
+            buffer.delete( 0, start );
+            leadingTrimmed = buffer.length() > 0;
+        }
+
         write( EOL );
     }
 
+    /**
+     * Tells whether the document ends with the given whitespace, which the buffer still holds if it does.
+     */
+    private boolean endsWith( String suffix )
+    {
+        int start = buffer.length() - suffix.length();
+
+        if ( start < 0 )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < suffix.length(); i++ )
+        {
+            if ( buffer.charAt( start + i ) != suffix.charAt( i ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Write HTML escaped text to output.
      *
@@ -1089,7 +1392,10 @@ public class ConfluenceSink
      */
     protected void content( String text )
     {
-        write( escapeHTML( text ) );
+        if ( text != null )
+        {
+            append( text, true );
+        }
     }
 
     /** {@inheritDoc} */
@@ -1097,10 +1403,19 @@ public class ConfluenceSink
     {
         super.init();
 
-        this.writer = new StringWriter();
+        if ( buffer == null )
+        {
+            this.buffer = new StringBuilder();
+        }
+        else
+        {
+            buffer.setLength( 0 );
+        }
+        this.leadingTrimmed = false;
         this.headFlag = false;
         this.levelList = 0;
         this.listStyles.clear();
+        this.verbatimFlag = false;
         this.verbatimBoxedFlag = false;
         this.tableHeaderFlag = false;
         this.linkName = null;
@@ -21,13 +21,20 @@ package org.apache.maven.doxia.module.confluence;
  * under the License.
  */
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
 
 import org.apache.maven.doxia.sink.AbstractTextSinkFactory;
 import org.apache.maven.doxia.sink.Sink;
 
 /**
  * Confluence implementation of the Sink factory.
+ * <p>
+ * The sinks that write UTF-8 to an output stream or to a channel encode the markup themselves, into byte buffers that
+ * are pooled by the factory, instead of going through an <code>OutputStreamWriter</code>.
+ * </p>
  *
  * @author <a href="mailto:vincent.siveton@gmail.com">Vincent Siveton</a>
  * @version $Id: ConfluenceSinkFactory.java 712574 2008-11-09 22:16:42Z hboutemy $
@@ -37,10 +44,59 @@ import org.apache.maven.doxia.sink.Sink;
 public class ConfluenceSinkFactory
     extends AbstractTextSinkFactory
 {
+    /** The size of the buffers the sinks encode into, in bytes. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The number of buffers a sink fills before it writes them to a channel, with one gathering write. */
+    private static final int GATHERED_BUFFERS = 8;
+
+    /** The number of buffers a pool keeps at most. */
+    private static final int POOL_CAPACITY = 64;
+
+    private static final String UTF_8 = "UTF-8";
+
+    /** The buffers of the sinks that write bytes. */
+    private final ByteBufferPool buffers = new ByteBufferPool( BUFFER_SIZE, POOL_CAPACITY );
+
     /** {@inheritDoc} */
     protected Sink createSink( Writer writer, String encoding )
     {
         // encoding can safely be ignored since it isn't written into the generated Confluence source
         return new ConfluenceSink( writer );
     }
+
+    /** {@inheritDoc} */
+    public Sink createSink( OutputStream out, String encoding )
+        throws IOException
+    {
+        if ( isUtf8( encoding ) )
+        {
+            return createSink( new ByteBufferWriter( out, buffers ), UTF_8 );
+        }
+
+        return super.createSink( out, encoding );
+    }
+
+    /**
+     * Creates a sink that writes UTF-8 to a channel. The markup is written a few buffers at a time, with one
+     * gathering write if the channel is a <code>GatheringByteChannel</code>, such as a <code>FileChannel</code>.
+     *
+     * @param channel the channel, closed when the sink is closed.
+     * @return a sink.
+     * @since 1.3-e1
+     */
+    public Sink createSink( WritableByteChannel channel )
+    {
+        return createSink( new ByteBufferWriter( channel, buffers, GATHERED_BUFFERS ), UTF_8 );
+    }
+
+    /**
+     * @param encoding an encoding name, may be <code>null</code>.
+     * @return whether the encoding is UTF-8.
+     * @since 1.3-e1
+     */
+    static boolean isUtf8( String encoding )
+    {
+        return UTF_8.equalsIgnoreCase( encoding ) || "UTF8".equalsIgnoreCase( encoding );
+    }
 }
@@ -0,0 +1,272 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.doxia.sink.Sink;
+
+/**
+ * A Confluence sink factory that reuses its sinks.
+ * <p>
+ * A sink goes back to the pool of the factory when it is closed, and the factory hands it out again, reset, instead
+ * of allocating a new sink with its buffers. A sink must therefore not be used, nor closed again, once it has been
+ * closed. The pool keeps a bounded number of sinks, and a sink whose buffer grew past a maximum size, for a document
+ * with a very long line, gets a new buffer before it goes back to the pool.
+ * </p>
+ * <p>
+ * The statistics of the pool tell how many sinks were reused and how often buffers grew too large, which may call
+ * for a larger maximum buffer size.
+ * </p>
+ *
+ * @since 1.3-e1
+ * @plexus.component role="org.apache.maven.doxia.sink.SinkFactory" role-hint="confluence-pooled"
+ */
+public class PooledConfluenceSinkFactory
+    extends ConfluenceSinkFactory
+{
+    /** The default number of sinks the pool keeps. */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /** The default size a buffer may keep when its sink goes back to the pool, in characters. */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 64 * 1024;
+
+    private final int capacity;
+
+    private final int maxBufferSize;
+
+    private final List<PooledSink> sinks;
+
+    private long hits;
+
+    private long misses;
+
+    private long trimmedBuffers;
+
+    private int largestBuffer;
+
+    /**
+     * Creates a factory with a pool of {@link #DEFAULT_CAPACITY} sinks, whose buffers are kept up to
+     * {@link #DEFAULT_MAX_BUFFER_SIZE} characters.
+     */
+    public PooledConfluenceSinkFactory()
+    {
+        this( DEFAULT_CAPACITY, DEFAULT_MAX_BUFFER_SIZE );
+    }
+
+    /**
+     * Creates a factory.
+     *
+     * @param capacity the number of sinks the pool keeps, at least one per thread that renders documents at the
+     * same time for every sink to be reused.
+     * @param maxBufferSize the size a buffer may keep when its sink goes back to the pool, in characters.
+     */
+    public PooledConfluenceSinkFactory( int capacity, int maxBufferSize )
+    {
+        if ( capacity < 1 )
+        {
+            throw new IllegalArgumentException( "Capacity must be positive: " + capacity );
+        }
+
+        if ( maxBufferSize < 0 )
+        {
+            throw new IllegalArgumentException( "Maximum buffer size must not be negative: " + maxBufferSize );
+        }
+
+        this.capacity = capacity;
+        this.maxBufferSize = maxBufferSize;
+        this.sinks = new ArrayList<PooledSink>( capacity );
+    }
+
+    /** {@inheritDoc} */
+    protected Sink createSink( Writer writer, String encoding )
+    {
+        PooledSink sink = null;
+
+        synchronized ( sinks )
+        {
+            if ( sinks.isEmpty() )
+            {
+                misses++;
+            }
+            else
+            {
+                sink = sinks.remove( sinks.size() - 1 );
+                hits++;
+            }
+        }
+
+        if ( sink == null )
+        {
+            return new PooledSink( writer );
+        }
+
+        sink.setWriter( writer );
+        sink.closed = false;
+
+        return sink;
+    }
+
+    /** Takes a closed sink back, with a new buffer if its buffer grew too large. */
+    private void release( PooledSink sink )
+    {
+        int bufferSize = sink.getBufferCapacity();
+        boolean trim = bufferSize > maxBufferSize;
+
+        if ( trim )
+        {
+            sink.trimBuffer();
+        }
+
+        synchronized ( sinks )
+        {
+            largestBuffer = Math.max( largestBuffer, bufferSize );
+
+            if ( trim )
+            {
+                trimmedBuffers++;
+            }
+
+            if ( sinks.size() < capacity )
+            {
+                sinks.add( sink );
+            }
+        }
+    }
+
+    /**
+     * <p>getHits.</p>
+     *
+     * @return the number of sinks taken from the pool.
+     */
+    public long getHits()
+    {
+        synchronized ( sinks )
+        {
+            return hits;
+        }
+    }
+
+    /**
+     * <p>getMisses.</p>
+     *
+     * @return the number of sinks allocated because the pool was empty.
+     */
+    public long getMisses()
+    {
+        synchronized ( sinks )
+        {
+            return misses;
+        }
+    }
+
+    /**
+     * <p>getHitRate.</p>
+     *
+     * @return the share of the sinks created that were taken from the pool, between 0 and 1.
+     */
+    public double getHitRate()
+    {
+        synchronized ( sinks )
+        {
+            return hits + misses == 0 ? 0 : hits / (double) ( hits + misses );
+        }
+    }
+
+    /**
+     * <p>getTrimmedBuffers.</p>
+     *
+     * @return the number of times a buffer had grown past the maximum size when its sink was closed, and was
+     * replaced.
+     */
+    public long getTrimmedBuffers()
+    {
+        synchronized ( sinks )
+        {
+            return trimmedBuffers;
+        }
+    }
+
+    /**
+     * <p>getLargestBuffer.</p>
+     *
+     * @return the size of the largest buffer a sink had when it was closed, in characters.
+     */
+    public int getLargestBuffer()
+    {
+        synchronized ( sinks )
+        {
+            return largestBuffer;
+        }
+    }
+
+    /**
+     * <p>getPooledSinks.</p>
+     *
+     * @return the number of sinks in the pool.
+     */
+    public int getPooledSinks()
+    {
+        synchronized ( sinks )
+        {
+            return sinks.size();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        synchronized ( sinks )
+        {
+            return hits + " sinks reused, " + misses + " allocated (" + Math.round( getHitRate() * 100 )
+                + "% hits), " + trimmedBuffers + " buffers trimmed, largest " + largestBuffer + " chars";
+        }
+    }
+
+    /** A sink that goes back to the pool when it is closed. */
+    private final class PooledSink
+        extends ConfluenceSink
+    {
+        /** Whether the sink was closed, and went back to the pool. */
+        private boolean closed;
+
+        PooledSink( Writer writer )
+        {
+            super( writer );
+        }
+
+        /** {@inheritDoc} */
+        public void close()
+        {
+            if ( closed )
+            {
+                return;
+            }
+
+            super.close();
+            closed = true;
+            release( this );
+        }
+    }
+}
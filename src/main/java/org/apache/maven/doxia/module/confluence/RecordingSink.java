@@ -0,0 +1,1217 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+
+import org.apache.maven.doxia.module.confluence.parser.DecorationAttributeSet;
+import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkAdapter;
+import org.apache.maven.doxia.sink.SinkEventAttributeSet;
+import org.apache.maven.doxia.sink.SinkEventAttributes;
+
+/**
+ * A sink that records the events {@link ConfluenceParser} sends, to send them again to other sinks.
+ * <p>
+ * Each event takes one byte, and its arguments are kept in one array, so a recording takes little more memory than
+ * the text of its document. Only the events the parser sends are recorded: the others are ignored, like in any
+ * {@link SinkAdapter}. Once recorded, the events may be sent again any number of times, by any number of threads at
+ * once.
+ * </p>
+ * <p>
+ * The events may also be written in a compact binary form, and sent to a sink straight from it with
+ * {@link #replay(ByteBuffer, Sink)}. Each event is written as its code, followed by its arguments: numbers take 7 bits
+ * a byte, strings their length followed by one to three bytes a character, like in
+ * {@link java.io.DataOutput#writeUTF(String)} but with no limit on their length, and attributes their count followed
+ * by their names and values. A string, an array or attributes that are <code>null</code> are written as the count
+ * 0, and any other as their count plus one.
+ * </p>
+ *
+ * @since 1.3-e1
+ */
+class RecordingSink
+    extends SinkAdapter
+{
+    // the codes of the events, one per method
+    static final byte HEAD = 0;
+    static final byte HEAD_END = 1;
+    static final byte BODY = 2;
+    static final byte BODY_END = 3;
+    static final byte SECTION_1 = 4;
+    static final byte SECTION_1_END = 5;
+    static final byte SECTION_TITLE_1 = 6;
+    static final byte SECTION_TITLE_1_END = 7;
+    static final byte SECTION_2 = 8;
+    static final byte SECTION_2_END = 9;
+    static final byte SECTION_TITLE_2 = 10;
+    static final byte SECTION_TITLE_2_END = 11;
+    static final byte SECTION_3 = 12;
+    static final byte SECTION_3_END = 13;
+    static final byte SECTION_TITLE_3 = 14;
+    static final byte SECTION_TITLE_3_END = 15;
+    static final byte SECTION_4 = 16;
+    static final byte SECTION_4_END = 17;
+    static final byte SECTION_TITLE_4 = 18;
+    static final byte SECTION_TITLE_4_END = 19;
+    static final byte SECTION_5 = 20;
+    static final byte SECTION_5_END = 21;
+    static final byte SECTION_TITLE_5 = 22;
+    static final byte SECTION_TITLE_5_END = 23;
+    static final byte PARAGRAPH = 24;
+    static final byte PARAGRAPH_END = 25;
+    static final byte BOLD = 26;
+    static final byte BOLD_END = 27;
+    static final byte ITALIC = 28;
+    static final byte ITALIC_END = 29;
+    static final byte MONOSPACED = 30;
+    static final byte MONOSPACED_END = 31;
+    static final byte LINK_END = 32;
+    static final byte ANCHOR_END = 33;
+    static final byte FIGURE = 34;
+    static final byte FIGURE_END = 35;
+    static final byte FIGURE_CAPTION = 36;
+    static final byte FIGURE_CAPTION_END = 37;
+    static final byte HORIZONTAL_RULE = 38;
+    static final byte LINE_BREAK = 39;
+    static final byte LIST = 40;
+    static final byte LIST_END = 41;
+    static final byte NUMBERED_LIST_END = 42;
+    static final byte LIST_ITEM = 43;
+    static final byte LIST_ITEM_END = 44;
+    static final byte DEFINITION_LIST = 45;
+    static final byte DEFINITION_LIST_END = 46;
+    static final byte DEFINED_TERM = 47;
+    static final byte DEFINED_TERM_END = 48;
+    static final byte DEFINITION = 49;
+    static final byte DEFINITION_END = 50;
+    static final byte TABLE = 51;
+    static final byte TABLE_END = 52;
+    static final byte TABLE_ROWS_END = 53;
+    static final byte TABLE_ROW = 54;
+    static final byte TABLE_ROW_END = 55;
+    static final byte TABLE_CELL = 56;
+    static final byte TABLE_CELL_END = 57;
+    static final byte TABLE_HEADER_CELL = 58;
+    static final byte TABLE_HEADER_CELL_END = 59;
+    static final byte VERBATIM_END = 60;
+    static final byte TEXT = 61;
+    static final byte DECORATED_TEXT = 62;
+    static final byte ANCHOR = 63;
+    static final byte LINK = 64;
+    static final byte FIGURE_GRAPHICS = 65;
+    static final byte NUMBERED_LIST = 66;
+    static final byte TABLE_ROWS = 67;
+    static final byte VERBATIM = 68;
+
+    /** The estimated size of a recording without its events, in bytes. */
+    private static final long RECORDING_SIZE = 64;
+
+    /** The estimated size of the attributes of an event, in bytes. */
+    private static final long ATTRIBUTES_SIZE = 160;
+
+    private byte[] codes = new byte[256];
+
+    private int size;
+
+    private Object[] arguments = new Object[64];
+
+    private int argumentCount;
+
+    /** The estimated size of the recording, without the unused ends of its arrays. */
+    private long bytes = RECORDING_SIZE;
+
+    /** {@inheritDoc} */
+    public void head()
+    {
+        add( HEAD );
+    }
+
+    /** {@inheritDoc} */
+    public void head_()
+    {
+        add( HEAD_END );
+    }
+
+    /** {@inheritDoc} */
+    public void body()
+    {
+        add( BODY );
+    }
+
+    /** {@inheritDoc} */
+    public void body_()
+    {
+        add( BODY_END );
+    }
+
+    /** {@inheritDoc} */
+    public void section1()
+    {
+        add( SECTION_1 );
+    }
+
+    /** {@inheritDoc} */
+    public void section1_()
+    {
+        add( SECTION_1_END );
+    }
+
+    /** {@inheritDoc} */
+    public void sectionTitle1()
+    {
+        add( SECTION_TITLE_1 );
+    }
+
+    /** {@inheritDoc} */
+    public void sectionTitle1_()
+    {
+        add( SECTION_TITLE_1_END );
+    }
+
+    /** {@inheritDoc} */
+    public void section2()
+    {
+        add( SECTION_2 );
+    }
+
+    /** {@inheritDoc} */
+    public void section2_()
+    {
+        add( SECTION_2_END );
+    }
+
+    /** {@inheritDoc} */
+    public void sectionTitle2()
+    {
+        add( SECTION_TITLE_2 );
+    }
+
+    /** {@inheritDoc} */
+    public void sectionTitle2_()
+    {
+        add( SECTION_TITLE_2_END );
+    }
+
+    /** {@inheritDoc} */
+    public void section3()
+    {
+        add( SECTION_3 );
+    }
+
+    /** {@inheritDoc} */
+    public void section3_()
+    {
+        add( SECTION_3_END );
+    }
+
+    /** {@inheritDoc} */
+    public void sectionTitle3()
+    {
+        add( SECTION_TITLE_3 );
+    }
+
+    /** {@inheritDoc} */
+    public void sectionTitle3_()
+    {
+        add( SECTION_TITLE_3_END );
+    }
+
+    /** {@inheritDoc} */
+    public void section4()
+    {
+        add( SECTION_4 );
+    }
+
+    /** {@inheritDoc} */
+    public void section4_()
+    {
+        add( SECTION_4_END );
+    }
+
+    /** {@inheritDoc} */
+    public void sectionTitle4()
+    {
+        add( SECTION_TITLE_4 );
+    }
+
+    /** {@inheritDoc} */
+    public void sectionTitle4_()
+    {
+        add( SECTION_TITLE_4_END );
+    }
+
+    /** {@inheritDoc} */
+    public void section5()
+    {
+        add( SECTION_5 );
+    }
+
+    /** {@inheritDoc} */
+    public void section5_()
+    {
+        add( SECTION_5_END );
+    }
+
+    /** {@inheritDoc} */
+    public void sectionTitle5()
+    {
+        add( SECTION_TITLE_5 );
+    }
+
+    /** {@inheritDoc} */
+    public void sectionTitle5_()
+    {
+        add( SECTION_TITLE_5_END );
+    }
+
+    /** {@inheritDoc} */
+    public void paragraph()
+    {
+        add( PARAGRAPH );
+    }
+
+    /** {@inheritDoc} */
+    public void paragraph_()
+    {
+        add( PARAGRAPH_END );
+    }
+
+    /** {@inheritDoc} */
+    public void bold()
+    {
+        add( BOLD );
+    }
+
+    /** {@inheritDoc} */
+    public void bold_()
+    {
+        add( BOLD_END );
+    }
+
+    /** {@inheritDoc} */
+    public void italic()
+    {
+        add( ITALIC );
+    }
+
+    /** {@inheritDoc} */
+    public void italic_()
+    {
+        add( ITALIC_END );
+    }
+
+    /** {@inheritDoc} */
+    public void monospaced()
+    {
+        add( MONOSPACED );
+    }
+
+    /** {@inheritDoc} */
+    public void monospaced_()
+    {
+        add( MONOSPACED_END );
+    }
+
+    /** {@inheritDoc} */
+    public void link_()
+    {
+        add( LINK_END );
+    }
+
+    /** {@inheritDoc} */
+    public void anchor_()
+    {
+        add( ANCHOR_END );
+    }
+
+    /** {@inheritDoc} */
+    public void figure()
+    {
+        add( FIGURE );
+    }
+
+    /** {@inheritDoc} */
+    public void figure_()
+    {
+        add( FIGURE_END );
+    }
+
+    /** {@inheritDoc} */
+    public void figureCaption()
+    {
+        add( FIGURE_CAPTION );
+    }
+
+    /** {@inheritDoc} */
+    public void figureCaption_()
+    {
+        add( FIGURE_CAPTION_END );
+    }
+
+    /** {@inheritDoc} */
+    public void horizontalRule()
+    {
+        add( HORIZONTAL_RULE );
+    }
+
+    /** {@inheritDoc} */
+    public void lineBreak()
+    {
+        add( LINE_BREAK );
+    }
+
+    /** {@inheritDoc} */
+    public void list()
+    {
+        add( LIST );
+    }
+
+    /** {@inheritDoc} */
+    public void list_()
+    {
+        add( LIST_END );
+    }
+
+    /** {@inheritDoc} */
+    public void numberedList_()
+    {
+        add( NUMBERED_LIST_END );
+    }
+
+    /** {@inheritDoc} */
+    public void listItem()
+    {
+        add( LIST_ITEM );
+    }
+
+    /** {@inheritDoc} */
+    public void listItem_()
+    {
+        add( LIST_ITEM_END );
+    }
+
+    /** {@inheritDoc} */
+    public void definitionList()
+    {
+        add( DEFINITION_LIST );
+    }
+
+    /** {@inheritDoc} */
+    public void definitionList_()
+    {
+        add( DEFINITION_LIST_END );
+    }
+
+    /** {@inheritDoc} */
+    public void definedTerm()
+    {
+        add( DEFINED_TERM );
+    }
+
+    /** {@inheritDoc} */
+    public void definedTerm_()
+    {
+        add( DEFINED_TERM_END );
+    }
+
+    /** {@inheritDoc} */
+    public void definition()
+    {
+        add( DEFINITION );
+    }
+
+    /** {@inheritDoc} */
+    public void definition_()
+    {
+        add( DEFINITION_END );
+    }
+
+    /** {@inheritDoc} */
+    public void table()
+    {
+        add( TABLE );
+    }
+
+    /** {@inheritDoc} */
+    public void table_()
+    {
+        add( TABLE_END );
+    }
+
+    /** {@inheritDoc} */
+    public void tableRows_()
+    {
+        add( TABLE_ROWS_END );
+    }
+
+    /** {@inheritDoc} */
+    public void tableRow()
+    {
+        add( TABLE_ROW );
+    }
+
+    /** {@inheritDoc} */
+    public void tableRow_()
+    {
+        add( TABLE_ROW_END );
+    }
+
+    /** {@inheritDoc} */
+    public void tableCell()
+    {
+        add( TABLE_CELL );
+    }
+
+    /** {@inheritDoc} */
+    public void tableCell_()
+    {
+        add( TABLE_CELL_END );
+    }
+
+    /** {@inheritDoc} */
+    public void tableHeaderCell()
+    {
+        add( TABLE_HEADER_CELL );
+    }
+
+    /** {@inheritDoc} */
+    public void tableHeaderCell_()
+    {
+        add( TABLE_HEADER_CELL_END );
+    }
+
+    /** {@inheritDoc} */
+    public void verbatim_()
+    {
+        add( VERBATIM_END );
+    }
+
+    /** {@inheritDoc} */
+    public void text( String text )
+    {
+        add( TEXT );
+        addArgument( text );
+    }
+
+    /** {@inheritDoc} */
+    public void text( String text, SinkEventAttributes attributes )
+    {
+        add( DECORATED_TEXT );
+        addArgument( text );
+        addArgument( attributes );
+    }
+
+    /** {@inheritDoc} */
+    public void anchor( String name )
+    {
+        add( ANCHOR );
+        addArgument( name );
+    }
+
+    /** {@inheritDoc} */
+    public void link( String name )
+    {
+        add( LINK );
+        addArgument( name );
+    }
+
+    /** {@inheritDoc} */
+    public void figureGraphics( String name )
+    {
+        add( FIGURE_GRAPHICS );
+        addArgument( name );
+    }
+
+    /** {@inheritDoc} */
+    public void numberedList( int numbering )
+    {
+        add( NUMBERED_LIST );
+        addArgument( Integer.valueOf( numbering ) );
+    }
+
+    /** {@inheritDoc} */
+    public void tableRows( int[] justification, boolean grid )
+    {
+        add( TABLE_ROWS );
+        addArgument( justification );
+        addArgument( Boolean.valueOf( grid ) );
+    }
+
+    /** {@inheritDoc} */
+    public void verbatim( SinkEventAttributes attributes )
+    {
+        add( VERBATIM );
+        addArgument( attributes );
+    }
+
+    /**
+     * Sends the recorded events to a sink.
+     *
+     * @param sink the sink.
+     */
+    public void replay( Sink sink )
+    {
+        replay( new RecordedEvents(), sink );
+    }
+
+    /**
+     * Sends events written by {@link #encode()} to a sink.
+     *
+     * @param events the events, read from their position up to their limit.
+     * @param sink the sink.
+     * @throws RuntimeException if the events are malformed. The events before the malformed one have been sent.
+     */
+    static void replay( ByteBuffer events, Sink sink )
+    {
+        replay( new EncodedEvents( events ), sink );
+    }
+
+    private static void replay( Events events, Sink sink )
+    {
+        for ( int code = events.next(); code >= 0; code = events.next() )
+        {
+            switch ( code )
+            {
+                case HEAD:
+                    sink.head();
+                    break;
+                case HEAD_END:
+                    sink.head_();
+                    break;
+                case BODY:
+                    sink.body();
+                    break;
+                case BODY_END:
+                    sink.body_();
+                    break;
+                case SECTION_1:
+                    sink.section1();
+                    break;
+                case SECTION_1_END:
+                    sink.section1_();
+                    break;
+                case SECTION_TITLE_1:
+                    sink.sectionTitle1();
+                    break;
+                case SECTION_TITLE_1_END:
+                    sink.sectionTitle1_();
+                    break;
+                case SECTION_2:
+                    sink.section2();
+                    break;
+                case SECTION_2_END:
+                    sink.section2_();
+                    break;
+                case SECTION_TITLE_2:
+                    sink.sectionTitle2();
+                    break;
+                case SECTION_TITLE_2_END:
+                    sink.sectionTitle2_();
+                    break;
+                case SECTION_3:
+                    sink.section3();
+                    break;
+                case SECTION_3_END:
+                    sink.section3_();
+                    break;
+                case SECTION_TITLE_3:
+                    sink.sectionTitle3();
+                    break;
+                case SECTION_TITLE_3_END:
+                    sink.sectionTitle3_();
+                    break;
+                case SECTION_4:
+                    sink.section4();
+                    break;
+                case SECTION_4_END:
+                    sink.section4_();
+                    break;
+                case SECTION_TITLE_4:
+                    sink.sectionTitle4();
+                    break;
+                case SECTION_TITLE_4_END:
+                    sink.sectionTitle4_();
+                    break;
+                case SECTION_5:
+                    sink.section5();
+                    break;
+                case SECTION_5_END:
+                    sink.section5_();
+                    break;
+                case SECTION_TITLE_5:
+                    sink.sectionTitle5();
+                    break;
+                case SECTION_TITLE_5_END:
+                    sink.sectionTitle5_();
+                    break;
+                case PARAGRAPH:
+                    sink.paragraph();
+                    break;
+                case PARAGRAPH_END:
+                    sink.paragraph_();
+                    break;
+                case BOLD:
+                    sink.bold();
+                    break;
+                case BOLD_END:
+                    sink.bold_();
+                    break;
+                case ITALIC:
+                    sink.italic();
+                    break;
+                case ITALIC_END:
+                    sink.italic_();
+                    break;
+                case MONOSPACED:
+                    sink.monospaced();
+                    break;
+                case MONOSPACED_END:
+                    sink.monospaced_();
+                    break;
+                case LINK_END:
+                    sink.link_();
+                    break;
+                case ANCHOR_END:
+                    sink.anchor_();
+                    break;
+                case FIGURE:
+                    sink.figure();
+                    break;
+                case FIGURE_END:
+                    sink.figure_();
+                    break;
+                case FIGURE_CAPTION:
+                    sink.figureCaption();
+                    break;
+                case FIGURE_CAPTION_END:
+                    sink.figureCaption_();
+                    break;
+                case HORIZONTAL_RULE:
+                    sink.horizontalRule();
+                    break;
+                case LINE_BREAK:
+                    sink.lineBreak();
+                    break;
+                case LIST:
+                    sink.list();
+                    break;
+                case LIST_END:
+                    sink.list_();
+                    break;
+                case NUMBERED_LIST_END:
+                    sink.numberedList_();
+                    break;
+                case LIST_ITEM:
+                    sink.listItem();
+                    break;
+                case LIST_ITEM_END:
+                    sink.listItem_();
+                    break;
+                case DEFINITION_LIST:
+                    sink.definitionList();
+                    break;
+                case DEFINITION_LIST_END:
+                    sink.definitionList_();
+                    break;
+                case DEFINED_TERM:
+                    sink.definedTerm();
+                    break;
+                case DEFINED_TERM_END:
+                    sink.definedTerm_();
+                    break;
+                case DEFINITION:
+                    sink.definition();
+                    break;
+                case DEFINITION_END:
+                    sink.definition_();
+                    break;
+                case TABLE:
+                    sink.table();
+                    break;
+                case TABLE_END:
+                    sink.table_();
+                    break;
+                case TABLE_ROWS_END:
+                    sink.tableRows_();
+                    break;
+                case TABLE_ROW:
+                    sink.tableRow();
+                    break;
+                case TABLE_ROW_END:
+                    sink.tableRow_();
+                    break;
+                case TABLE_CELL:
+                    sink.tableCell();
+                    break;
+                case TABLE_CELL_END:
+                    sink.tableCell_();
+                    break;
+                case TABLE_HEADER_CELL:
+                    sink.tableHeaderCell();
+                    break;
+                case TABLE_HEADER_CELL_END:
+                    sink.tableHeaderCell_();
+                    break;
+                case VERBATIM_END:
+                    sink.verbatim_();
+                    break;
+                case TEXT:
+                    sink.text( events.string() );
+                    break;
+                case DECORATED_TEXT:
+                    sink.text( events.string(), events.attributes() );
+                    break;
+                case ANCHOR:
+                    sink.anchor( events.string() );
+                    break;
+                case LINK:
+                    sink.link( events.string() );
+                    break;
+                case FIGURE_GRAPHICS:
+                    sink.figureGraphics( events.string() );
+                    break;
+                case NUMBERED_LIST:
+                    sink.numberedList( events.number() );
+                    break;
+                case TABLE_ROWS:
+                    sink.tableRows( events.numbers(), events.flag() );
+                    break;
+                case VERBATIM:
+                    sink.verbatim( events.attributes() );
+                    break;
+                default:
+                    throw new IllegalStateException( "Unknown event: " + code );
+            }
+        }
+    }
+
+    /**
+     * Writes the recorded events in binary form.
+     *
+     * @return the events, to be sent to a sink with {@link #replay(ByteBuffer, Sink)}.
+     */
+    byte[] encode()
+    {
+        Encoder encoder = new Encoder( size + 16 * argumentCount );
+        int a = 0;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            byte code = codes[i];
+            encoder.write( code );
+
+            switch ( code )
+            {
+                case TEXT:
+                case ANCHOR:
+                case LINK:
+                case FIGURE_GRAPHICS:
+                    encoder.writeString( (String) arguments[a++] );
+                    break;
+                case DECORATED_TEXT:
+                    encoder.writeString( (String) arguments[a++] );
+                    encoder.writeAttributes( (SinkEventAttributes) arguments[a++] );
+                    break;
+                case NUMBERED_LIST:
+                    encoder.writeNumber( ( (Integer) arguments[a++] ).intValue() );
+                    break;
+                case TABLE_ROWS:
+                    encoder.writeNumbers( (int[]) arguments[a++] );
+                    encoder.write( ( (Boolean) arguments[a++] ).booleanValue() ? 1 : 0 );
+                    break;
+                case VERBATIM:
+                    encoder.writeAttributes( (SinkEventAttributes) arguments[a++] );
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Drops the unused ends of the arrays of the recording, once every event has been recorded.
+     */
+    void trim()
+    {
+        if ( codes.length > size )
+        {
+            byte[] trimmed = new byte[size];
+            System.arraycopy( codes, 0, trimmed, 0, size );
+            codes = trimmed;
+        }
+
+        if ( arguments.length > argumentCount )
+        {
+            Object[] trimmed = new Object[argumentCount];
+            System.arraycopy( arguments, 0, trimmed, 0, argumentCount );
+            arguments = trimmed;
+        }
+    }
+
+    /**
+     * <p>getEventCount.</p>
+     *
+     * @return the number of events recorded.
+     */
+    int getEventCount()
+    {
+        return size;
+    }
+
+    /**
+     * <p>getBytes.</p>
+     *
+     * @return the estimated number of bytes the recording takes once trimmed.
+     */
+    long getBytes()
+    {
+        return bytes;
+    }
+
+    private void add( byte code )
+    {
+        if ( size == codes.length )
+        {
+            byte[] larger = new byte[size * 2];
+            System.arraycopy( codes, 0, larger, 0, size );
+            codes = larger;
+        }
+
+        codes[size++] = code;
+        bytes++;
+    }
+
+    private void addArgument( Object argument )
+    {
+        if ( argumentCount == arguments.length )
+        {
+            Object[] larger = new Object[argumentCount * 2];
+            System.arraycopy( arguments, 0, larger, 0, argumentCount );
+            arguments = larger;
+        }
+
+        arguments[argumentCount++] = argument;
+        bytes += 8;
+
+        if ( argument instanceof String )
+        {
+            bytes += 40 + 2L * ( (String) argument ).length();
+        }
+        else if ( argument instanceof int[] )
+        {
+            bytes += 16 + 4L * ( (int[]) argument ).length;
+        }
+        else if ( argument instanceof SinkEventAttributes )
+        {
+            bytes += ATTRIBUTES_SIZE;
+        }
+    }
+
+    /** The events to send to a sink, one at a time, each followed by its arguments. */
+    private abstract static class Events
+    {
+        /** @return the code of the next event, -1 if there are no more events. */
+        abstract int next();
+
+        abstract String string();
+
+        abstract SinkEventAttributes attributes();
+
+        abstract int number();
+
+        abstract int[] numbers();
+
+        abstract boolean flag();
+    }
+
+    /** The events of the recording. */
+    private final class RecordedEvents
+        extends Events
+    {
+        private int event;
+
+        private int argument;
+
+        int next()
+        {
+            return event < size ? codes[event++] : -1;
+        }
+
+        String string()
+        {
+            return (String) arguments[argument++];
+        }
+
+        SinkEventAttributes attributes()
+        {
+            return (SinkEventAttributes) arguments[argument++];
+        }
+
+        int number()
+        {
+            return ( (Integer) arguments[argument++] ).intValue();
+        }
+
+        int[] numbers()
+        {
+            return (int[]) arguments[argument++];
+        }
+
+        boolean flag()
+        {
+            return ( (Boolean) arguments[argument++] ).booleanValue();
+        }
+    }
+
+    /** Writes events in binary form. */
+    private static final class Encoder
+    {
+        private byte[] bytes;
+
+        private int length;
+
+        Encoder( int capacity )
+        {
+            this.bytes = new byte[Math.max( capacity, 16 )];
+        }
+
+        void write( int b )
+        {
+            if ( length == bytes.length )
+            {
+                byte[] larger = new byte[length * 2];
+                System.arraycopy( bytes, 0, larger, 0, length );
+                bytes = larger;
+            }
+
+            bytes[length++] = (byte) b;
+        }
+
+        void writeNumber( int number )
+        {
+            int n = number;
+
+            while ( ( n & ~0x7F ) != 0 )
+            {
+                write( ( n & 0x7F ) | 0x80 );
+                n >>>= 7;
+            }
+
+            write( n );
+        }
+
+        void writeNumbers( int[] numbers )
+        {
+            if ( numbers == null )
+            {
+                writeNumber( 0 );
+                return;
+            }
+
+            writeNumber( numbers.length + 1 );
+
+            for ( int i = 0; i < numbers.length; i++ )
+            {
+                writeNumber( numbers[i] );
+            }
+        }
+
+        void writeString( String string )
+        {
+            if ( string == null )
+            {
+                writeNumber( 0 );
+                return;
+            }
+
+            int count = string.length();
+            writeNumber( count + 1 );
+
+            for ( int i = 0; i < count; i++ )
+            {
+                char c = string.charAt( i );
+
+                if ( c >= 0x0001 && c <= 0x007F )
+                {
+                    write( c );
+                }
+                else if ( c <= 0x07FF )
+                {
+                    write( 0xC0 | ( c >> 6 ) );
+                    write( 0x80 | ( c & 0x3F ) );
+                }
+                else
+                {
+                    write( 0xE0 | ( c >> 12 ) );
+                    write( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                    write( 0x80 | ( c & 0x3F ) );
+                }
+            }
+        }
+
+        void writeAttributes( SinkEventAttributes attributes )
+        {
+            if ( attributes == null )
+            {
+                writeNumber( 0 );
+                return;
+            }
+
+            writeNumber( attributes.getAttributeCount() + 1 );
+
+            for ( Enumeration<?> names = attributes.getAttributeNames(); names.hasMoreElements(); )
+            {
+                Object name = names.nextElement();
+                writeString( name.toString() );
+                writeString( String.valueOf( attributes.getAttribute( name ) ) );
+            }
+        }
+
+        byte[] toByteArray()
+        {
+            byte[] trimmed = new byte[length];
+            System.arraycopy( bytes, 0, trimmed, 0, length );
+            return trimmed;
+        }
+    }
+
+    /** Events written by {@link RecordingSink#encode()}, read from a buffer. */
+    private static final class EncodedEvents
+        extends Events
+    {
+        private final ByteBuffer buffer;
+
+        private char[] chars = new char[64];
+
+        EncodedEvents( ByteBuffer buffer )
+        {
+            this.buffer = buffer;
+        }
+
+        int next()
+        {
+            return buffer.hasRemaining() ? buffer.get() : -1;
+        }
+
+        String string()
+        {
+            int count = number() - 1;
+
+            if ( count < 0 )
+            {
+                return null;
+            }
+
+            if ( count > chars.length )
+            {
+                chars = new char[Math.max( count, chars.length * 2 )];
+            }
+
+            for ( int i = 0; i < count; i++ )
+            {
+                int b = buffer.get();
+
+                if ( b >= 0 )
+                {
+                    chars[i] = (char) b;
+                }
+                else if ( ( b & 0xE0 ) == 0xC0 )
+                {
+                    chars[i] = (char) ( ( ( b & 0x1F ) << 6 ) | ( buffer.get() & 0x3F ) );
+                }
+                else
+                {
+                    chars[i] = (char) ( ( ( b & 0x0F ) << 12 ) | ( ( buffer.get() & 0x3F ) << 6 )
+                        | ( buffer.get() & 0x3F ) );
+                }
+            }
+
+            return new String( chars, 0, count );
+        }
+
+        SinkEventAttributes attributes()
+        {
+            int count = number() - 1;
+
+            if ( count < 0 )
+            {
+                return null;
+            }
+
+            // the type that tells each of several decorations, the only attributes of the parser that need one
+            SinkEventAttributeSet attributes = new DecorationAttributeSet();
+
+            for ( int i = 0; i < count; i++ )
+            {
+                String name = string();
+                attributes.addAttribute( name, string() );
+            }
+
+            return attributes;
+        }
+
+        int number()
+        {
+            int number = 0;
+
+            for ( int shift = 0; shift < 35; shift += 7 )
+            {
+                int b = buffer.get();
+                number |= ( b & 0x7F ) << shift;
+
+                if ( b >= 0 )
+                {
+                    return number;
+                }
+            }
+
+            throw new IllegalStateException( "Malformed number at " + buffer.position() );
+        }
+
+        int[] numbers()
+        {
+            int count = number() - 1;
+
+            if ( count < 0 )
+            {
+                return null;
+            }
+
+            int[] numbers = new int[count];
+
+            for ( int i = 0; i < count; i++ )
+            {
+                numbers[i] = number();
+            }
+
+            return numbers;
+        }
+
+        boolean flag()
+        {
+            return buffer.get() != 0;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Puts files written under a temporary name in place of the files they replace.
+ *
+ * @since 1.3-e1
+ */
+final class TemporaryFiles
+{
+    private TemporaryFiles()
+    {
+        // static methods only
+    }
+
+    /**
+     * Renames a temporary file to its target. A file may not be renamed over another on every platform, so the
+     * target is first moved to a backup file if needed, and moved back if the temporary file cannot take its place:
+     * the target is never left missing when it cannot be replaced.
+     *
+     * @param temporary the file to rename.
+     * @param target the file to replace, if it exists.
+     * @param backup where to move the target while the temporary file takes its place, deleted once it has.
+     * @throws IOException if the temporary file could not be renamed, in which case the target is as it was.
+     */
+    static void replace( File temporary, File target, File backup )
+        throws IOException
+    {
+        if ( temporary.renameTo( target ) )
+        {
+            return;
+        }
+
+        if ( !target.exists() || !target.renameTo( backup ) )
+        {
+            throw new IOException( "Unable to rename " + temporary + " to " + target );
+        }
+
+        if ( !temporary.renameTo( target ) )
+        {
+            if ( !backup.renameTo( target ) )
+            {
+                throw new IOException( "Unable to rename " + temporary + " to " + target + ", its previous version is "
+                    + backup );
+            }
+
+            throw new IOException( "Unable to rename " + temporary + " to " + target );
+        }
+
+        backup.delete();
+    }
+}
@@ -0,0 +1,483 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.parser;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.doxia.parser.ParseException;
+import org.apache.maven.doxia.util.ByLineSource;
+
+/**
+ * A {@link ByLineSource} that holds the whole document in one character array and hands out its lines as
+ * {@link CharArraySequence} views, so reading a line does not copy it. Line boundaries are found once, as the lines
+ * are first read, and kept, so the source can look ahead and rewind any number of lines with
+ * {@link #getPosition()} and {@link #setPosition(int)}, and {@link #ungetLine()} may be called repeatedly. Lines end
+ * with <code>\n</code>, <code>\r\n</code> or <code>\r</code>, as with {@link java.io.BufferedReader#readLine()}.
+ *
+ * @since 1.3-e1
+ */
+public class CharArrayLineSource
+    implements ByLineSource
+{
+    private static final int INITIAL_CAPACITY = 8192;
+
+    private final char[] chars;
+
+    private final int length;
+
+    private final String name;
+
+    /** The number of lines of the document before the first line of this source. */
+    private final int firstLine;
+
+    /** The offset of the first character of each line found so far. */
+    private int[] starts = new int[64];
+
+    /** The offset after the last character of each line found so far, before the line terminator. */
+    private int[] ends = new int[64];
+
+    /** The number of lines found so far. */
+    private int lineCount;
+
+    /** The offset where the next line to find starts. */
+    private int scanned;
+
+    /** The index of the next line to return. */
+    private int position;
+
+    /** Lines given back with {@link #unget(String)}, last one first. */
+    private final List<String> pushedBack = new ArrayList<String>();
+
+    /** The last line returned, if it was one given back with {@link #unget(String)}. */
+    private String lastPushedBack;
+
+    /**
+     * Reads a whole document.
+     *
+     * @param reader the document, read to the end but not closed.
+     * @throws IOException if the document cannot be read.
+     */
+    public CharArrayLineSource( Reader reader )
+        throws IOException
+    {
+        char[] buffer = new char[INITIAL_CAPACITY];
+        int count = 0;
+        int read;
+
+        while ( ( read = reader.read( buffer, count, buffer.length - count ) ) >= 0 )
+        {
+            count += read;
+
+            if ( count == buffer.length )
+            {
+                char[] larger = new char[buffer.length * 2];
+                System.arraycopy( buffer, 0, larger, 0, count );
+                buffer = larger;
+            }
+        }
+
+        this.chars = buffer;
+        this.length = count;
+        this.name = "";
+        this.firstLine = 0;
+    }
+
+    /**
+     * Wraps a document that is already in memory.
+     *
+     * @param chars the characters of the document, not copied: they must not change while the source is in use.
+     * @param length the number of characters of the document.
+     * @param name the name of the document, for error messages.
+     */
+    public CharArrayLineSource( char[] chars, int length, String name )
+    {
+        this( chars, length, name, 0, 0 );
+    }
+
+    private CharArrayLineSource( char[] chars, int length, String name, int offset, int firstLine )
+    {
+        this.chars = chars;
+        this.length = length;
+        this.name = name;
+        this.scanned = offset;
+        this.firstLine = firstLine;
+    }
+
+    /**
+     * Returns a new source over the same document that starts at a given line. The new source has its own position
+     * and shares nothing else with this one, so both may be read at the same time by different threads.
+     *
+     * @param offset the offset in the document of the first character of a line.
+     * @param lineNumber the number of lines of the document before that line, for {@link #getLineNumber()}.
+     * @return a source that reads the document from that line to its end.
+     */
+    public CharArrayLineSource fork( int offset, int lineNumber )
+    {
+        return new CharArrayLineSource( chars, length, name, offset, lineNumber );
+    }
+
+    /**
+     * Returns a new source over some lines of the same document, such as the body of a macro, so that they may be
+     * parsed like a whole document. Nothing is copied, and the new source has its own position like one returned by
+     * {@link #fork(int, int)}.
+     *
+     * @param offset the offset in the document of the first character of a line.
+     * @param end the offset in the document where the lines end: the first character of a line, or the length of
+     * the document.
+     * @param lineNumber the number of lines of the document before the first line, for {@link #getLineNumber()}.
+     * @return a source that reads the lines of the document between the two offsets.
+     */
+    public CharArrayLineSource range( int offset, int end, int lineNumber )
+    {
+        if ( offset < 0 || end < offset || end > length )
+        {
+            throw new IndexOutOfBoundsException( "No range from " + offset + " to " + end );
+        }
+
+        return new CharArrayLineSource( chars, end, name, offset, lineNumber );
+    }
+
+    /**
+     * Returns the whole document, without copying it.
+     *
+     * @return a view of the document.
+     */
+    public CharArraySequence getDocument()
+    {
+        return new CharArraySequence( chars, 0, length );
+    }
+
+    /**
+     * Reads a whole file. Large files are memory-mapped while they are decoded, UTF-8 and ASCII text is decoded
+     * without going through a <code>Reader</code>, and line terminators are normalized to <code>\n</code> on the way.
+     *
+     * @param file the file.
+     * @param encoding the encoding of the file, <code>null</code> for UTF-8.
+     * @return a source named after the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static CharArrayLineSource read( File file, String encoding )
+        throws IOException
+    {
+        CharArraySequence document = DocumentDecoder.decode( file, encoding );
+
+        return new CharArrayLineSource( document.getChars(), document.length(), file.getPath() );
+    }
+
+    /**
+     * Returns the next line of a source, as a view if the source supports it.
+     *
+     * @param source the source to read a line from.
+     * @return the next line, or <code>null</code> if there are no more lines.
+     * @throws ParseException if the line cannot be read.
+     */
+    public static CharSequence nextLine( ByLineSource source )
+        throws ParseException
+    {
+        if ( source instanceof CharArrayLineSource )
+        {
+            return ( (CharArrayLineSource) source ).getNextLineSequence();
+        }
+
+        return source.getNextLine();
+    }
+
+    /**
+     * Returns the line a block parser was given as a view of its source, if the source has it, so that the line is
+     * not copied again.
+     *
+     * @param line the current line of the source.
+     * @param source the source.
+     * @return the current line of the source if it is a view of the same text, the given line otherwise.
+     */
+    public static CharSequence currentLine( String line, ByLineSource source )
+    {
+        if ( source instanceof CharArrayLineSource )
+        {
+            CharSequence current = ( (CharArrayLineSource) source ).getCurrentLine();
+
+            if ( current != null && line.contentEquals( current ) )
+            {
+                return current;
+            }
+        }
+
+        return line;
+    }
+
+    /**
+     * Returns the next line without copying it.
+     *
+     * @return the next line, or <code>null</code> if there are no more lines.
+     */
+    public CharSequence getNextLineSequence()
+    {
+        if ( !pushedBack.isEmpty() )
+        {
+            lastPushedBack = pushedBack.remove( pushedBack.size() - 1 );
+            return lastPushedBack;
+        }
+
+        lastPushedBack = null;
+
+        if ( !findLine( position ) )
+        {
+            return null;
+        }
+
+        int line = position++;
+
+        return new CharArraySequence( chars, starts[line], ends[line] - starts[line] );
+    }
+
+    /** {@inheritDoc} */
+    public String getNextLine()
+    {
+        CharSequence line = getNextLineSequence();
+
+        return line == null ? null : line.toString();
+    }
+
+    /** {@inheritDoc} */
+    public String getName()
+    {
+        return name;
+    }
+
+    /** {@inheritDoc} */
+    public int getLineNumber()
+    {
+        return firstLine + position;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Unlike other sources, this one may unget any number of lines.
+     */
+    public void ungetLine()
+    {
+        if ( lastPushedBack != null )
+        {
+            pushedBack.add( lastPushedBack );
+            lastPushedBack = null;
+        }
+        else if ( position > 0 )
+        {
+            position--;
+        }
+        else
+        {
+            throw new IllegalStateException( "No line to unget" );
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void unget( String s )
+    {
+        pushedBack.add( s );
+        lastPushedBack = null;
+    }
+
+    /** {@inheritDoc} */
+    public void close()
+    {
+        pushedBack.clear();
+        lastPushedBack = null;
+    }
+
+    /**
+     * Returns the last line read again, without copying it.
+     *
+     * @return the last line read, or <code>null</code> if no line was read yet.
+     */
+    public CharSequence getCurrentLine()
+    {
+        if ( lastPushedBack != null )
+        {
+            return lastPushedBack;
+        }
+
+        if ( position == 0 )
+        {
+            return null;
+        }
+
+        return new CharArraySequence( chars, starts[position - 1], ends[position - 1] - starts[position - 1] );
+    }
+
+    /**
+     * Returns the index of the next line to read, to come back to it later with {@link #setPosition(int)}.
+     *
+     * @return the number of lines read so far.
+     */
+    public int getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Moves to another line, before or after the current one. Lines given back with {@link #unget(String)} are
+     * dropped.
+     *
+     * @param line the index of the next line to read, as returned by {@link #getPosition()}.
+     */
+    public void setPosition( int line )
+    {
+        if ( line < 0 || ( line > 0 && !findLine( line - 1 ) ) )
+        {
+            throw new IndexOutOfBoundsException( "No line " + line );
+        }
+
+        position = line;
+        pushedBack.clear();
+        lastPushedBack = null;
+    }
+
+    /**
+     * Returns the offset in the document of the first character of the next line to read. Lines given back with
+     * {@link #unget(String)} are not part of the document and are not taken into account.
+     *
+     * @return an offset in the document, the length of the document if there are no more lines.
+     */
+    public int getOffset()
+    {
+        return position < lineCount || findLine( position ) ? starts[position] : length;
+    }
+
+    /**
+     * Returns the offset in the document of the first character of the last line read.
+     *
+     * @return an offset in the document.
+     */
+    public int getLineStart()
+    {
+        return starts[position - 1];
+    }
+
+    /**
+     * Returns the offset in the document after the last character of the last line read, before its line
+     * terminator.
+     *
+     * @return an offset in the document.
+     */
+    public int getLineEnd()
+    {
+        return ends[position - 1];
+    }
+
+    /**
+     * Tells whether the last line read ends with the given line terminator.
+     *
+     * @param terminator a line terminator, <code>\n</code>, <code>\r\n</code> or <code>\r</code>.
+     * @return <code>true</code> if the last line read ends with exactly this terminator.
+     */
+    public boolean isTerminatedBy( String terminator )
+    {
+        if ( lastPushedBack != null )
+        {
+            return false;
+        }
+
+        int end = ends[position - 1];
+        int next = position < lineCount || findLine( position ) ? starts[position] : length;
+
+        if ( next - end != terminator.length() )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < terminator.length(); i++ )
+        {
+            if ( chars[end + i] != terminator.charAt( i ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a range of the document, without copying it.
+     *
+     * @param start the offset of the first character.
+     * @param end the offset after the last character.
+     * @return a view of the document.
+     */
+    public CharSequence subSequence( int start, int end )
+    {
+        return new CharArraySequence( chars, start, end - start );
+    }
+
+    /** Finds the boundaries of the lines up to the given one, if the document has that many lines. */
+    private boolean findLine( int line )
+    {
+        while ( lineCount <= line )
+        {
+            if ( scanned >= length )
+            {
+                return false;
+            }
+
+            int end = scanned;
+
+            while ( end < length && chars[end] != '\n' && chars[end] != '\r' )
+            {
+                end++;
+            }
+
+            if ( lineCount == starts.length )
+            {
+                starts = grow( starts );
+                ends = grow( ends );
+            }
+
+            starts[lineCount] = scanned;
+            ends[lineCount] = end;
+            lineCount++;
+
+            if ( end < length && chars[end] == '\r' && end + 1 < length && chars[end + 1] == '\n' )
+            {
+                scanned = end + 2;
+            }
+            else
+            {
+                scanned = end + 1;
+            }
+        }
+
+        return true;
+    }
+
+    private static int[] grow( int[] array )
+    {
+        int[] larger = new int[array.length * 2];
+        System.arraycopy( array, 0, larger, 0, array.length );
+
+        return larger;
+    }
+}
@@ -0,0 +1,207 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.parser;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * A read-only view of a range of a character array, so that lines and text runs of a document can be handed around
+ * without copying them. The array is shared, not copied: it must not change while views of it are in use. A
+ * <code>String</code> is only created by {@link #toString()}, typically when the text is sent to a sink.
+ *
+ * @since 1.3-e1
+ */
+public final class CharArraySequence
+    implements CharSequence
+{
+    private final char[] chars;
+
+    private final int offset;
+
+    private final int length;
+
+    /**
+     * Creates a view of a range of a character array.
+     *
+     * @param chars the characters, not copied.
+     * @param offset the index of the first character of the view.
+     * @param length the number of characters of the view.
+     */
+    public CharArraySequence( char[] chars, int offset, int length )
+    {
+        if ( offset < 0 || length < 0 || offset + length > chars.length )
+        {
+            throw new IndexOutOfBoundsException( "offset " + offset + ", length " + length + " in " + chars.length );
+        }
+
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns the shared array this view is a range of.
+     *
+     * @return the characters, not copied.
+     */
+    public char[] getChars()
+    {
+        return chars;
+    }
+
+    /**
+     * Returns the index in {@link #getChars()} of the first character of this view.
+     *
+     * @return the offset.
+     */
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    /** {@inheritDoc} */
+    public int length()
+    {
+        return length;
+    }
+
+    /** {@inheritDoc} */
+    public char charAt( int index )
+    {
+        if ( index < 0 || index >= length )
+        {
+            throw new IndexOutOfBoundsException( "index " + index + ", length " + length );
+        }
+
+        return chars[offset + index];
+    }
+
+    /** {@inheritDoc} */
+    public CharSequence subSequence( int start, int end )
+    {
+        if ( start < 0 || end > length || start > end )
+        {
+            throw new IndexOutOfBoundsException( "start " + start + ", end " + end + ", length " + length );
+        }
+
+        return new CharArraySequence( chars, offset + start, end - start );
+    }
+
+    /** {@inheritDoc} */
+    public String toString()
+    {
+        return new String( chars, offset, length );
+    }
+
+    /**
+     * Returns a sequence without its leading and trailing whitespace, like {@link String#trim()}. A view stays a view
+     * of the same array.
+     *
+     * @param s the sequence, not null.
+     * @return the trimmed sequence.
+     */
+    public static CharSequence trim( CharSequence s )
+    {
+        if ( !( s instanceof CharArraySequence ) )
+        {
+            return s.toString().trim();
+        }
+
+        CharArraySequence view = (CharArraySequence) s;
+        int start = view.offset;
+        int end = view.offset + view.length;
+
+        while ( start < end && view.chars[start] <= ' ' )
+        {
+            start++;
+        }
+
+        while ( end > start && view.chars[end - 1] <= ' ' )
+        {
+            end--;
+        }
+
+        return start == view.offset && end == view.offset + view.length ? view
+                        : new CharArraySequence( view.chars, start, end - start );
+    }
+
+    /**
+     * Tells whether a sequence is empty or only contains whitespace.
+     *
+     * @param s the sequence, not null.
+     * @return <code>true</code> if the sequence is blank.
+     */
+    public static boolean isBlank( CharSequence s )
+    {
+        for ( int i = 0; i < s.length(); i++ )
+        {
+            if ( s.charAt( i ) > ' ' )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Tells whether a sequence starts with a prefix, like {@link String#startsWith(String)}.
+     *
+     * @param s the sequence, not null.
+     * @param prefix the prefix, not null.
+     * @return <code>true</code> if the sequence starts with the prefix.
+     */
+    public static boolean startsWith( CharSequence s, String prefix )
+    {
+        if ( s.length() < prefix.length() )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < prefix.length(); i++ )
+        {
+            if ( s.charAt( i ) != prefix.charAt( i ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Appends a sequence to a buffer, copying a view in one go.
+     *
+     * @param buffer the buffer, not null.
+     * @param s the sequence, not null.
+     * @return the buffer.
+     */
+    public static StringBuilder append( StringBuilder buffer, CharSequence s )
+    {
+        if ( s instanceof CharArraySequence )
+        {
+            CharArraySequence view = (CharArraySequence) s;
+
+            return buffer.append( view.chars, view.offset, view.length );
+        }
+
+        return buffer.append( s );
+    }
+}
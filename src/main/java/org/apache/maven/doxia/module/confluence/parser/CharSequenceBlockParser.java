@@ -1,6 +1,6 @@
 /* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
  CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
-package org.apache.maven.doxia.module.confluence.parser.list;
+package org.apache.maven.doxia.module.confluence.parser;
 
 /*
  * Licensed to the Apache Software Foundation (ASF) under one
@@ -21,20 +21,28 @@ package org.apache.maven.doxia.module.confluence.parser.list;
  * under the License.
  */
 
-import org.apache.maven.doxia.module.confluence.parser.AbstractFatherBlock;
-import org.apache.maven.doxia.module.confluence.parser.Block;
 
-import java.util.List;
+import org.apache.maven.doxia.parser.ParseException;
+import org.apache.maven.doxia.util.ByLineSource;
 
 /**
- * @author <a href="mailto:jason@maven.org">Jason van Zyl</a>
- * @version $Id: ListBlock.java 1090706 2011-04-09 23:15:28Z hboutemy $
+ * A block parser that takes the first line of a block as any character sequence. The lines of a
+ * {@link CharArrayLineSource} are views of the buffer of the document, and are handed to such a parser as they are,
+ * without being copied into strings.
+ *
+ * @since 1.3-e1
  */
-abstract class ListBlock
-    extends AbstractFatherBlock
+public interface CharSequenceBlockParser
+    extends BlockParser
 {
-    ListBlock( List<Block> childBlocks )
-    {
-        super( childBlocks );
-    }
+    /**
+     * Visits a block, like {@link #visit(String, ByLineSource)}.
+     *
+     * @param line the first line of the block, which is the last line read from the source.
+     * @param source the source.
+     * @return the visited block.
+     * @throws org.apache.maven.doxia.parser.ParseException if any.
+     */
+    Block visit( CharSequence line, ByLineSource source )
+        throws ParseException;
 }
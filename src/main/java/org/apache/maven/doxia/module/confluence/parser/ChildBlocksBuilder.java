@@ -22,14 +22,32 @@ package org.apache.maven.doxia.module.confluence.parser;
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import org.apache.maven.doxia.sink.SinkEventAttributeSet;
+import org.apache.maven.doxia.sink.SinkEventAttributes;
 import org.codehaus.plexus.util.StringUtils;
 
 /**
  * Re-usable builder that can be used to generate paragraph and list item text from a string containing all the content
  * and wiki formatting. This class is intentionally stateful, but cheap to create, so create one as needed and keep it
  * on the stack to preserve stateless behaviour in the caller.
+ * <p>
+ * The input is read once from left to right. Inline formats (<code>*bold*</code>, <code>_italic_</code>,
+ * <code>-strike-</code>, <code>+under+</code>, <code>^sup^</code>, <code>~sub~</code> and <code>??cite??</code>) are
+ * tracked on a delimiter stack: an opening delimiter leaves a placeholder in the block list, and the matching closing
+ * delimiter replaces the placeholder and everything after it by the formatted block. Formats that are still open
+ * when an enclosing format closes, or when the input ends, keep their delimiter as plain text. A format cannot be
+ * opened twice, so the stack never holds more than one entry per format, and links, macros and monospaced text look
+ * for their closing character at most once per position: the whole build is linear in the length of the input.
+ * </p>
+ * <p>
+ * Most of the input is plain text: the builder jumps from one special character to the next with a lookup table, and
+ * keeps the plain text in between as a range of the input. Text blocks keep such ranges as {@link CharArraySequence}
+ * views, so the text is only copied when it is sent to a sink. An input without any special character becomes a
+ * single text block right away.
+ * </p>
  *
  * @author Dave Syer
  * @version $Id: ChildBlocksBuilder.java 1090706 2011-04-09 23:15:28Z hboutemy $
@@ -37,19 +55,100 @@ import org.codehaus.plexus.util.StringUtils;
  */
 public class ChildBlocksBuilder
 {
-    private boolean insideBold = false;
+    private static final int BOLD = 0;
 
-    private boolean insideItalic = false;
+    private static final int ITALIC = 1;
 
-    private boolean insideLink = false;
+    private static final int STRIKE = 2;
 
-    private List<Block> blocks = new ArrayList<Block>();
+    private static final int UNDERLINE = 3;
 
-    private StringBuffer text = new StringBuffer();
+    private static final int SUPERSCRIPT = 4;
 
-    private String input;
+    private static final int SUBSCRIPT = 5;
 
-    private boolean insideMonospaced;
+    private static final int CITATION = 6;
+
+    /** The delimiters of the inline formats, indexed by format. */
+    private static final String[] DELIMITERS = { "*", "_", "-", "+", "^", "~", "??" };
+
+    /**
+     * Whether a format requires its text to start right after the opening delimiter and to end right before the
+     * closing one, so that <code>a - b - c</code> is not struck through. Bold and italic keep their looser rules.
+     */
+    private static final boolean[] FLANKED = { false, false, true, true, true, true, true };
+
+    /** The format delimited by each ASCII character, or -1. */
+    private static final int[] FORMATS = new int[128];
+
+    private static final SinkEventAttributes SUPERSCRIPT_ATTRIBUTES =
+        new SinkEventAttributeSet( new String[] { SinkEventAttributes.VALIGN, "sup" } );
+
+    private static final SinkEventAttributes SUBSCRIPT_ATTRIBUTES =
+        new SinkEventAttributeSet( new String[] { SinkEventAttributes.VALIGN, "sub" } );
+
+    /**
+     * The characters that may start some markup, as a bitmap indexed by character code: the delimiters of the
+     * formats, <code>[</code>, <code>{</code> and <code>\</code>.
+     */
+    private static final long[] SPECIAL_CHARACTERS = new long[2];
+
+    /** The initial position of a closing character that has not been searched yet. */
+    private static final int NOT_SEARCHED = -2;
+
+    static
+    {
+        Arrays.fill( FORMATS, -1 );
+
+        for ( int format = 0; format < DELIMITERS.length; format++ )
+        {
+            FORMATS[DELIMITERS[format].charAt( 0 )] = format;
+            setSpecial( DELIMITERS[format].charAt( 0 ) );
+        }
+
+        setSpecial( '[' );
+        setSpecial( '{' );
+        setSpecial( '\\' );
+    }
+
+    private final char[] input;
+
+    /** The index in {@link #input} of the first character to parse. */
+    private final int begin;
+
+    /** The index in {@link #input} after the last character to parse. */
+    private final int limit;
+
+    private final List<Block> blocks = new ArrayList<Block>();
+
+    /** The pending text, unless it is still a single range of the input. */
+    private final StringBuilder text = new StringBuilder();
+
+    /** The start of the pending text in the input, as long as it has not been copied into {@link #text}. */
+    private int textStart;
+
+    /** The end of the pending text in the input, as long as it has not been copied into {@link #text}. */
+    private int textEnd;
+
+    /** The formats on the delimiter stack, bottom first. */
+    private final int[] formats = new int[DELIMITERS.length];
+
+    /** For each entry of the delimiter stack, the index in {@link #blocks} of its first child. */
+    private final int[] firstChildren = new int[DELIMITERS.length];
+
+    /** For each entry of the delimiter stack, the index in the input of its first character after the delimiter. */
+    private final int[] contentStarts = new int[DELIMITERS.length];
+
+    /** For each format, its index in the delimiter stack, or -1 if the format is not open. */
+    private final int[] levels = new int[DELIMITERS.length];
+
+    private int depth;
+
+    private int closingBracket = NOT_SEARCHED;
+
+    private int closingBrace = NOT_SEARCHED;
+
+    private int closingMonospace = NOT_SEARCHED;
 
     /**
      * <p>Constructor for ChildBlocksBuilder.</p>
@@ -57,8 +156,26 @@ public class ChildBlocksBuilder
      * @param input the input.
      */
     public ChildBlocksBuilder( String input )
+    {
+        this( input.toCharArray(), 0, input.length() );
+    }
+
+    /**
+     * Creates a builder for a range of a character array. The text blocks it builds are views of the array, so the
+     * array must not change afterwards.
+     *
+     * @param input the characters, not copied.
+     * @param offset the index of the first character to parse.
+     * @param length the number of characters to parse.
+     * @since 1.3-e1
+     */
+    public ChildBlocksBuilder( char[] input, int offset, int length )
     {
         this.input = input;
+        this.begin = offset;
+        this.limit = offset + length;
+
+        Arrays.fill( levels, -1 );
     }
 
     /**
@@ -68,414 +185,579 @@ public class ChildBlocksBuilder
      */
     public List<Block> getBlocks()
     {
-        List<Block> specialBlocks = new ArrayList<Block>();
+        int i = nextSpecial( begin );
+
+        if ( i == limit )
+        {
+            // no markup at all
+            if ( limit > begin )
+            {
+                blocks.add( new TextBlock( new CharArraySequence( input, begin, limit - begin ) ) );
+            }
+
+            return blocks;
+        }
 
-        for ( int i = 0; i < input.length(); i++ )
+        appendText( begin, i );
+
+        while ( i < limit )
         {
-            char c = input.charAt( i );
+            char c = input[i];
+            int format = FORMATS[c];
 
-            switch ( c )
+            if ( format >= 0 )
             {
-                case '*':
-                    if( insideMonospaced ) {
-                        text.append( c ); // avoid screwing with code samples and so on
-                        break;
-                    }
-                    
-                    if ( insideBold )
-                    {
-                        // check if there's trailing whitespace
-                        if ( nextCharMatches( input, i, " _\t.,", true ) ) {
-                            insideBold = false;
-                            specialBlocks = getList( new BoldBlock( getChildren( text, specialBlocks ) ), specialBlocks );
-                            text = new StringBuffer();
-                        }
-                        else {
-                            text.append( c ); // just add the char
-                        }
-                    }
-                    else
-                    {
-                        // check if should turn on bold
-                        if ( charBeforeMatches( input, i, " _\t", true ) ) {
-                            // only process as italic if there's preceding whitespace (don't screw up all_the_programming_variable_names)
-                            text = addTextBlockIfNecessary( blocks, specialBlocks, text );
-                            insideBold = true;
-                        }
-                        else {
-                            text.append( c ); // just add the char
-                        }
-                    }
+                i = delimiter( format, i );
+            }
+            else if ( c == '[' )
+            {
+                i = link( i );
+            }
+            else if ( c == '{' )
+            {
+                i = startsWith( "{{", i ) ? monospace( i ) : macro( i );
+            }
+            else
+            {
+                i = escape( i );
+            }
 
-                    break;
-                case '_':
-                    if( insideMonospaced ) {
-                        text.append( c ); // avoid screwing with code samples and so on
-                        break;
-                    }
-                    
-                    if ( insideItalic )
-                    {
-                        // check if there's trailing whitespace
-                        if ( nextCharMatches( input, i, " *\t.,", true ) ) {
-                            insideItalic = false;
-                            specialBlocks = getList( new ItalicBlock( getChildren( text, specialBlocks ) ), specialBlocks );
-                            text = new StringBuffer();
-                        }
-                        else {
-                            text.append( c ); // just add the char
-                        }
-                    }
-                    else
-                    {
-                        // check if should turn on italic
-                        if ( charBeforeMatches( input, i, " *\t", true ) ) {
-                            // only process as italic if there's preceding whitespace (don't screw up all_the_programming_variable_names)
-                            text = addTextBlockIfNecessary( blocks, specialBlocks, text );
-                            insideItalic = true;
-                        }
-                        else {
-                            text.append( c ); // just add the char
-                        }
-                    }
+            int next = nextSpecial( i );
+            appendText( i, next );
+            i = next;
+        }
 
-                    break;
-                case '[':
-                    if( insideMonospaced ) {
-                        // don't care about links while in monospaced mode
-                        text.append( c );
-                        break;
-                    }
-                    
-                    insideLink = true;
-                    text = addTextBlockIfNecessary( blocks, specialBlocks, text );
-                    break;
-                case ']':
-                    if( insideMonospaced ) {
-                        // don't care about links while in monospaced mode
-                        text.append( c );
-                        break;
-                    }
-                    
-                    if ( insideLink )
-                    {
-                        boolean addHTMLSuffix = false;
-                        String link = text.toString();
-
-                        if ( !link.endsWith( ".html" ) )
-                        {
-                            if ( link.indexOf( "http" ) < 0 )
-                            {
-                                addHTMLSuffix = true;
-                            }
-                        }
-                        if ( link.indexOf( "|" ) > 0 )
-                        {
-                            String[] pieces = StringUtils.split( text.toString(), "|" );
-                            
-                            if ( pieces[1].startsWith("^") )
-                            {
-                                // use the "file attachment" ^ syntax to force verbatim link: needed to allow actually linking to some non-html resources
-                                pieces[1] = pieces[1].substring(1); // now just get rid of the lead ^
-                                addHTMLSuffix = false;  // force verbatim link to support attaching files/resources (not just .html files) 
-                            } 
-
-                            if ( addHTMLSuffix )
-                            {
-                                if ( pieces[1].indexOf( "#" ) < 0 )
-                                {
-                                    pieces[1] = pieces[1].concat( ".html" );
-                                }
-                                else
-                                {
-                                    if ( !pieces[1].startsWith( "#" ) )
-                                    {
-                                        String[] temp = pieces[1].split( "#" );
-                                        pieces[1] = temp[0] + ".html#" + temp[1];
-                                    }
-                                }
-                            }
-
-                            blocks.add( new LinkBlock( pieces[1], pieces[0] ) );
-                        }
-                        else
-                        {
-                            String value = link;
-
-                            if ( link.startsWith( "#" ) )
-                            {
-                                value = link.substring( 1 );
-                            }
-                            else if ( link.startsWith( "^" ) )
-                            {
-                                link = link.substring( 1 );  // chop off the lead ^ from link and from value
-                                value = link;
-                                addHTMLSuffix = false; // force verbatim link to support attaching files/resources (not just .html files) 
-                            }
-
-                            if ( addHTMLSuffix )
-                            {
-                                if ( link.indexOf( "#" ) < 0 )
-                                {
-                                    link = link.concat( ".html" );
-                                }
-                                else
-                                {
-                                    if ( !link.startsWith( "#" ) )
-                                    {
-                                        String[] temp = link.split( "#" );
-                                        link = temp[0] + ".html#" + temp[1];
-                                    }
-                                }
-                            }
-
-                            blocks.add( new LinkBlock( link, value ) );
-                        }
-
-                        text = new StringBuffer();
-                        insideLink = false;
-                    }
+        boolean unclosed = depth > 0;
 
-                    break;
-                case '{':
-                    if( insideMonospaced ) {
-                        // don't care about blocks in monospace mode
-                        text.append( c );
-                        break;
-                    }
-                    
-                    // use look-back to allow escaping some occurences of { }
-                    if( charBefore( input, i) == '\\' ) {
-                        // escape this occurence
-                        text.setLength( text.length() - 1);
-                        text.append( c );
-                        break;
-                    }
+        unwind( 0 );
+        flushText();
 
-                    // not in monospace, and not escaped:
-                    
-                    text = addTextBlockIfNecessary( blocks, specialBlocks, text );
+        return unclosed ? mergeText( blocks ) : blocks;
+    }
 
-                    if ( nextCharAt( input, i ) == '{' ) // it's a new monospaced block
-                    {
-                        i++;
-                        insideMonospaced = true;
-                    }
-                    // else it's a confluence macro...
+    private int delimiter( int format, int i )
+    {
+        String delimiter = DELIMITERS[format];
 
-                    break;
-                case '}':
-                    
-                    if( insideMonospaced )
-                    {
-                        if( nextCharAt( input, i ) == '}' 
-                                && nextCharAt( input, i+1) != '}' ) // handle special case of }}} - we want to be "greedy" here  
-                        {
-                            // this is monospace block to be terminated
-                            i++;
-                            insideMonospaced = false;
-                            specialBlocks = getList( new MonospaceBlock( getChildren( text, specialBlocks ) ),
-                                                     specialBlocks );
-                            text = new StringBuffer();
-                            break;
-                        }
-                        else {
-                            // just append the char
-                            text.append( c );
-                            break;
-                        }
-                    }
-                    
-                    // not in monospace
-
-                    // use look-back to allow escaping some occurences of { }
-                    if( charBefore( input, i) == '\\' ) {
-                        // escape this occurence
-                        text.setLength( text.length() - 1);
-                        text.append( c );
-                        break;
-                    }
+        if ( !startsWith( delimiter, i ) )
+        {
+            // a single '?'
+            appendText( i, i + 1 );
+            return i + 1;
+        }
 
-                    // else it's a macro...
-                    
-                    String name = text.toString();
-                    if ( name.startsWith( "anchor:" ) )
-                    {
-                        blocks.add( new AnchorBlock( name.substring( "anchor:".length() ) ) );
-                    }
-                    else
-                    {
-                        blocks.add( new TextBlock( "{" + name + "}" ) );
-                    }
-                    text = new StringBuffer();
-                    break;
-                    
-                case '\\':
+        int end = i + delimiter.length();
+        int level = levels[format];
 
-                    // System.out.println( "line = " + line );
-                    if( insideMonospaced )
-                    {
-                        // just add the char, don't try to do linebreaks inside monospace (as side effect, allows us to write "\\unc\path\names" without undue hassle)
-                        text.append( c );
-                    }
-                    else 
+        if ( level >= 0 )
+        {
+            if ( canClose( format, i, end, contentStarts[level] ) )
+            {
+                close( level );
+            }
+            else
+            {
+                // avoid screwing with all_the_programming_variable_names
+                appendText( i, end );
+            }
+        }
+        else if ( canOpen( format, i, end ) )
+        {
+            open( format, end );
+        }
+        else
+        {
+            appendText( i, end );
+        }
+
+        return end;
+    }
+
+    private boolean canOpen( int format, int start, int end )
+    {
+        if ( start > begin && !isBoundary( format, input[start - 1] ) )
+        {
+            return false;
+        }
+
+        if ( FLANKED[format] )
+        {
+            return end < limit && input[end] > ' ' && input[end] != DELIMITERS[format].charAt( 0 );
+        }
+
+        return true;
+    }
+
+    private boolean canClose( int format, int start, int end, int contentStart )
+    {
+        if ( end < limit )
+        {
+            char next = input[end];
+
+            if ( next != '.' && next != ',' && !isBoundary( format, next ) )
+            {
+                return false;
+            }
+        }
+
+        if ( FLANKED[format] )
+        {
+            return start > contentStart && input[start - 1] > ' ';
+        }
+
+        return true;
+    }
+
+    /** Whitespace and the delimiters of other formats may precede an opening or follow a closing delimiter. */
+    private static boolean isBoundary( int format, char c )
+    {
+        if ( c == ' ' || c == '\t' )
+        {
+            return true;
+        }
+
+        int other = c < FORMATS.length ? FORMATS[c] : -1;
+
+        return other >= 0 && other != format;
+    }
+
+    private void open( int format, int contentStart )
+    {
+        flushText();
+
+        // stands for the delimiter until the format is closed
+        blocks.add( new Delimiter( DELIMITERS[format] ) );
+
+        formats[depth] = format;
+        firstChildren[depth] = blocks.size();
+        contentStarts[depth] = contentStart;
+        levels[format] = depth;
+        depth++;
+    }
+
+    private void close( int level )
+    {
+        boolean unclosed = level < depth - 1;
+        int format = formats[level];
+        int firstChild = firstChildren[level];
+
+        unwind( level );
+
+        CharSequence txt = CharArraySequence.trim( takeText() );
+
+        if ( txt.length() > 0 )
+        {
+            blocks.add( new TextBlock( txt ) );
+        }
+
+        List<Block> tail = blocks.subList( firstChild - 1, blocks.size() );
+        List<Block> children = new ArrayList<Block>( tail.subList( 1, tail.size() ) );
+        tail.clear();
+
+        blocks.add( createBlock( format, unclosed ? mergeText( children ) : children ) );
+    }
+
+    /** Pops the delimiter stack down to the given level; the delimiters of the popped formats remain plain text. */
+    private void unwind( int level )
+    {
+        while ( depth > level )
+        {
+            depth--;
+            levels[formats[depth]] = -1;
+        }
+    }
+
+    private static Block createBlock( int format, List<Block> children )
+    {
+        switch ( format )
+        {
+            case BOLD:
+                return new BoldBlock( children );
+            case STRIKE:
+                return new DecoratedBlock( SinkEventAttributeSet.LINETHROUGH, children );
+            case UNDERLINE:
+                return new DecoratedBlock( SinkEventAttributeSet.UNDERLINE, children );
+            case SUPERSCRIPT:
+                return new DecoratedBlock( SUPERSCRIPT_ATTRIBUTES, children );
+            case SUBSCRIPT:
+                return new DecoratedBlock( SUBSCRIPT_ATTRIBUTES, children );
+            case ITALIC:
+            case CITATION:
+            default:
+                // Doxia has no citation event, and citations are rendered in italics anyway
+                return new ItalicBlock( children );
+        }
+    }
+
+    private int link( int i )
+    {
+        closingBracket = find( closingBracket, i + 1, ']' );
+
+        if ( closingBracket < 0 )
+        {
+            appendText( i, i + 1 );
+            return i + 1;
+        }
+
+        flushText();
+        addLink( new String( input, i + 1, closingBracket - i - 1 ) );
+
+        return closingBracket + 1;
+    }
+
+    private void addLink( String link )
+    {
+        boolean addHTMLSuffix = false;
+
+        if ( !link.endsWith( ".html" ) )
+        {
+            if ( link.indexOf( "http" ) < 0 )
+            {
+                addHTMLSuffix = true;
+            }
+        }
+        if ( link.indexOf( "|" ) > 0 )
+        {
+            String[] pieces = StringUtils.split( link, "|" );
+
+            if ( pieces[1].startsWith( "^" ) )
+            {
+                // use the "file attachment" ^ syntax to force verbatim link: needed to allow actually linking to some non-html resources
+                pieces[1] = pieces[1].substring( 1 ); // now just get rid of the lead ^
+                addHTMLSuffix = false; // force verbatim link to support attaching files/resources (not just .html files)
+            }
+
+            if ( addHTMLSuffix )
+            {
+                if ( pieces[1].indexOf( "#" ) < 0 )
+                {
+                    pieces[1] = pieces[1].concat( ".html" );
+                }
+                else
+                {
+                    if ( !pieces[1].startsWith( "#" ) )
                     {
-                        if ( nextCharAt( input, i ) == '\\' )
-                        {
-                            // process two \\ slashes as explicit line break
-                            i++;
-                            text = addTextBlockIfNecessary( blocks, specialBlocks, text );
-                            blocks.add( new LinebreakBlock() );
-                        }
-                        else if( nextCharMatches( input, i, "*_", false ) )
-                        {
-                            // eat the slash and append the escaped char verbatim (also prevent it getting processed)
-                            i++;
-                            text.append( input.charAt( i ) );
-                        } 
-                        else {
-                            text.append( c );
-                        }
+                        String[] temp = pieces[1].split( "#" );
+                        pieces[1] = temp[0] + ".html#" + temp[1];
                     }
+                }
+            }
+
+            blocks.add( new LinkBlock( pieces[1], pieces[0] ) );
+        }
+        else
+        {
+            String value = link;
 
-                    break;
-                default:
-                    text.append( c );
+            if ( link.startsWith( "#" ) )
+            {
+                value = link.substring( 1 );
+            }
+            else if ( link.startsWith( "^" ) )
+            {
+                link = link.substring( 1 ); // chop off the lead ^ from link and from value
+                value = link;
+                addHTMLSuffix = false; // force verbatim link to support attaching files/resources (not just .html files)
             }
 
-            if ( !specialBlocks.isEmpty() )
+            if ( addHTMLSuffix )
             {
-                if ( !insideItalic && !insideBold && !insideMonospaced )
+                if ( link.indexOf( "#" ) < 0 )
                 {
-                    blocks.addAll( specialBlocks );
-                    specialBlocks.clear();
+                    link = link.concat( ".html" );
+                }
+                else
+                {
+                    if ( !link.startsWith( "#" ) )
+                    {
+                        String[] temp = link.split( "#" );
+                        link = temp[0] + ".html#" + temp[1];
+                    }
                 }
             }
 
+            blocks.add( new LinkBlock( link, value ) );
+        }
+    }
+
+    private int monospace( int i )
+    {
+        closingMonospace = findClosingMonospace( i + 2 );
+
+        if ( closingMonospace < 0 )
+        {
+            appendText( i, i + 2 );
+            return i + 2;
         }
 
-        if ( text.length() > 0 )
+        flushText();
+
+        // don't care about formats, links or macros while in monospaced mode
+        CharSequence code = CharArraySequence.trim( new CharArraySequence( input, i + 2, closingMonospace - i - 2 ) );
+        List<Block> children = new ArrayList<Block>( 1 );
+
+        if ( code.length() > 0 )
+        {
+            children.add( new TextBlock( code ) );
+        }
+
+        blocks.add( new MonospaceBlock( children ) );
+
+        return closingMonospace + 2;
+    }
+
+    /**
+     * Finds the end of a monospaced text, that is the first <code>}}</code> that is not followed by another
+     * <code>}</code>: we want to be "greedy" with <code>}}}</code>.
+     */
+    private int findClosingMonospace( int from )
+    {
+        if ( closingMonospace == -1 || closingMonospace >= from )
+        {
+            return closingMonospace;
+        }
+
+        for ( int end = from; end + 1 < limit; end++ )
         {
-            blocks.add( new TextBlock( text.toString() ) );
+            if ( input[end] == '}' && input[end + 1] == '}' && ( end + 2 == limit || input[end + 2] != '}' ) )
+            {
+                return end;
+            }
         }
 
-        return blocks;
+        return -1;
     }
 
-    private List<Block> getList( Block block, List<Block> currentBlocks )
+    private int macro( int i )
     {
-        List<Block> list = new ArrayList<Block>();
+        closingBrace = find( closingBrace, i + 1, '}' );
 
-        if ( insideBold || insideItalic || insideMonospaced )
+        if ( closingBrace < 0 )
         {
-            list.addAll( currentBlocks );
+            appendText( i, i + 1 );
+            return i + 1;
         }
 
-        list.add( block );
+        flushText();
+
+        String name = new String( input, i + 1, closingBrace - i - 1 );
+
+        if ( name.startsWith( "anchor:" ) )
+        {
+            blocks.add( new AnchorBlock( name.substring( "anchor:".length() ) ) );
+        }
+        else
+        {
+            blocks.add( new TextBlock( "{" + name + "}" ) );
+        }
 
-        return list;
+        return closingBrace + 1;
     }
 
-    private List<Block> getChildren( StringBuffer buffer, List<Block> currentBlocks )
+    private int escape( int i )
     {
-        String txt = buffer.toString().trim();
+        char next = i + 1 < limit ? input[i + 1] : '\0';
+
+        if ( next == '\\' )
+        {
+            // process two \\ slashes as explicit line break
+            flushText();
+            blocks.add( new LinebreakBlock() );
+            return i + 2;
+        }
 
-        if ( currentBlocks.isEmpty() && StringUtils.isEmpty( txt ) )
+        if ( next == '{' || next == '}' || ( next < FORMATS.length && FORMATS[next] >= 0 ) )
         {
-            return new ArrayList<Block>();
+            // eat the slash and append the escaped char verbatim
+            appendText( i + 1, i + 2 );
+            return i + 2;
         }
 
-        ArrayList<Block> list = new ArrayList<Block>();
+        appendText( i, i + 1 );
+        return i + 1;
+    }
+
+    /**
+     * Returns the position of the first occurrence of a character at or after <code>from</code>, reusing the result
+     * of a previous search for the same character. The input is read forward, so a previous search started before
+     * <code>from</code> and its result is still right if it is not before <code>from</code>, or if it found nothing.
+     */
+    private int find( int previous, int from, char c )
+    {
+        if ( previous == -1 || previous >= from )
+        {
+            return previous;
+        }
 
-        if ( !insideBold && !insideItalic && !insideMonospaced )
+        for ( int i = from; i < limit; i++ )
         {
-            list.addAll( currentBlocks );
+            if ( input[i] == c )
+            {
+                return i;
+            }
         }
 
-        if ( StringUtils.isEmpty( txt ) )
+        return -1;
+    }
+
+    private boolean startsWith( String prefix, int i )
+    {
+        if ( i + prefix.length() > limit )
         {
-            return list;
+            return false;
         }
 
-        list.add( new TextBlock( txt ) );
+        for ( int j = 0; j < prefix.length(); j++ )
+        {
+            if ( input[i + j] != prefix.charAt( j ) )
+            {
+                return false;
+            }
+        }
 
-        return list;
+        return true;
     }
 
-    /** return next char */
-    private static char nextCharAt( final String input, final int i )
+    private static void setSpecial( char c )
     {
-        return input.length() > i + 1 ? input.charAt( i + 1 ) : '\0';
+        SPECIAL_CHARACTERS[c >> 6] |= 1L << c;
     }
 
-    /** return previous char (backtrack) */
-    private static char charBefore( final String input, final int i )
+    /** Returns the position of the first special character at or after <code>from</code>, or the input limit. */
+    private int nextSpecial( int from )
     {
-        return i > 0 ? input.charAt( i - 1 ) : '\0';
+        for ( int i = from; i < limit; i++ )
+        {
+            char c = input[i];
+
+            if ( c < 128 && ( SPECIAL_CHARACTERS[c >> 6] & ( 1L << c ) ) != 0 )
+            {
+                return i;
+            }
+        }
+
+        return limit;
     }
-    
-    /** check if next char matches the chars in given String of chars.
-     * 
-     * @param charList characters to match
-     * @param matchEol if end of line should be treated as matching char
-     */
-    private static boolean nextCharMatches( final String input, final int i, final String charList, final boolean matchEol )
+
+    /** Adds a range of the input to the pending text, without copying it as long as the ranges are contiguous. */
+    private void appendText( int start, int end )
     {
-        final char c = nextCharAt( input, i );
-        if( c == 0 ) {
-            return matchEol;
+        if ( start == end )
+        {
+            return;
         }
-        
-        for ( int j = 0; j < charList.length(); j++ )
+
+        if ( text.length() == 0 )
         {
-            if( c == charList.charAt( j ) ) {
-                return true;
+            if ( textStart == textEnd )
+            {
+                textStart = start;
+                textEnd = end;
+                return;
             }
+
+            if ( textEnd == start )
+            {
+                textEnd = end;
+                return;
+            }
+
+            text.append( input, textStart, textEnd - textStart );
+            textStart = 0;
+            textEnd = 0;
         }
-        
-        return false;
+
+        text.append( input, start, end - start );
     }
 
-    /** check if previous char matches the chars in given String of chars
-     * @param charList characters to match
-     * @param matchSol if start of line should be treated as matching char
-     */
-    private static boolean charBeforeMatches( final String input, final int i, final String charList, final boolean matchSol )
+    /** Returns and clears the pending text. */
+    private CharSequence takeText()
     {
-        final char c = charBefore( input, i );
-        if( c == 0 ) {
-            return matchSol;
+        CharSequence txt;
+
+        if ( text.length() > 0 )
+        {
+            txt = text.toString();
+            text.setLength( 0 );
         }
-        
-        for ( int j = 0; j < charList.length(); j++ )
+        else
         {
-            if( c == charList.charAt( j ) ) {
-                return true;
-            }
+            txt = new CharArraySequence( input, textStart, textEnd - textStart );
+            textStart = 0;
+            textEnd = 0;
+        }
+
+        return txt;
+    }
+
+    private void flushText()
+    {
+        if ( text.length() > 0 || textEnd > textStart )
+        {
+            blocks.add( new TextBlock( takeText() ) );
         }
-        
-        return false;
     }
-    
-    private StringBuffer addTextBlockIfNecessary( List<Block> blcks, List<Block> specialBlocks, StringBuffer txt )
+
+    /** Joins the runs of text blocks that contain the delimiter of a format that was never closed. */
+    private static List<Block> mergeText( List<Block> blockList )
     {
-        if ( txt.length() == 0 )
+        List<Block> merged = new ArrayList<Block>( blockList.size() );
+        int runStart = 0;
+
+        for ( int i = 0; i <= blockList.size(); i++ )
         {
-            return txt;
+            Block block = i < blockList.size() ? blockList.get( i ) : null;
+
+            if ( block instanceof TextBlock )
+            {
+                continue;
+            }
+
+            addTextRun( merged, blockList.subList( runStart, i ) );
+
+            if ( block != null )
+            {
+                merged.add( block );
+            }
+
+            runStart = i + 1;
         }
 
-        TextBlock textBlock = new TextBlock( txt.toString() );
+        return merged;
+    }
+
+    private static void addTextRun( List<Block> merged, List<Block> run )
+    {
+        boolean delimiter = false;
 
-        if ( !insideBold && !insideItalic && !insideMonospaced )
+        for ( Block block : run )
         {
-            blcks.add( textBlock );
+            delimiter |= block instanceof Delimiter;
         }
-        else
+
+        if ( !delimiter || run.size() < 2 )
+        {
+            merged.addAll( run );
+            return;
+        }
+
+        StringBuilder buffer = new StringBuilder();
+
+        for ( Block block : run )
         {
-            specialBlocks.add( textBlock );
+            buffer.append( ( (TextBlock) block ).getText() );
         }
 
-        return new StringBuffer();
+        merged.add( new TextBlock( buffer.toString() ) );
     }
 
+    /** The delimiter of a format that is not closed yet. */
+    private static final class Delimiter
+        extends TextBlock
+    {
+        Delimiter( String delimiter )
+        {
+            super( delimiter );
+        }
+    }
 }
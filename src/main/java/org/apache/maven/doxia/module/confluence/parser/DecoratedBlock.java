@@ -0,0 +1,83 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.parser;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+
+import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkEventAttributes;
+
+/**
+ * Inline text with a decoration that has no dedicated sink event, like strike-through, underline, superscript or
+ * subscript. The decoration is passed as attributes to every text event of the children, nested formats included.
+ * Nested decorations add up: struck-through text inside underlined text is both.
+ *
+ * @since 1.3-e1
+ */
+class DecoratedBlock
+    implements Block
+{
+    private final SinkEventAttributes attributes;
+
+    private final List<Block> blocks;
+
+    DecoratedBlock( SinkEventAttributes attributes, List<Block> childBlocks )
+    {
+        this.attributes = attributes;
+        this.blocks = childBlocks;
+    }
+
+    /** {@inheritDoc} */
+    public void traverse( Sink sink )
+    {
+        traverse( blocks, sink, attributes );
+    }
+
+    private static void traverse( List<Block> blocks, Sink sink, SinkEventAttributes attributes )
+    {
+        for ( Block block : blocks )
+        {
+            if ( block instanceof TextBlock )
+            {
+                sink.text( ( (TextBlock) block ).getText(), attributes );
+            }
+            else if ( block instanceof DecoratedBlock )
+            {
+                DecoratedBlock decorated = (DecoratedBlock) block;
+
+                traverse( decorated.blocks, sink, DecorationAttributeSet.merge( attributes, decorated.attributes ) );
+            }
+            else if ( block instanceof AbstractFatherBlock )
+            {
+                AbstractFatherBlock father = (AbstractFatherBlock) block;
+
+                father.before( sink );
+                traverse( father.getBlocks(), sink, attributes );
+                father.after( sink );
+            }
+            else
+            {
+                block.traverse( sink );
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.parser;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.doxia.sink.SinkEventAttributeSet;
+import org.apache.maven.doxia.sink.SinkEventAttributes;
+
+/**
+ * Attributes of text with several decorations at once. Their {@link SinkEventAttributes#DECORATION} is a list of
+ * decorations separated by spaces, like <code>underline line-through</code> in CSS, and they contain each
+ * decoration of the list: a sink that asks whether the text is underlined is told it is, even though the text is
+ * struck through too.
+ *
+ * @since 1.3-e1
+ */
+public class DecorationAttributeSet
+    extends SinkEventAttributeSet
+{
+    /**
+     * <p>Constructor for DecorationAttributeSet.</p>
+     */
+    public DecorationAttributeSet()
+    {
+        super();
+    }
+
+    /** {@inheritDoc} */
+    public boolean containsAttribute( Object name, Object value )
+    {
+        if ( SinkEventAttributes.DECORATION.equals( name ) && value != null )
+        {
+            return containsDecoration( getAttribute( name ), value.toString() );
+        }
+
+        return super.containsAttribute( name, value );
+    }
+
+    /**
+     * Merges the attributes of a decoration nested in another. The attributes of the inner decoration win, but the
+     * decorations of both are kept.
+     *
+     * @param outer the attributes of the outer decoration.
+     * @param inner the attributes of the inner decoration.
+     * @return the merged attributes.
+     */
+    static SinkEventAttributes merge( SinkEventAttributes outer, SinkEventAttributes inner )
+    {
+        DecorationAttributeSet merged = new DecorationAttributeSet();
+        merged.addAttributes( outer );
+        merged.addAttributes( inner );
+
+        Object outerDecoration = outer.getAttribute( SinkEventAttributes.DECORATION );
+        Object innerDecoration = inner.getAttribute( SinkEventAttributes.DECORATION );
+
+        if ( outerDecoration != null && innerDecoration != null
+            && !containsDecoration( outerDecoration, innerDecoration.toString() ) )
+        {
+            merged.addAttribute( SinkEventAttributes.DECORATION, outerDecoration + " " + innerDecoration );
+        }
+
+        return merged;
+    }
+
+    private static boolean containsDecoration( Object decorations, String decoration )
+    {
+        if ( decorations == null )
+        {
+            return false;
+        }
+
+        String list = decorations.toString();
+        int start = 0;
+
+        while ( start <= list.length() )
+        {
+            int end = list.indexOf( ' ', start );
+
+            if ( end < 0 )
+            {
+                end = list.length();
+            }
+
+            if ( end - start == decoration.length() && list.startsWith( decoration, start ) )
+            {
+                return true;
+            }
+
+            start = end + 1;
+        }
+
+        return false;
+    }
+}
@@ -37,9 +37,14 @@ class DefinitionListBlock
     private List<Block> text;
 
     DefinitionListBlock( String title, String text )
+    {
+        this( title, new ChildBlocksBuilder( text ).getBlocks() );
+    }
+
+    DefinitionListBlock( String title, List<Block> text )
     {
         this.title = title;
-        this.text = new ChildBlocksBuilder( text ).getBlocks();
+        this.text = text;
     }
 
     /** {@inheritDoc} */
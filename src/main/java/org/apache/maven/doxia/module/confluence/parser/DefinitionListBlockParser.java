@@ -21,33 +21,74 @@ package org.apache.maven.doxia.module.confluence.parser;
  * under the License.
  */
 
+import java.util.List;
+
 import org.apache.maven.doxia.parser.ParseException;
 import org.apache.maven.doxia.util.ByLineSource;
 
 /**
  * <p>DefinitionListBlockParser class.</p>
+ * <p>
+ * When it is given a {@link SubDocumentParser}, the body of a macro is parsed like a document of its own, so it may
+ * hold paragraphs, lists, tables and code blocks. The lines of the body are not copied: they are parsed in place in
+ * the buffer of the document. A body of one paragraph is written without paragraph tags, as before.
+ * </p>
  *
  * @author Dave Syer
  * @version $Id: DefinitionListBlockParser.java 746983 2009-02-23 12:28:41Z vsiveton $
  * @since 1.1
  */
 public class DefinitionListBlockParser
-    implements BlockParser
+    implements CharSequenceBlockParser
 {
     static final String LS = System.getProperty( "line.separator" );
 
+    private final SubDocumentParser bodyParser;
+
+    /**
+     * Creates a parser that reads the body of a macro as text.
+     */
+    public DefinitionListBlockParser()
+    {
+        this( null );
+    }
+
+    /**
+     * Creates a parser that parses the body of a macro into blocks.
+     *
+     * @param bodyParser the parser of the body, <code>null</code> to read the body as text.
+     * @since 1.3-e1
+     */
+    public DefinitionListBlockParser( SubDocumentParser bodyParser )
+    {
+        this.bodyParser = bodyParser;
+    }
+
     /** {@inheritDoc} */
     public boolean accept( String line, ByLineSource source )
     {
-        return ( line.startsWith( "{note" ) || line.startsWith( "{tip" )
-            || line.startsWith( "{info" ) || line.startsWith( "{quote" ) );
+        return ( LineClassifier.classify( line ) & LineClassifier.DEFINITION_LIST ) != 0;
     }
 
     /** {@inheritDoc} */
     public Block visit( String line, ByLineSource source )
         throws ParseException
     {
-        StringBuffer text = new StringBuffer();
+        // the lines of a document source are views of its buffer
+        return visit( line, source, CharArrayLineSource.currentLine( line, source ) instanceof CharArraySequence );
+    }
+
+    /** {@inheritDoc} */
+    public Block visit( CharSequence line, ByLineSource source )
+        throws ParseException
+    {
+        // the title is taken from a copy of the first line, the body is parsed in place
+        return visit( line.toString(), source, line instanceof CharArraySequence );
+    }
+
+    private Block visit( String line, ByLineSource source, boolean inPlace )
+        throws ParseException
+    {
         StringBuffer title = new StringBuffer();
 
         int index = line.indexOf( "title=" );
@@ -68,18 +109,73 @@ public class DefinitionListBlockParser
             }
         }
 
-        while ( ( line = source.getNextLine() ) != null )
+        if ( bodyParser == null )
+        {
+            StringBuffer text = new StringBuffer();
+
+            while ( ( line = source.getNextLine() ) != null )
+            {
+                if ( isBoundary( line ) )
+                {
+                    break;
+                }
+
+                append( text, line );
+            }
+
+            return new DefinitionListBlock( title.toString(), text.toString() );
+        }
+
+        List<Block> body = bodyParser.parse( inPlace ? bodyOf( (CharArrayLineSource) source ) : copyBodyOf( source ) );
+
+        if ( body.size() == 1 && body.get( 0 ) instanceof ParagraphBlock )
+        {
+            body = ( (ParagraphBlock) body.get( 0 ) ).getBlocks();
+        }
+
+        return new DefinitionListBlock( title.toString(), body );
+    }
+
+    /** Returns the lines of the body of a macro, and consumes them and the line that ends the macro. */
+    private static CharArrayLineSource bodyOf( CharArrayLineSource document )
+    {
+        int start = document.getOffset();
+        int lineNumber = document.getLineNumber();
+        CharSequence line;
+
+        while ( ( line = document.getNextLineSequence() ) != null )
         {
-            if ( line.startsWith( "{note" ) || line.startsWith( "{tip" )
-                || line.startsWith( "{info" ) || line.startsWith( "{quote" ) )
+            if ( isBoundary( line ) )
             {
-                break;
+                return document.range( start, document.getLineStart(), lineNumber );
             }
+        }
+
+        return document.range( start, document.getOffset(), lineNumber );
+    }
+
+    /** Copies the lines of the body of a macro from a source that does not keep them. */
+    private static CharArrayLineSource copyBodyOf( ByLineSource source )
+        throws ParseException
+    {
+        StringBuilder text = new StringBuilder();
+        CharSequence line;
 
-            append( text, line );
+        while ( ( line = CharArrayLineSource.nextLine( source ) ) != null && !isBoundary( line ) )
+        {
+            CharArraySequence.append( text, line ).append( '\n' );
         }
 
-        return new DefinitionListBlock( title.toString(), text.toString() );
+        char[] chars = new char[text.length()];
+        text.getChars( 0, chars.length, chars, 0 );
+
+        return new CharArrayLineSource( chars, chars.length, source.getName() );
+    }
+
+    private static boolean isBoundary( CharSequence line )
+    {
+        return CharArraySequence.startsWith( line, "{note" ) || CharArraySequence.startsWith( line, "{tip" )
+            || CharArraySequence.startsWith( line, "{info" ) || CharArraySequence.startsWith( line, "{quote" );
     }
 
     private void append( StringBuffer title, String line )
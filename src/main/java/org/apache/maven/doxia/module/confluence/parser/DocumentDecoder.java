@@ -0,0 +1,386 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.parser;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads a whole document from a file into a character array. Large files are memory-mapped rather than copied into
+ * the heap. UTF-8 and ISO-8859-1 are decoded by hand, copying runs of ASCII characters with a tight loop; other
+ * encodings go through a {@link CharsetDecoder}. While decoding, <code>\r\n</code> and <code>\r</code> line
+ * terminators are turned into <code>\n</code>, and a UTF-8 byte order mark is dropped. Malformed input is replaced
+ * by <code>U+FFFD</code>, one for each malformed sequence, as an <code>InputStreamReader</code> would do.
+ *
+ * @since 1.3-e1
+ */
+final class DocumentDecoder
+{
+    /** Files smaller than this are read into the heap: mapping them would cost more than it saves. */
+    static final int MAPPING_THRESHOLD = 64 * 1024;
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    /** The characters decoded so far. */
+    private final char[] chars;
+
+    /** The number of characters decoded so far. */
+    private int count;
+
+    /** Whether the last character decoded ended a line with <code>\r</code>, so a following <code>\n</code> is dropped. */
+    private boolean afterCarriageReturn;
+
+    private DocumentDecoder( int capacity )
+    {
+        this.chars = new char[capacity];
+    }
+
+    /**
+     * Reads and decodes a file.
+     *
+     * @param file the file.
+     * @param encoding the encoding of the file, <code>null</code> for UTF-8.
+     * @return the characters of the file, with <code>\n</code> line terminators.
+     * @throws IOException if the file cannot be read, or is too large to fit in a character array.
+     */
+    static CharArraySequence decode( File file, String encoding )
+        throws IOException
+    {
+        Charset charset = Charset.forName( encoding == null ? "UTF-8" : encoding );
+        FileInputStream in = new FileInputStream( file );
+
+        try
+        {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+
+            if ( size > Integer.MAX_VALUE - 8 )
+            {
+                throw new IOException( "File too large: " + file + " (" + size + " bytes)" );
+            }
+
+            ByteBuffer bytes;
+
+            if ( size >= MAPPING_THRESHOLD )
+            {
+                bytes = channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+            }
+            else
+            {
+                bytes = ByteBuffer.allocate( (int) size );
+
+                while ( bytes.hasRemaining() && channel.read( bytes ) >= 0 )
+                {
+                    // keep reading
+                }
+
+                bytes.flip();
+            }
+
+            return decode( bytes, charset );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes some bytes.
+     *
+     * @param bytes the bytes, read up to their limit.
+     * @param charset the encoding of the bytes.
+     * @return the characters, with <code>\n</code> line terminators.
+     * @throws IOException if a byte sequence cannot be decoded.
+     */
+    static CharArraySequence decode( ByteBuffer bytes, Charset charset )
+        throws IOException
+    {
+        String name = charset.name();
+
+        if ( "UTF-8".equals( name ) || "US-ASCII".equals( name ) )
+        {
+            // ASCII is a subset of UTF-8, and a non-ASCII byte is malformed either way
+            DocumentDecoder decoder = new DocumentDecoder( bytes.remaining() );
+            decoder.decodeUtf8( bytes, "UTF-8".equals( name ) );
+
+            return decoder.toSequence();
+        }
+
+        if ( "ISO-8859-1".equals( name ) )
+        {
+            DocumentDecoder decoder = new DocumentDecoder( bytes.remaining() );
+            decoder.decodeLatin1( bytes );
+
+            return decoder.toSequence();
+        }
+
+        CharsetDecoder charsetDecoder =
+            charset.newDecoder().onMalformedInput( CodingErrorAction.REPLACE ).onUnmappableCharacter(
+                                                                                   CodingErrorAction.REPLACE );
+        CharBuffer decoded = charsetDecoder.decode( bytes );
+        DocumentDecoder decoder = new DocumentDecoder( decoded.remaining() );
+
+        while ( decoded.hasRemaining() )
+        {
+            decoder.append( decoded.get() );
+        }
+
+        return decoder.toSequence();
+    }
+
+    private CharArraySequence toSequence()
+    {
+        return new CharArraySequence( chars, 0, count );
+    }
+
+    private void decodeLatin1( ByteBuffer bytes )
+    {
+        byte[] chunk = new byte[CHUNK_SIZE];
+
+        while ( bytes.hasRemaining() )
+        {
+            int length = Math.min( chunk.length, bytes.remaining() );
+            bytes.get( chunk, 0, length );
+
+            for ( int i = 0; i < length; i++ )
+            {
+                append( (char) ( chunk[i] & 0xFF ) );
+            }
+        }
+    }
+
+    private void decodeUtf8( ByteBuffer bytes, boolean multiByte )
+    {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int start = 0;
+        int end = 0;
+        boolean first = true;
+
+        while ( true )
+        {
+            if ( end - start < 4 && bytes.hasRemaining() )
+            {
+                // make sure a whole multi-byte sequence is in the chunk
+                System.arraycopy( chunk, start, chunk, 0, end - start );
+                end -= start;
+                start = 0;
+
+                int length = Math.min( chunk.length - end, bytes.remaining() );
+                bytes.get( chunk, end, length );
+                end += length;
+            }
+
+            if ( start == end )
+            {
+                break;
+            }
+
+            if ( first )
+            {
+                first = false;
+
+                if ( multiByte && end - start >= 3 && chunk[start] == (byte) 0xEF && chunk[start + 1] == (byte) 0xBB
+                    && chunk[start + 2] == (byte) 0xBF )
+                {
+                    // byte order mark
+                    start += 3;
+                    continue;
+                }
+            }
+
+            start = copyAscii( chunk, start, end );
+
+            if ( start < end )
+            {
+                start = multiByte ? decodeSequence( chunk, start, end ) : replace( start, 1 );
+            }
+        }
+    }
+
+    /** The fast path: copies a run of ASCII characters, returns the index of the first byte after it. */
+    private int copyAscii( byte[] chunk, int start, int end )
+    {
+        char[] out = chars;
+        int n = count;
+        boolean cr = afterCarriageReturn;
+        int i = start;
+
+        for ( ; i < end; i++ )
+        {
+            byte b = chunk[i];
+
+            if ( b >= ' ' )
+            {
+                out[n++] = (char) b;
+                cr = false;
+            }
+            else if ( b < 0 )
+            {
+                break;
+            }
+            else if ( b == '\r' )
+            {
+                out[n++] = '\n';
+                cr = true;
+            }
+            else if ( b != '\n' || !cr )
+            {
+                out[n++] = (char) b;
+                cr = false;
+            }
+            else
+            {
+                cr = false;
+            }
+        }
+
+        count = n;
+        afterCarriageReturn = cr;
+
+        return i;
+    }
+
+    /**
+     * Decodes one multi-byte sequence, returns the index of the byte after it. A malformed sequence is replaced by
+     * one <code>U+FFFD</code> for its longest start that could still begin a character, as the JDK's UTF-8 decoder
+     * does: a truncated sequence gives one replacement character, not one for each of its bytes.
+     */
+    private int decodeSequence( byte[] chunk, int start, int end )
+    {
+        int b = chunk[start] & 0xFF;
+        int length;
+        int codePoint;
+
+        if ( b >= 0xC2 && b <= 0xDF )
+        {
+            length = 2;
+            codePoint = b & 0x1F;
+        }
+        else if ( b >= 0xE0 && b <= 0xEF )
+        {
+            length = 3;
+            codePoint = b & 0x0F;
+        }
+        else if ( b >= 0xF0 && b <= 0xF4 )
+        {
+            length = 4;
+            codePoint = b & 0x07;
+        }
+        else
+        {
+            // a continuation byte, or a lead byte that can only start an overlong or too large sequence
+            return replace( start, 1 );
+        }
+
+        if ( start + 1 == end || !isSecondByte( b, chunk[start + 1] & 0xFF ) )
+        {
+            return replace( start, 1 );
+        }
+
+        for ( int i = 1; i < length; i++ )
+        {
+            // the input ends within the sequence only at its last chunk
+            if ( start + i == end || ( chunk[start + i] & 0xC0 ) != 0x80 )
+            {
+                return replace( start, i );
+            }
+
+            codePoint = ( codePoint << 6 ) | ( chunk[start + i] & 0x3F );
+        }
+
+        if ( codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE )
+        {
+            return replace( start, length );
+        }
+
+        if ( codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT )
+        {
+            int offset = codePoint - Character.MIN_SUPPLEMENTARY_CODE_POINT;
+
+            append( (char) ( Character.MIN_HIGH_SURROGATE + ( offset >>> 10 ) ) );
+            append( (char) ( Character.MIN_LOW_SURROGATE + ( offset & 0x3FF ) ) );
+        }
+        else
+        {
+            append( (char) codePoint );
+        }
+
+        return start + length;
+    }
+
+    /** Whether a byte may follow a lead byte, which rules out overlong and too large sequences at their start. */
+    private static boolean isSecondByte( int lead, int b )
+    {
+        if ( ( b & 0xC0 ) != 0x80 )
+        {
+            return false;
+        }
+
+        switch ( lead )
+        {
+            case 0xE0:
+                return b >= 0xA0;
+            case 0xF0:
+                return b >= 0x90;
+            case 0xF4:
+                return b < 0x90;
+            default:
+                return true;
+        }
+    }
+
+    /** Replaces the given number of bytes by one <code>U+FFFD</code>, returns the index of the byte after them. */
+    private int replace( int start, int length )
+    {
+        append( REPLACEMENT );
+
+        return start + length;
+    }
+
+    private void append( char c )
+    {
+        if ( c == '\r' )
+        {
+            chars[count++] = '\n';
+            afterCarriageReturn = true;
+        }
+        else if ( c == '\n' && afterCarriageReturn )
+        {
+            afterCarriageReturn = false;
+        }
+        else
+        {
+            chars[count++] = c;
+            afterCarriageReturn = false;
+        }
+    }
+}
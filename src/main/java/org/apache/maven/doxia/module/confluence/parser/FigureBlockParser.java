@@ -31,12 +31,19 @@ import org.apache.maven.doxia.util.ByLineSource;
  * @since 1.1
  */
 public class FigureBlockParser
-    implements BlockParser
+    implements CharSequenceBlockParser
 {
     /** {@inheritDoc} */
     public boolean accept( String line, ByLineSource source )
     {
-        return line.startsWith( "!" ) && line.lastIndexOf( "!" ) > 1;
+        return ( LineClassifier.classify( line ) & LineClassifier.FIGURE ) != 0;
+    }
+
+    /** {@inheritDoc} */
+    public Block visit( CharSequence line, ByLineSource source )
+        throws ParseException
+    {
+        return visit( line.toString(), source );
     }
 
     /** {@inheritDoc} */
@@ -79,27 +86,25 @@ public class FigureBlockParser
     private String appendUntilEmptyLine( ByLineSource source )
         throws ParseException
     {
-        StringBuffer text = new StringBuffer();
+        StringBuilder text = new StringBuilder();
 
-        String line;
+        CharSequence line;
 
-        while ( ( line = source.getNextLine() ) != null )
+        while ( ( line = CharArrayLineSource.nextLine( source ) ) != null )
         {
+            CharSequence trimmed = CharArraySequence.trim( line );
 
-            if ( line.trim().length() == 0 )
+            if ( trimmed.length() == 0 )
             {
                 break;
             }
 
-            if ( text.length() == 0 )
-            {
-                text.append( line.trim() );
-            }
-            else
+            if ( text.length() > 0 )
             {
-                text.append( " " + line.trim() );
+                text.append( ' ' );
             }
 
+            CharArraySequence.append( text, trimmed );
         }
 
         return text.toString();
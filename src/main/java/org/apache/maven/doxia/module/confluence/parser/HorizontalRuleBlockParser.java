@@ -30,12 +30,12 @@ import org.apache.maven.doxia.parser.ParseException;
  * @version $Id: HorizontalRuleBlockParser.java 746983 2009-02-23 12:28:41Z vsiveton $
  */
 public class HorizontalRuleBlockParser
-    implements BlockParser
+    implements CharSequenceBlockParser
 {
     /** {@inheritDoc} */
     public  boolean accept( String line, ByLineSource source )
     {
-        return line.startsWith( "----" );
+        return ( LineClassifier.classify( line ) & LineClassifier.HORIZONTAL_RULE ) != 0;
     }
 
     /** {@inheritDoc} */
@@ -44,4 +44,11 @@ public class HorizontalRuleBlockParser
     {
         return new HorizontalRuleBlock();
     }
+
+    /** {@inheritDoc} */
+    public Block visit( CharSequence line, ByLineSource source )
+        throws ParseException
+    {
+        return new HorizontalRuleBlock();
+    }
 }
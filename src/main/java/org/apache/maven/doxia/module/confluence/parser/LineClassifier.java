@@ -0,0 +1,234 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.parser;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Classifies a line by the block parsers that accept it, looking at the line only once.
+ * <p>
+ * The result of {@link #classify(CharSequence)} is a set of kinds, one bit per block parser. The bits are ordered by
+ * parser precedence, so the lowest bit that is set names the parser that owns the line, and
+ * {@link #kindIndex(int)} turns it into an index in a dispatch table. A line may have more than one kind:
+ * <code>---- x</code> is a horizontal rule, but a paragraph still ends before it because it is also a list item.
+ * Every non-blank line is a {@link #PARAGRAPH}; a blank line has no kind at all.
+ * </p>
+ *
+ * @since 1.3-e1
+ */
+public final class LineClassifier
+{
+    /** No kind: the line is blank. */
+    public static final int BLANK = 0;
+
+    /** Kind of a section title line, <code>h1.</code> to <code>h5.</code>. */
+    public static final int SECTION = 1;
+
+    /** Kind of a figure line, <code>!image!</code>. */
+    public static final int FIGURE = 1 << 1;
+
+    /** Kind of the first line of a <code>{code}</code> or <code>{noformat}</code> block. */
+    public static final int VERBATIM = 1 << 2;
+
+    /**
+     * Kind of the first line of a <code>{note}</code>, <code>{tip}</code>, <code>{info}</code> or
+     * <code>{quote}</code> block.
+     */
+    public static final int DEFINITION_LIST = 1 << 3;
+
+    /** Kind of a horizontal rule line, <code>----</code>. */
+    public static final int HORIZONTAL_RULE = 1 << 4;
+
+    /** Kind of a list item line, <code>*</code>, <code>-</code> or <code>#</code>. */
+    public static final int LIST = 1 << 5;
+
+    /** Kind of a table row line, <code>|</code>. */
+    public static final int TABLE = 1 << 6;
+
+    /** Kind of any non-blank line. */
+    public static final int PARAGRAPH = 1 << 7;
+
+    /** The number of kinds, which is the size of a dispatch table. */
+    public static final int KIND_COUNT = 8;
+
+    private LineClassifier()
+    {
+        // utility class
+    }
+
+    /**
+     * Classifies a line.
+     *
+     * @param line the line, not null.
+     * @return the kinds of the line, {@link #BLANK} if the line is blank.
+     */
+    public static int classify( CharSequence line )
+    {
+        int length = line.length();
+        int start = 0;
+
+        while ( start < length && line.charAt( start ) <= ' ' )
+        {
+            start++;
+        }
+
+        if ( start == length )
+        {
+            return BLANK;
+        }
+
+        if ( start > 0 )
+        {
+            // only list items may be indented
+            return isList( line, start ) ? LIST | PARAGRAPH : PARAGRAPH;
+        }
+
+        switch ( line.charAt( 0 ) )
+        {
+            case 'h':
+                if ( length > 2 && line.charAt( 1 ) >= '1' && line.charAt( 1 ) <= '5' && line.charAt( 2 ) == '.' )
+                {
+                    return SECTION | PARAGRAPH;
+                }
+                break;
+            case '!':
+                if ( lastIndexOf( line, '!' ) > 1 )
+                {
+                    return FIGURE | PARAGRAPH;
+                }
+                break;
+            case '{':
+                if ( startsWith( line, "{code" ) || startsWith( line, "{noformat}" ) )
+                {
+                    return VERBATIM | PARAGRAPH;
+                }
+                if ( startsWith( line, "{note" ) || startsWith( line, "{tip" ) || startsWith( line, "{info" )
+                    || startsWith( line, "{quote" ) )
+                {
+                    return DEFINITION_LIST | PARAGRAPH;
+                }
+                break;
+            case '-':
+                if ( startsWith( line, "----" ) )
+                {
+                    return isList( line, 0 ) ? HORIZONTAL_RULE | LIST | PARAGRAPH : HORIZONTAL_RULE | PARAGRAPH;
+                }
+                if ( isList( line, 0 ) )
+                {
+                    return LIST | PARAGRAPH;
+                }
+                break;
+            case '*':
+            case '#':
+                if ( isList( line, 0 ) )
+                {
+                    return LIST | PARAGRAPH;
+                }
+                break;
+            case '|':
+                return TABLE | PARAGRAPH;
+            default:
+                break;
+        }
+
+        return PARAGRAPH;
+    }
+
+    /**
+     * Returns the index of the kind that owns a line, that is the kind of the block parser with the highest
+     * precedence that accepts it.
+     *
+     * @param kinds the kinds of a non-blank line, as returned by {@link #classify(CharSequence)}.
+     * @return an index between 0 and {@link #KIND_COUNT} - 1.
+     */
+    public static int kindIndex( int kinds )
+    {
+        return Integer.numberOfTrailingZeros( kinds );
+    }
+
+    /**
+     * Tells whether a line is a list item, that is, whether it starts with list markers followed by a space and some
+     * text, leading and trailing whitespace being ignored.
+     *
+     * @param line the line, not null.
+     * @return <code>true</code> if the line is a list item.
+     */
+    public static boolean isList( CharSequence line )
+    {
+        int start = 0;
+
+        while ( start < line.length() && line.charAt( start ) <= ' ' )
+        {
+            start++;
+        }
+
+        return isList( line, start );
+    }
+
+    private static boolean isList( CharSequence line, int start )
+    {
+        int length = line.length();
+        int i = start;
+
+        while ( i < length && isListMarker( line.charAt( i ) ) )
+        {
+            i++;
+        }
+
+        if ( i == start || i == length || line.charAt( i ) != ' ' )
+        {
+            return false;
+        }
+
+        // there must be some text after the space
+        while ( i < length )
+        {
+            if ( line.charAt( i ) > ' ' )
+            {
+                return true;
+            }
+            i++;
+        }
+
+        return false;
+    }
+
+    private static boolean startsWith( CharSequence line, String prefix )
+    {
+        return CharArraySequence.startsWith( line, prefix );
+    }
+
+    private static int lastIndexOf( CharSequence line, char c )
+    {
+        int i = line.length() - 1;
+
+        while ( i >= 0 && line.charAt( i ) != c )
+        {
+            i--;
+        }
+
+        return i;
+    }
+
+    private static boolean isListMarker( char c )
+    {
+        return c == '*' || c == '-' || c == '#';
+    }
+}
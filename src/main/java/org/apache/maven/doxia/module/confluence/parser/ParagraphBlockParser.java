@@ -21,6 +21,11 @@ package org.apache.maven.doxia.module.confluence.parser;
  * under the License.
  */
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.doxia.module.confluence.parser.list.ListBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.table.TableBlockParser;
 import org.apache.maven.doxia.parser.ParseException;
 import org.apache.maven.doxia.util.ByLineSource;
 
@@ -30,19 +35,112 @@ import org.apache.maven.doxia.util.ByLineSource;
  * @version $Id: ParagraphBlockParser.java 775115 2009-05-15 12:54:18Z ltheussl $
  */
 public class ParagraphBlockParser
-    implements BlockParser
+    implements CharSequenceBlockParser
 {
-    private BlockParser[] parsers;
+    private static final BlockParser[] NO_PARSERS = new BlockParser[0];
+
+    /** The {@link LineClassifier} kinds of the lines that end a paragraph. */
+    private final int interruptingKinds;
+
+    /** The parsers of other kinds of blocks, which are asked whether they accept a line that may end a paragraph. */
+    private final BlockParser[] interruptingParsers;
+
+    /**
+     * <p>Constructor for ParagraphBlockParser.</p>
+     *
+     * @param interruptingKinds the {@link LineClassifier} kinds of the lines that start a new block, and so end the
+     * paragraph, even without an empty line before them.
+     * @since 1.3-e1
+     */
+    public ParagraphBlockParser( int interruptingKinds )
+    {
+        this( interruptingKinds, NO_PARSERS );
+    }
 
     /**
      * <p>Constructor for ParagraphBlockParser.</p>
      *
-     * @param parsers the parsers.
+     * @param parsers the parsers of the blocks that end the paragraph, even without an empty line before them. The
+     * parsers of this module stand for the kinds of lines they accept, and any other parser is asked whether it
+     * accepts each line.
+     * @deprecated since 1.3-e1, use {@link #ParagraphBlockParser(int)}, which tells the lines that end a paragraph
+     * from their kinds alone.
      */
+    @Deprecated
     public ParagraphBlockParser( BlockParser[] parsers )
+    {
+        this( kindsOf( parsers ), otherParsers( parsers ) );
+    }
+
+    private ParagraphBlockParser( int interruptingKinds, BlockParser[] interruptingParsers )
     {
         super();
-        this.parsers = parsers;
+        this.interruptingKinds = interruptingKinds;
+        this.interruptingParsers = interruptingParsers;
+    }
+
+    /** Returns the kind of the lines a parser of this module accepts, <code>0</code> for any other parser. */
+    private static int kindOf( BlockParser parser )
+    {
+        Class<?> type = parser.getClass();
+
+        if ( type == SectionBlockParser.class )
+        {
+            return LineClassifier.SECTION;
+        }
+        else if ( type == FigureBlockParser.class )
+        {
+            return LineClassifier.FIGURE;
+        }
+        else if ( type == VerbatimBlockParser.class )
+        {
+            return LineClassifier.VERBATIM;
+        }
+        else if ( type == DefinitionListBlockParser.class )
+        {
+            return LineClassifier.DEFINITION_LIST;
+        }
+        else if ( type == HorizontalRuleBlockParser.class )
+        {
+            return LineClassifier.HORIZONTAL_RULE;
+        }
+        else if ( type == ListBlockParser.class )
+        {
+            return LineClassifier.LIST;
+        }
+        else if ( type == TableBlockParser.class )
+        {
+            return LineClassifier.TABLE;
+        }
+
+        return 0;
+    }
+
+    private static int kindsOf( BlockParser[] parsers )
+    {
+        int kinds = 0;
+
+        for ( int i = 0; i < parsers.length; i++ )
+        {
+            kinds |= kindOf( parsers[i] );
+        }
+
+        return kinds;
+    }
+
+    private static BlockParser[] otherParsers( BlockParser[] parsers )
+    {
+        List<BlockParser> others = new ArrayList<BlockParser>();
+
+        for ( int i = 0; i < parsers.length; i++ )
+        {
+            if ( kindOf( parsers[i] ) == 0 )
+            {
+                others.add( parsers[i] );
+            }
+        }
+
+        return others.toArray( new BlockParser[others.size()] );
     }
 
     /** {@inheritDoc} */
@@ -75,69 +173,127 @@ public class ParagraphBlockParser
         }
     }
 
+    /**
+     * Visits a range of characters as one block without paragraph tags, such as the text of a table cell. The text
+     * blocks it builds are views of the array.
+     *
+     * @param chars the characters, not copied.
+     * @param offset the index of the first character of the text.
+     * @param length the length of the text.
+     * @return the visited Block.
+     * @since 1.3-e1
+     */
+    public Block visit( char[] chars, int offset, int length )
+    {
+        return new ParagraphBlock( new ChildBlocksBuilder( chars, offset, length ).getBlocks(), false );
+    }
+
     /** {@inheritDoc} */
     public Block visit( String line, ByLineSource source )
         throws ParseException
     {
+        return visit( CharArrayLineSource.currentLine( line, source ), source );
+    }
+
+    /** {@inheritDoc} */
+    public Block visit( CharSequence line, ByLineSource source )
+        throws ParseException
+    {
+        CharSequence text = appendUntilEmptyLine( line, source );
+
+        return new ParagraphBlock( newChildBlocksBuilder( text ).getBlocks() );
+    }
+
+    private static ChildBlocksBuilder newChildBlocksBuilder( CharSequence text )
+    {
+        if ( text instanceof CharArraySequence )
+        {
+            CharArraySequence view = (CharArraySequence) text;
+
+            return new ChildBlocksBuilder( view.getChars(), view.getOffset(), view.length() );
+        }
 
-        ChildBlocksBuilder builder = new ChildBlocksBuilder( appendUntilEmptyLine( line, source ) );
-        return new ParagraphBlock( builder.getBlocks() );
+        return new ChildBlocksBuilder( text.toString() );
     }
 
     /**
-     * Slurp lines from the source starting with the given line appending them together into a StringBuffer until an
-     * empty line is reached, and while the source contains more lines. The result can be passed to the
-     * {@link #getBlocks(String)} method.
+     * Slurp lines from the source starting with the given line appending them together until an empty line is
+     * reached, and while the source contains more lines. The lines are read as views when the source supports it,
+     * and a paragraph of one line is returned as is, without copying it.
      *
      * @param line the first line
      * @param source the source to read new lines from
-     * @return a StringBuffer appended with lines
+     * @return the trimmed lines, separated by spaces
      * @throws ParseException
      */
-    private String appendUntilEmptyLine( String line, ByLineSource source )
+    private CharSequence appendUntilEmptyLine( CharSequence line, ByLineSource source )
         throws ParseException
     {
-        StringBuffer text = new StringBuffer();
+        CharSequence first = null;
+        StringBuilder text = null;
 
         do
         {
+            int kinds = LineClassifier.classify( line );
 
-            if ( line.trim().length() == 0 )
+            if ( kinds == LineClassifier.BLANK )
             {
                 break;
             }
 
-            boolean accepted = false;
-            for ( int i = 0; i < parsers.length; i++ )
+            if ( ( kinds & interruptingKinds ) != 0 || accepted( line, source ) )
             {
-                BlockParser parser = parsers[i];
-                if ( parser.accept( line, source ) )
-                {
-                    accepted = true;
-                    break;
-                }
-            }
-            if ( accepted )
-            {
-                // Slightly fragile - if any of the parsers need to do this in order to decide whether to accept a line,
-                // then it will barf because of the contract of ByLineSource
                 source.ungetLine();
                 break;
             }
 
-            if ( text.length() == 0 )
+            CharSequence trimmed = CharArraySequence.trim( line );
+
+            if ( first == null )
             {
-                text.append( line.trim() );
+                first = trimmed;
             }
             else
             {
-                text.append( " " + line.trim() );
+                if ( text == null )
+                {
+                    text = CharArraySequence.append( new StringBuilder(), first );
+                }
+
+                CharArraySequence.append( text.append( ' ' ), trimmed );
             }
+        }
+        while ( ( line = CharArrayLineSource.nextLine( source ) ) != null );
 
+        if ( text == null )
+        {
+            return first == null ? "" : first;
         }
-        while ( ( line = source.getNextLine() ) != null );
 
-        return text.toString();
+        char[] chars = new char[text.length()];
+        text.getChars( 0, chars.length, chars, 0 );
+
+        return new CharArraySequence( chars, 0, chars.length );
     }
 
+    /** Tells whether one of the other parsers that end a paragraph accepts a line. */
+    private boolean accepted( CharSequence line, ByLineSource source )
+    {
+        if ( interruptingParsers.length == 0 )
+        {
+            return false;
+        }
+
+        String text = line.toString();
+
+        for ( int i = 0; i < interruptingParsers.length; i++ )
+        {
+            if ( interruptingParsers[i].accept( text, source ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
 }
@@ -31,33 +31,23 @@ import org.apache.maven.doxia.parser.ParseException;
  * @version $Id: SectionBlockParser.java 772533 2009-05-07 07:35:06Z ltheussl $
  */
 public class SectionBlockParser
-    implements BlockParser
+    implements CharSequenceBlockParser
 {
+    /** Parses the title; it is immutable, so all section parsers share it. */
+    private static final ParagraphBlockParser TITLE_PARSER =
+        new ParagraphBlockParser( LineClassifier.SECTION | LineClassifier.FIGURE );
+
     /** {@inheritDoc} */
     public boolean accept( String line, ByLineSource source )
     {
-        if ( line.startsWith( "h1." ) )
-        {
-            return true;
-        }
-        else if ( line.startsWith( "h2." ) )
-        {
-            return true;
-        }
-        else if ( line.startsWith( "h3." ) )
-        {
-            return true;
-        }
-        else if ( line.startsWith( "h4." ) )
-        {
-            return true;
-        }
-        else if ( line.startsWith( "h5." ) )
-        {
-            return true;
-        }
+        return ( LineClassifier.classify( line ) & LineClassifier.SECTION ) != 0;
+    }
 
-        return false;
+    /** {@inheritDoc} */
+    public Block visit( CharSequence line, ByLineSource source )
+        throws ParseException
+    {
+        return visit( line.toString(), source );
     }
 
     /** {@inheritDoc} */
@@ -68,10 +58,6 @@ public class SectionBlockParser
 
         String title = line.substring( 3 ).trim();
 
-        BlockParser headingParser = new SectionBlockParser();
-        BlockParser figureParser = new FigureBlockParser();
-        BlockParser[] subparsers = new BlockParser[] { headingParser, figureParser };
-
-        return new SectionBlock( new ParagraphBlockParser( subparsers ).visit( title, source, false ), level );
+        return new SectionBlock( TITLE_PARSER.visit( title, source, false ), level );
     }
 }
@@ -1,6 +1,6 @@
 /* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
  CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
-package org.apache.maven.doxia.module.confluence.parser.list;
+package org.apache.maven.doxia.module.confluence.parser;
 
 /*
  * Licensed to the Apache Software Foundation (ASF) under one
@@ -21,32 +21,26 @@ package org.apache.maven.doxia.module.confluence.parser.list;
  * under the License.
  */
 
-import org.apache.maven.doxia.module.confluence.parser.Block;
-import org.apache.maven.doxia.sink.Sink;
-
 import java.util.List;
 
+import org.apache.maven.doxia.parser.ParseException;
+
 /**
- * @author <a href="mailto:jason@maven.org">Jason van Zyl</a>
- * @version $Id: BulletedListBlock.java 1090706 2011-04-09 23:15:28Z hboutemy $
+ * Parses a part of a document with all the block parsers of the document, for the blocks that contain other blocks,
+ * such as the body of a <code>{note}</code> macro.
+ *
+ * @since 1.3-e1
  */
-class BulletedListBlock
-    extends ListBlock
+public interface SubDocumentParser
 {
-    BulletedListBlock( List<Block> childBlocks )
-    {
-        super( childBlocks );
-    }
-
-    /** {@inheritDoc} */
-    public void before( Sink sink )
-    {
-        sink.list();
-    }
-
-    /** {@inheritDoc} */
-    public void after( Sink sink )
-    {
-        sink.list_();
-    }
+    /**
+     * Parses every line of a source into blocks.
+     *
+     * @param source a source over some lines of the document, as returned by
+     * {@link CharArrayLineSource#range(int, int, int)}.
+     * @return the blocks, in the order of the document.
+     * @throws ParseException if the lines cannot be parsed.
+     */
+    List<Block> parse( CharArrayLineSource source )
+        throws ParseException;
 }
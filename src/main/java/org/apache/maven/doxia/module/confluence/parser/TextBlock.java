@@ -32,7 +32,7 @@ import org.apache.maven.doxia.sink.Sink;
 public class TextBlock
     implements Block
 {
-    private String text;
+    private CharSequence text;
 
     /**
      * <p>Constructor for TextBlock.</p>
@@ -44,9 +44,32 @@ public class TextBlock
         this.text = text;
     }
 
+    /**
+     * Creates a text block that keeps a view of some text, such as a {@link CharArraySequence}, and only turns it into
+     * a String when it is sent to a sink.
+     *
+     * @param text the text.
+     * @since 1.3-e1
+     */
+    public TextBlock( CharSequence text )
+    {
+        this.text = text;
+    }
+
+    /**
+     * <p>Getter for the field <code>text</code>.</p>
+     *
+     * @return the text.
+     * @since 1.3-e1
+     */
+    public String getText()
+    {
+        return text.toString();
+    }
+
     /** {@inheritDoc} */
     public void traverse( Sink sink )
     {
-        sink.text( text );
+        sink.text( text.toString() );
     }
 }
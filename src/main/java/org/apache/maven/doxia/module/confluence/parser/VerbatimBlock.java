@@ -31,11 +31,19 @@ import org.apache.maven.doxia.sink.SinkEventAttributeSet;
 class VerbatimBlock
     implements Block
 {
-    private String text;
+    private CharSequence text;
 
-    VerbatimBlock( String text )
+    /** The size above which the text is sent in chunks. */
+    private final int chunkSize;
+
+    /** Whether the line terminators of the text are replaced with the platform one when it is sent. */
+    private final boolean normalize;
+
+    VerbatimBlock( CharSequence text, int chunkSize, boolean normalize )
     {
         this.text = text;
+        this.chunkSize = chunkSize;
+        this.normalize = normalize;
     }
 
     /** {@inheritDoc} */
@@ -43,8 +51,98 @@ class VerbatimBlock
     {
         sink.verbatim( SinkEventAttributeSet.BOXED );
 
-        sink.text( text );
+        int length = text.length();
+
+        if ( length <= chunkSize )
+        {
+            sink.text( text( 0, length ) );
+        }
+        else
+        {
+            for ( int start = 0, end; start < length; start = end )
+            {
+                end = chunkEnd( start );
+                sink.text( text( start, end ) );
+            }
+        }
 
         sink.verbatim_();
     }
+
+    /**
+     * Returns a range of the text, with its line terminators replaced with the platform one if needed, and the last
+     * line terminated.
+     */
+    private String text( int start, int end )
+    {
+        if ( !normalize )
+        {
+            return text.subSequence( start, end ).toString();
+        }
+
+        StringBuffer buffer = new StringBuffer( end - start + VerbatimBlockParser.LS.length() );
+
+        for ( int i = start; i < end; i++ )
+        {
+            char c = text.charAt( i );
+
+            if ( c == '\r' || c == '\n' )
+            {
+                buffer.append( VerbatimBlockParser.LS );
+
+                if ( c == '\r' && i + 1 < end && text.charAt( i + 1 ) == '\n' )
+                {
+                    i++;
+                }
+            }
+            else
+            {
+                buffer.append( c );
+            }
+        }
+
+        if ( end == text.length() && end > start && !isTerminator( text.charAt( end - 1 ) ) )
+        {
+            buffer.append( VerbatimBlockParser.LS );
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+     * Returns the end of the chunk that starts at an offset: after the last line that fits in it, or, if the first
+     * line does not fit, where the chunk is full, unless that is between the two halves of a surrogate pair. A
+     * <code>\r\n</code> terminator is never split.
+     */
+    private int chunkEnd( int start )
+    {
+        int limit = start + chunkSize;
+
+        if ( limit >= text.length() )
+        {
+            return text.length();
+        }
+
+        for ( int i = limit - 1; i >= start; i-- )
+        {
+            char c = text.charAt( i );
+
+            if ( c == '\r' && text.charAt( i + 1 ) == '\n' )
+            {
+                return i + 2;
+            }
+
+            if ( isTerminator( c ) )
+            {
+                return i + 1;
+            }
+        }
+
+        return Character.isHighSurrogate( text.charAt( limit - 1 ) ) && limit - 1 > start ? limit - 1 : limit;
+    }
+
+    private static boolean isTerminator( char c )
+    {
+        return c == '\n' || c == '\r';
+    }
 }
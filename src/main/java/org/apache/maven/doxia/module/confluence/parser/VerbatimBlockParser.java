@@ -31,38 +31,138 @@ import org.apache.maven.doxia.parser.ParseException;
  * @version $Id: VerbatimBlockParser.java 746983 2009-02-23 12:28:41Z vsiveton $
  */
 public class VerbatimBlockParser
-    implements BlockParser
+    implements CharSequenceBlockParser
 {
     static final String LS = System.getProperty( "line.separator" );
 
-    /** {@inheritDoc} */
-    public boolean accept( String line, ByLineSource source )
+    /**
+     * The default size of the chunks that the body of a large block is sent to the sink in, in characters.
+     *
+     * @since 1.3-e1
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final int chunkSize;
+
+    /**
+     * Creates a parser that sends the body of a block in chunks of {@link #DEFAULT_CHUNK_SIZE} characters.
+     */
+    public VerbatimBlockParser()
     {
-        if ( line.startsWith( "{code" ) || line.startsWith( "{noformat}" ) )
+        this( DEFAULT_CHUNK_SIZE );
+    }
+
+    /**
+     * Creates a parser that sends the body of a block larger than a given size in several <code>text</code> events,
+     * each one ending with a line where possible, instead of copying it into one string.
+     *
+     * @param chunkSize a number of characters.
+     * @since 1.3-e1
+     */
+    public VerbatimBlockParser( int chunkSize )
+    {
+        if ( chunkSize <= 0 )
         {
-            return true;
+            throw new IllegalArgumentException( "Chunk size must be positive: " + chunkSize );
         }
 
-        return false;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * <p>getChunkSize.</p>
+     *
+     * @return the size above which the body of a block is sent to the sink in chunks.
+     * @see #VerbatimBlockParser(int)
+     * @since 1.3-e1
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /** {@inheritDoc} */
+    public boolean accept( String line, ByLineSource source )
+    {
+        return ( LineClassifier.classify( line ) & LineClassifier.VERBATIM ) != 0;
     }
 
     /** {@inheritDoc} */
     public Block visit( String line, ByLineSource source )
         throws ParseException
     {
+        return visit( (CharSequence) line, source );
+    }
+
+    /** {@inheritDoc} */
+    public Block visit( CharSequence line, ByLineSource source )
+        throws ParseException
+    {
+        if ( source instanceof CharArrayLineSource )
+        {
+            Block block = visitInPlace( (CharArrayLineSource) source );
+
+            if ( block != null )
+            {
+                return block;
+            }
+        }
+
         StringBuffer text = new StringBuffer();
+        String l;
 
-        while ( ( line = source.getNextLine() ) != null )
+        while ( ( l = source.getNextLine() ) != null )
         {
-            if ( line.startsWith( "{code}" ) || line.startsWith( "{noformat}" ) )
+            if ( l.startsWith( "{code}" ) || l.startsWith( "{noformat}" ) )
             {
                 break;
             }
 
             // TODO
-            text.append( line ).append( LS );
+            text.append( l ).append( LS );
+        }
+
+        return new VerbatimBlock( text.toString(), chunkSize, false );
+    }
+
+    /**
+     * Keeps the body as a view of the document, whatever line terminators it uses: they are replaced with
+     * {@link #LS}, which is what the body would be copied with otherwise, when it is sent to the sink. A large body
+     * thus takes no memory besides the document, and is only copied a chunk at a time when it is sent to the sink.
+     *
+     * @return the block, or <code>null</code> if the body starts with a line given back to the source, which is not
+     * part of the document and must be copied.
+     */
+    private Block visitInPlace( CharArrayLineSource source )
+    {
+        int start = -1;
+        int end = -1;
+        boolean normalize = false;
+        CharSequence line;
+
+        while ( ( line = source.getNextLineSequence() ) != null )
+        {
+            if ( CharArraySequence.startsWith( line, "{code}" ) || CharArraySequence.startsWith( line, "{noformat}" ) )
+            {
+                break;
+            }
+
+            if ( start < 0 )
+            {
+                if ( !( line instanceof CharArraySequence ) )
+                {
+                    // given back lines are read first, later lines are all from the document
+                    source.ungetLine();
+                    return null;
+                }
+
+                start = source.getLineStart();
+            }
+
+            normalize |= !source.isTerminatedBy( LS );
+            end = source.getOffset();
         }
 
-        return new VerbatimBlock( text.toString() );
+        return new VerbatimBlock( start < 0 ? "" : source.subSequence( start, end ), chunkSize, normalize );
     }
 }
@@ -23,17 +23,24 @@ package org.apache.maven.doxia.module.confluence.parser.list;
 
 import org.apache.maven.doxia.util.ByLineSource;
 import org.apache.maven.doxia.module.confluence.parser.Block;
-import org.apache.maven.doxia.module.confluence.parser.BlockParser;
+import org.apache.maven.doxia.module.confluence.parser.CharSequenceBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.CharArrayLineSource;
+import org.apache.maven.doxia.module.confluence.parser.CharArraySequence;
+import org.apache.maven.doxia.module.confluence.parser.LineClassifier;
 import org.apache.maven.doxia.parser.ParseException;
 
 /**
  * <p>ListBlockParser class.</p>
+ * <p>
+ * A list is not parsed here: the parser only finds where it ends, and the list sends its items to the sink one at a
+ * time when it is traversed, without building a tree of blocks first.
+ * </p>
  *
  * @author <a href="mailto:jason@maven.org">Jason van Zyl</a>
  * @version $Id: ListBlockParser.java 947266 2010-05-22 07:49:50Z ltheussl $
  */
 public class ListBlockParser
-    implements BlockParser
+    implements CharSequenceBlockParser
 {
     /** Constant <code>BULLETED_LIST=0</code> */
     public static final int BULLETED_LIST = 0;
@@ -44,106 +51,62 @@ public class ListBlockParser
     /** {@inheritDoc} */
     public boolean accept( String line, ByLineSource source )
     {
-        if ( isList( line ) )
-        {
-            return true;
-        }
-
-        return false;
+        return LineClassifier.isList( line );
     }
 
     /** {@inheritDoc} */
     public Block visit( String line, ByLineSource source )
         throws ParseException
     {
-        TreeListBuilder treeListBuilder = new TreeListBuilder();
+        return visit( CharArrayLineSource.currentLine( line, source ), source );
+    }
 
-        StringBuffer text = new StringBuffer();
+    /** {@inheritDoc} */
+    public Block visit( CharSequence line, ByLineSource source )
+        throws ParseException
+    {
+        CharSequence next = line;
 
-        do
-        {
-            if ( line.trim().length() == 0 )
-            {
-                break;
-            }
+        CharArrayLineSource document;
+        int offset;
+        int lineNumber;
+        int lineCount = 0;
 
-            if ( text.length() > 0 && isList( line ) )
-            {
-                // We reached a new line with list prefix
-                addItem( treeListBuilder, text );
-            }
+        if ( next instanceof CharArraySequence && source instanceof CharArrayLineSource )
+        {
+            // the list is made of lines of the document: only count them, the list reads them again when it is
+            // traversed
+            document = (CharArrayLineSource) source;
+            offset = document.getLineStart();
+            lineNumber = document.getLineNumber() - 1;
 
-            if ( text.length() == 0 )
-            {
-                text.append( line.trim() );
-            }
-            else
+            do
             {
-                text.append( " " + line.trim() );
+                lineCount++;
             }
-
-        }
-        while ( ( line = source.getNextLine() ) != null );
-
-        if ( text.length() > 0 )
-        {
-            addItem( treeListBuilder, text );
-        }
-
-        return treeListBuilder.getBlock();
-    }
-
-    private void addItem( TreeListBuilder treeListBuilder, StringBuffer text )
-    {
-        String item = text.toString();
-        int level = getLevel( item );
-
-        if ( isBulletedList( item, level - 1 ) )
-        {
-            treeListBuilder.feedEntry( BULLETED_LIST, level, item.substring( level ) );
+            // the blank line that ends the list is consumed too
+            while ( ( next = document.getNextLineSequence() ) != null && !CharArraySequence.isBlank( next ) );
         }
         else
         {
-            treeListBuilder.feedEntry( NUMBERED_LIST, level, item.substring( level ) );
-        }
-        text.setLength( 0 );
-    }
-
-    private int getLevel( String line )
-    {
-        int level = 0;
-
-        while ( line.charAt( level ) == '*' || line.charAt( level ) == '-' || line.charAt( level ) == '#' )
-        {
-            level++;
-        }
+            // the list keeps a copy of its lines
+            StringBuilder lines = new StringBuilder();
 
-        return level;
-    }
-
-    private boolean isBulletedList( String line, int deph )
-    {
-        return ( line.charAt( deph ) == '*' || line.charAt( deph ) == '-' );
-    }
-
-    private boolean isList( String line )
-    {
-        line = line.trim();
-
-        if ( line.startsWith( "*" ) || line.startsWith( "-" ) || line.startsWith( "#" ) )
-        {
-            String temp = line.substring( 1 );
-            while ( temp.length() > 0 && ( temp.charAt( 0 ) == '*' || temp.charAt( 0 ) == '-' || temp.charAt( 0 ) == '#' ) )
+            do
             {
-                temp = temp.substring( 1 );
+                CharArraySequence.append( lines, next ).append( '\n' );
+                lineCount++;
             }
+            while ( ( next = CharArrayLineSource.nextLine( source ) ) != null && !CharArraySequence.isBlank( next ) );
 
-            if ( temp.length() > 0 && temp.charAt( 0 ) == ' ' )
-            {
-                return true;
-            }
+            char[] chars = new char[lines.length()];
+            lines.getChars( 0, chars.length, chars, 0 );
+
+            document = new CharArrayLineSource( chars, chars.length, source.getName() );
+            offset = 0;
+            lineNumber = 0;
         }
 
-        return false;
+        return new StreamedListBlock( document, offset, lineNumber, lineCount );
     }
 }
@@ -0,0 +1,146 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.parser.list;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.doxia.module.confluence.parser.Block;
+import org.apache.maven.doxia.module.confluence.parser.ChildBlocksBuilder;
+import org.apache.maven.doxia.sink.Sink;
+
+/**
+ * Sends the events of a list to a sink as its items come in.
+ * <p>
+ * Only the types of the open lists are kept, in a stack, so memory use depends on how deep the list goes and not on
+ * how many items it has. Every open list has an open item, which is closed when the next item of the same list, or of
+ * an outer one, comes in. An item that is more than one level deeper than the item before it only goes one level
+ * down, unless it is the first item, which goes down to its level through items without text. A list is bulleted or
+ * numbered like its first item.
+ * </p>
+ *
+ * @since 1.3-e1
+ */
+class ListEmitter
+{
+    private final Sink sink;
+
+    /** The types of the open lists, the outermost one first. */
+    private int[] types = new int[8];
+
+    /** The number of open lists, which is one more than the depth of the last item. */
+    private int size;
+
+    ListEmitter( Sink sink )
+    {
+        this.sink = sink;
+    }
+
+    /**
+     * Sends an item to the sink. Its list item is left open, in case the next item is nested in it.
+     *
+     * @param type {@link ListBlockParser#BULLETED_LIST} or {@link ListBlockParser#NUMBERED_LIST}.
+     * @param level the number of markers of the item.
+     * @param text the text of the item, without its markers.
+     */
+    void item( int type, int level, String text )
+    {
+        int incomingLevel = level - 1;
+
+        if ( size == 0 )
+        {
+            /* for example:
+             *        * item1
+             *     * item2
+             */
+            while ( size < incomingLevel )
+            {
+                open( type );
+                sink.listItem();
+            }
+
+            open( type );
+        }
+        else if ( incomingLevel >= size )
+        {
+            // one level down only, in the last item, whatever the incoming level
+            open( type );
+        }
+        else
+        {
+            while ( size > incomingLevel + 1 )
+            {
+                sink.listItem_();
+                close();
+            }
+
+            sink.listItem_();
+        }
+
+        sink.listItem();
+
+        for ( Block block : new ChildBlocksBuilder( text.trim() ).getBlocks() )
+        {
+            block.traverse( sink );
+        }
+    }
+
+    /** Closes the items and the lists that are still open. */
+    void end()
+    {
+        while ( size > 0 )
+        {
+            sink.listItem_();
+            close();
+        }
+    }
+
+    private void open( int type )
+    {
+        if ( size == types.length )
+        {
+            int[] larger = new int[size * 2];
+            System.arraycopy( types, 0, larger, 0, size );
+            types = larger;
+        }
+
+        types[size++] = type;
+
+        if ( type == ListBlockParser.BULLETED_LIST )
+        {
+            sink.list();
+        }
+        else
+        {
+            sink.numberedList( Sink.NUMBERING_DECIMAL );
+        }
+    }
+
+    private void close()
+    {
+        if ( types[--size] == ListBlockParser.BULLETED_LIST )
+        {
+            sink.list_();
+        }
+        else
+        {
+            sink.numberedList_();
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.apache.maven.doxia.module.confluence.parser.list;
  * under the License.
  */
 
+import org.apache.maven.doxia.module.confluence.parser.AbstractFatherBlock;
 import org.apache.maven.doxia.module.confluence.parser.Block;
 import org.apache.maven.doxia.sink.Sink;
 
@@ -30,9 +31,12 @@ import java.util.List;
  * <p>NumberedListBlock class.</p>
  *
  * @version $Id: NumberedListBlock.java 1090706 2011-04-09 23:15:28Z hboutemy $
+ * @deprecated since 1.3-e1, lists are no longer parsed into blocks: they send their events to the sink as their items
+ * are read.
  */
+@Deprecated
 public class NumberedListBlock
-    extends ListBlock
+    extends AbstractFatherBlock
 {
     /**
      * @param childBlocks
@@ -0,0 +1,131 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.parser.list;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.doxia.module.confluence.parser.Block;
+import org.apache.maven.doxia.module.confluence.parser.CharArrayLineSource;
+import org.apache.maven.doxia.module.confluence.parser.CharArraySequence;
+import org.apache.maven.doxia.module.confluence.parser.LineClassifier;
+import org.apache.maven.doxia.sink.Sink;
+
+/**
+ * A list whose items are still lines of the document. The lines are read again while the list is traversed, and each
+ * item is sent to the sink as soon as the lines it is made of have been read, so no item is kept once it has been
+ * sent. Most of the work of parsing a list is thus done by whoever traverses it.
+ *
+ * @since 1.3-e1
+ */
+class StreamedListBlock
+    implements Block
+{
+    private final CharArrayLineSource document;
+
+    private final int offset;
+
+    private final int lineNumber;
+
+    private final int lineCount;
+
+    /**
+     * @param document the document the list is in.
+     * @param offset the offset in the document of the first line of the list.
+     * @param lineNumber the number of lines of the document before the list.
+     * @param lineCount the number of lines of the list, none of them blank, the first one a list item.
+     */
+    StreamedListBlock( CharArrayLineSource document, int offset, int lineNumber, int lineCount )
+    {
+        this.document = document;
+        this.offset = offset;
+        this.lineNumber = lineNumber;
+        this.lineCount = lineCount;
+    }
+
+    /** {@inheritDoc} */
+    public void traverse( Sink sink )
+    {
+        // a source of its own, so that the list may be traversed after the document has been read, and more than once
+        CharArrayLineSource lines = document.fork( offset, lineNumber );
+
+        ListEmitter emitter = new ListEmitter( sink );
+
+        StringBuilder text = new StringBuilder();
+
+        // the level and the type of the current item, a level of 0 before the first item
+        int level = 0;
+        int type = ListBlockParser.BULLETED_LIST;
+
+        for ( int i = 0; i < lineCount; i++ )
+        {
+            CharSequence trimmed = CharArraySequence.trim( lines.getNextLineSequence() );
+
+            if ( level > 0 && LineClassifier.isList( trimmed ) )
+            {
+                // We reached a new line with list prefix
+                emitter.item( type, level, text.toString() );
+                text.setLength( 0 );
+                level = 0;
+            }
+
+            if ( level == 0 )
+            {
+                // the markers of the first line of an item are looked at once, and only the text after them is kept
+                level = getLevel( trimmed );
+                type = isBulletedList( trimmed, level - 1 ) ? ListBlockParser.BULLETED_LIST
+                                : ListBlockParser.NUMBERED_LIST;
+
+                int start = level;
+
+                while ( trimmed.charAt( start ) <= ' ' )
+                {
+                    start++;
+                }
+
+                CharArraySequence.append( text, trimmed.subSequence( start, trimmed.length() ) );
+            }
+            else
+            {
+                text.append( ' ' );
+                CharArraySequence.append( text, trimmed );
+            }
+        }
+
+        emitter.item( type, level, text.toString() );
+        emitter.end();
+    }
+
+    private static int getLevel( CharSequence line )
+    {
+        int level = 0;
+
+        while ( line.charAt( level ) == '*' || line.charAt( level ) == '-' || line.charAt( level ) == '#' )
+        {
+            level++;
+        }
+
+        return level;
+    }
+
+    private static boolean isBulletedList( CharSequence line, int deph )
+    {
+        return ( line.charAt( deph ) == '*' || line.charAt( deph ) == '-' );
+    }
+}
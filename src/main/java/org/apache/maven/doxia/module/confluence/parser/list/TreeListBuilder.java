@@ -1,4 +1,4 @@
-﻿/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
  CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
 package org.apache.maven.doxia.module.confluence.parser.list;
 
@@ -25,114 +25,63 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.maven.doxia.module.confluence.parser.Block;
-import org.apache.maven.doxia.module.confluence.parser.ChildBlocksBuilder;
+import org.apache.maven.doxia.sink.Sink;
 
 /**
  * <p>TreeListBuilder class.</p>
  *
  * @version $Id: TreeListBuilder.java 1090706 2011-04-09 23:15:28Z hboutemy $
+ * @deprecated since 1.3-e1, lists are no longer built as trees: the entries are kept as they come in, and the block
+ * sends them to the sink on the stack of open lists of {@link ListEmitter}.
  */
+@Deprecated
 public class TreeListBuilder
 {
-    private TreeComponent root;
-
-    private TreeComponent current;
+    private final List<Entry> entries = new ArrayList<Entry>();
 
     TreeListBuilder()
     {
-        root = new TreeComponent( null, "root", 0 );
-
-        current = root;
+        // no entries yet
     }
 
     void feedEntry( int type, int level, String text )
     {
-        int currentDepth = current.getDepth();
-
-        int incomingLevel = level - 1;
+        entries.add( new Entry( type, level, text ) );
+    }
 
-        if ( incomingLevel == currentDepth )
-        {
-            // nothing to move
-        }
-        else if ( incomingLevel > currentDepth )
-        {
-            // el actual ahora es el 'ltimo que insert'
-            List<TreeComponent> components = current.getChildren();
+    Block getBlock()
+    {
+        final List<Entry> list = new ArrayList<Entry>( entries );
 
-            if ( components.size() == 0 )
-            {
-                /* for example:
-                 *        * item1
-                 *     * item2
-                 */
-                for ( int i = 0, n = incomingLevel - currentDepth; i < n; i++ )
-                {
-                    current = current.addChildren( "", type );
-                }
-            }
-            else
-            {
-                current = components.get( components.size() - 1 );
-            }
-        }
-        else
+        return new Block()
         {
-            for ( int i = 0, n = currentDepth - incomingLevel; i < n; i++ )
+            public void traverse( Sink sink )
             {
-                current = current.getFather();
+                ListEmitter emitter = new ListEmitter( sink );
 
-                if ( current == null )
+                for ( Entry entry : list )
                 {
-                    throw new IllegalStateException();
+                    emitter.item( entry.type, entry.level, entry.text );
                 }
-            }
-        }
-        current.addChildren( text.trim(), type );
-    }
 
-    ListBlock getBlock()
-    {
-        return getList( root );
+                emitter.end();
+            }
+        };
     }
 
-    private ListBlock getList( TreeComponent treeComponent )
+    private static class Entry
     {
-        List<Block> list = getListItems( treeComponent );
+        private final int type;
 
-        int type = treeComponent.getChildren().get( 0 ).getType();
+        private final int level;
 
-        if ( type == ListBlockParser.BULLETED_LIST )
-        {
-            return new BulletedListBlock( list );
-        }
+        private final String text;
 
-        return new NumberedListBlock( list );
-    }
-
-    private List<Block> getListItems( TreeComponent tc )
-    {
-        List<Block> blocks = new ArrayList<Block>();
-
-        for ( TreeComponent child : tc.getChildren() )
+        Entry( int type, int level, String text )
         {
-            List<Block> childBlocks = new ArrayList<Block>();
-
-            if ( child.getFather() != null )
-            {
-                childBlocks.addAll( new ChildBlocksBuilder( child.getText() ).getBlocks() );
-            }
-
-            if ( child.getChildren().size() != 0 )
-            {
-                blocks.add( new ListItemBlock( childBlocks, getList( child ) ) );
-            }
-            else
-            {
-                blocks.add( new ListItemBlock( childBlocks ) );
-            }
+            this.type = type;
+            this.level = level;
+            this.text = text;
         }
-
-        return blocks;
     }
 }
@@ -0,0 +1,81 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence.parser.table;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.doxia.module.confluence.parser.Block;
+import org.apache.maven.doxia.module.confluence.parser.CharArrayLineSource;
+import org.apache.maven.doxia.sink.Sink;
+
+/**
+ * A table whose rows are still lines of the document. The rows are parsed one at a time while the table is
+ * traversed, and each one is sent to the sink and dropped before the next one is parsed, so memory use is bounded by
+ * the widest row rather than by the length of the table.
+ *
+ * @since 1.3-e1
+ */
+class StreamedTableBlock
+    implements Block
+{
+    private final CharArrayLineSource document;
+
+    private final int offset;
+
+    private final int lineNumber;
+
+    private final int rowCount;
+
+    /**
+     * @param document the document the table is in.
+     * @param offset the offset in the document of the first row.
+     * @param lineNumber the number of lines of the document before the first row.
+     * @param rowCount the number of rows, at least one.
+     */
+    StreamedTableBlock( CharArrayLineSource document, int offset, int lineNumber, int rowCount )
+    {
+        this.document = document;
+        this.offset = offset;
+        this.lineNumber = lineNumber;
+        this.rowCount = rowCount;
+    }
+
+    /** {@inheritDoc} */
+    public void traverse( Sink sink )
+    {
+        // a source of its own, so that the table may be traversed after the document has been read, and more than once
+        CharArrayLineSource rows = document.fork( offset, lineNumber );
+
+        TableRowBlock row = TableBlockParser.visitRow( rows.getNextLineSequence() );
+
+        sink.table();
+        sink.tableRows( TableBlock.getJustification( row.getBlocks().size() ), false );
+
+        row.traverse( sink );
+
+        for ( int i = 1; i < rowCount; i++ )
+        {
+            TableBlockParser.visitRow( rows.getNextLineSequence() ).traverse( sink );
+        }
+
+        sink.tableRows_();
+        sink.table_();
+    }
+}
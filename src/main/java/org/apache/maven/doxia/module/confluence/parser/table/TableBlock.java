@@ -54,8 +54,18 @@ class TableBlock
 
     private int[] getJustification()
     {
-        final AbstractFatherBlock b = ( (AbstractFatherBlock) getBlocks().get( 0 ) );
-        int[] justification = new int[b.getBlocks().size()];
+        return getJustification( ( (AbstractFatherBlock) getBlocks().get( 0 ) ).getBlocks().size() );
+    }
+
+    /**
+     * Returns the justification of the columns of a table.
+     *
+     * @param columns the number of cells of the first row.
+     * @return every column centered.
+     */
+    static int[] getJustification( int columns )
+    {
+        int[] justification = new int[columns];
         for ( int i = 0; i < justification.length; i++ )
         {
             justification[i] = Sink.JUSTIFY_CENTER;
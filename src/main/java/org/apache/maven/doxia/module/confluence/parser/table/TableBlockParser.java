@@ -21,126 +21,251 @@ package org.apache.maven.doxia.module.confluence.parser.table;
  * under the License.
  */
 
-import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
-import org.apache.maven.doxia.util.ByLineReaderSource;
-import org.apache.maven.doxia.module.confluence.ConfluenceMarkup;
-import org.apache.maven.doxia.module.confluence.parser.FigureBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.CharArrayLineSource;
+import org.apache.maven.doxia.module.confluence.parser.CharArraySequence;
+import org.apache.maven.doxia.module.confluence.parser.LineClassifier;
 import org.apache.maven.doxia.module.confluence.parser.ParagraphBlockParser;
-import org.apache.maven.doxia.module.confluence.parser.SectionBlockParser;
 import org.apache.maven.doxia.util.ByLineSource;
-import org.apache.maven.doxia.module.confluence.parser.BlockParser;
+import org.apache.maven.doxia.module.confluence.parser.CharSequenceBlockParser;
 import org.apache.maven.doxia.module.confluence.parser.Block;
 import org.apache.maven.doxia.module.confluence.parser.BoldBlock;
 import org.apache.maven.doxia.parser.ParseException;
-import org.codehaus.plexus.util.StringUtils;
 
 /**
  * Parse tables
+ * <p>
+ * Each row is split into cells in one pass over its characters, and the cells are parsed in place, as views of the
+ * row. The text after the last <code>|</code> of a row is ignored, and so are empty cells. In a row of headings,
+ * which starts with <code>||</code>, every <code>|</code> separates two cells. In any other row, a cell that opens
+ * a link without closing it goes on to the end of the next cell, since the <code>|</code> is part of the link.
+ * </p>
+ * <p>
+ * When the rows are lines of a {@link CharArrayLineSource}, they are only counted here: the table parses them one at
+ * a time while it is traversed, and each row is dropped as soon as it has been sent to the sink, so a large table
+ * never has more than one row of blocks in memory.
+ * </p>
  *
  * @author Juan F. Codagnone
  * @version $Id: TableBlockParser.java 1090706 2011-04-09 23:15:28Z hboutemy $
  */
 public class TableBlockParser
-    implements BlockParser
+    implements CharSequenceBlockParser
 {
-    private static final String EMPTY_STRING = "";
-    private static final String ANY_CHARACTER = ".*";
-    private static final String ESCAPE_CHARACTER = "\\";
+    /** Parses the text of the cells; it is immutable, so all table parsers share it. */
+    private static final ParagraphBlockParser CELL_PARSER =
+        new ParagraphBlockParser( LineClassifier.SECTION | LineClassifier.FIGURE );
+
+    private static final char SEPARATOR = '|';
 
     /** {@inheritDoc} */
     public  boolean accept( String line, ByLineSource source )
     {
-        return line.startsWith( "|" );
+        return ( LineClassifier.classify( line ) & LineClassifier.TABLE ) != 0;
     }
 
     /** {@inheritDoc} */
     public  Block visit(  String line,  ByLineSource source )
         throws ParseException
     {
-        if ( !accept( line, source ) )
+        return visit( CharArrayLineSource.currentLine( line, source ), source );
+    }
+
+    /** {@inheritDoc} */
+    public Block visit( CharSequence line, ByLineSource source )
+        throws ParseException
+    {
+        if ( ( LineClassifier.classify( line ) & LineClassifier.TABLE ) == 0 )
         {
             throw new IllegalAccessError( "call accept before this ;)" );
         }
 
-        List<Block> rows = new ArrayList<Block>();
+        CharSequence l = line;
+
+        if ( l instanceof CharArraySequence && source instanceof CharArrayLineSource )
+        {
+            // the rows are lines of the document: only count them, they are parsed again one by one when the table
+            // is traversed
+            CharArrayLineSource document = (CharArrayLineSource) source;
+            int offset = document.getLineStart();
+            int lineNumber = document.getLineNumber() - 1;
+            int rowCount = 0;
 
-        String l = line;
+            do
+            {
+                rowCount++;
+            }
+            // the first line that is not a row is consumed too
+            while ( ( l = document.getNextLineSequence() ) != null
+                && ( LineClassifier.classify( l ) & LineClassifier.TABLE ) != 0 );
+
+            return new StreamedTableBlock( document, offset, lineNumber, rowCount );
+        }
+
+        List<Block> rows = new ArrayList<Block>();
 
         do
         {
-            l = l.substring( 0, l.lastIndexOf( "|" ) );
+            rows.add( visitRow( l ) );
+        }
+        // the first line that is not a row is consumed too
+        while ( ( l = CharArrayLineSource.nextLine( source ) ) != null
+            && ( LineClassifier.classify( l ) & LineClassifier.TABLE ) != 0 );
 
-            List<Block> cells = new ArrayList<Block>();
+        assert rows.size() >= 1;
 
-            BlockParser headingParser = new SectionBlockParser();
-            BlockParser figureParser = new FigureBlockParser();
-            BlockParser[] subparsers = new BlockParser[] { headingParser, figureParser };
-            BlockParser paragraphParser = new ParagraphBlockParser( subparsers );
+        return new TableBlock( rows );
+    }
 
-            if ( l.startsWith( "||" ) )
-            {
-                String[] text = StringUtils.split( l, "||" );
+    /**
+     * Splits a row into cells and parses them.
+     *
+     * @param line a line that starts with a separator.
+     * @return a {@link TableRowBlock}.
+     */
+    static TableRowBlock visitRow( CharSequence line )
+    {
+        char[] chars;
+        int offset;
 
+        if ( line instanceof CharArraySequence )
+        {
+            chars = ( (CharArraySequence) line ).getChars();
+            offset = ( (CharArraySequence) line ).getOffset();
+        }
+        else
+        {
+            chars = line.toString().toCharArray();
+            offset = 0;
+        }
 
-                for ( int i = 0; i < text.length; i++ )
-                {
-                    List<Block> textBlocks = new ArrayList<Block>();
+        int end = offset + line.length();
 
-                    textBlocks.add( ( ( ParagraphBlockParser) paragraphParser )
-                            .visit(text[i], new ByLineReaderSource( new StringReader( EMPTY_STRING ) ), false ) );
+        while ( chars[end - 1] != SEPARATOR )
+        {
+            end--;
+        }
 
-                    List<Block> blocks = new ArrayList<Block>();
+        // the row ends before its last separator
+        end--;
 
-                    blocks.add( new BoldBlock( textBlocks ) );
+        boolean header = end - offset >= 2 && chars[offset + 1] == SEPARATOR;
 
-                    cells.add( new TableCellHeaderBlock( blocks ) );
-                }
-            }
-            else
+        List<Block> cells = new ArrayList<Block>();
+
+        int i = nextCell( chars, offset, end );
+
+        while ( i < end )
+        {
+            int start = i;
+            int cellEnd = endOfCell( chars, start, end );
+
+            i = nextCell( chars, cellEnd, end );
+
+            if ( header )
             {
-                int it = 0;
-                String[] text = StringUtils.split( l, "|" );
-                List<String> texts = new LinkedList<String>();
+                cells.add( headerCell( chars, start, cellEnd ) );
+                continue;
+            }
 
+            if ( i < end && opensLink( chars, start, cellEnd ) )
+            {
+                int nextEnd = endOfCell( chars, i, end );
 
-                while ( it < text.length )
+                if ( i - cellEnd == 1 )
                 {
-                    if ( text[it].matches( ANY_CHARACTER + ESCAPE_CHARACTER
-                                + ConfluenceMarkup.LINK_START_MARKUP + ANY_CHARACTER )
-                            && !text[it].matches( ANY_CHARACTER + ESCAPE_CHARACTER
-                                + ConfluenceMarkup.LINK_END_MARKUP + ANY_CHARACTER ) )
-                    {
-                        texts.add( text[it] + ConfluenceMarkup.TABLE_CELL_MARKUP + text[it + 1] );
-                        it += 2;
-                        continue;
-                     }
-                    texts.add( text[it] );
-                    it++;
+                    cellEnd = nextEnd;
                 }
-
-                Object[] pText = texts.toArray();
-                for ( int i = 0; i < pText.length; i++ )
+                else
                 {
-                    List<Block> blocks = new ArrayList<Block>();
+                    // the cells were separated by empty ones, which are dropped: join them with one separator
+                    char[] joined = new char[cellEnd - start + 1 + nextEnd - i];
 
-                    blocks.add( ( (ParagraphBlockParser) paragraphParser ).visit( (String) pText[i],
-                            new ByLineReaderSource( new StringReader( EMPTY_STRING ) ), false ) );
+                    System.arraycopy( chars, start, joined, 0, cellEnd - start );
+                    joined[cellEnd - start] = SEPARATOR;
+                    System.arraycopy( chars, i, joined, cellEnd - start + 1, nextEnd - i );
 
-                    cells.add( new TableCellBlock( blocks ) );
+                    cells.add( cell( joined, 0, joined.length ) );
+                    i = nextCell( chars, nextEnd, end );
+                    continue;
                 }
+
+                i = nextCell( chars, nextEnd, end );
             }
 
-            rows.add( new TableRowBlock( cells ) );
+            cells.add( cell( chars, start, cellEnd ) );
         }
 
-        while ( ( l = source.getNextLine() ) != null && accept( l, source ) );
+        return new TableRowBlock( cells );
+    }
 
-        assert rows.size() >= 1;
+    private static Block cell( char[] chars, int start, int end )
+    {
+        return new TableCellBlock( Collections.singletonList( CELL_PARSER.visit( chars, start, end - start ) ) );
+    }
 
-        return new TableBlock( rows );
+    private static Block headerCell( char[] chars, int start, int end )
+    {
+        List<Block> text = Collections.singletonList( CELL_PARSER.visit( chars, start, end - start ) );
+
+        return new TableCellHeaderBlock( Collections.<Block>singletonList( new BoldBlock( text ) ) );
+    }
+
+    /** Returns the start of the next cell, skipping the separators at an offset, or the end of the row. */
+    private static int nextCell( char[] chars, int offset, int end )
+    {
+        int i = offset;
+
+        while ( i < end && chars[i] == SEPARATOR )
+        {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static int endOfCell( char[] chars, int start, int end )
+    {
+        int i = start;
+
+        while ( i < end && chars[i] != SEPARATOR )
+        {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * Tells whether a cell opens a link without closing it. Like the regular expressions this replaces, which only
+     * matched within a line, a cell with a line terminator in it never does.
+     */
+    private static boolean opensLink( char[] chars, int start, int end )
+    {
+        boolean open = false;
+
+        for ( int i = start; i < end; i++ )
+        {
+            switch ( chars[i] )
+            {
+                case '[':
+                    open = true;
+                    break;
+                case ']':
+                case '\n':
+                case '\r':
+                case '\u0085':
+                case '\u2028':
+                case '\u2029':
+                    return false;
+                default:
+                    break;
+            }
+        }
+
+        return open;
     }
 }
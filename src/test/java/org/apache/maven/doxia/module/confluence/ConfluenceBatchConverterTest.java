@@ -0,0 +1,291 @@
+/* Copyright © 2016 EIS Group and/or one of its affiliates. All rights reserved. Unpublished work under U.S. copyright laws.
+ CONFIDENTIAL AND TRADE SECRET INFORMATION. No portion of this work may be copied, distributed, modified, or incorporated into any other media without EIS Group prior written consent.*/
+package org.apache.maven.doxia.module.confluence;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.doxia.sink.AbstractTextSinkFactory;
+import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkAdapter;
+import org.apache.maven.doxia.sink.SinkFactory;
+import org.codehaus.plexus.PlexusTestCase;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Test the <code>ConfluenceBatchConverter</code> class.
+ */
+public class ConfluenceBatchConverterTest
+    extends PlexusTestCase
+{
+    private File directory;
+
+    /** {@inheritDoc} */
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        directory = new File( getBasedir(), "target/batch-converter-test" );
+        FileUtils.deleteDirectory( directory );
+    }
+
+    /**
+     * Every page is converted as if on its own, and a page that fails does not stop the others.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testConvert()
+        throws Exception
+    {
+        File input = new File( directory, "input" );
+        File output = new File( directory, "output" );
+        File[] pages = new File( getBasedir(), "src/test/resources" ).listFiles();
+        File blocked = new File( getBasedir(), "src/test/resources/test.confluence" );
+        int count = 0;
+
+        for ( int i = 0; i < pages.length; i++ )
+        {
+            if ( pages[i].getName().endsWith( ".confluence" ) )
+            {
+                FileUtils.copyFileToDirectory( pages[i], input );
+                FileUtils.copyFileToDirectory( pages[i], new File( input, "sub/dir" ) );
+                count += 2;
+            }
+        }
+
+        // a file in the way of an output directory
+        FileUtils.copyFileToDirectory( blocked, new File( input, "blocked" ) );
+        output.mkdirs();
+        FileUtils.fileWrite( new File( output, "blocked" ).getPath(), "" );
+
+        ConfluenceBatchConverter converter = new ConfluenceBatchConverter();
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        ConfluenceBatchReport report;
+
+        try
+        {
+            converter.setExecutor( executor );
+            // small enough for the largest pages to wait for the others
+            converter.setMemoryBudget( 8 * 1024 );
+            report = converter.convert( input, output );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertEquals( count, report.getConvertedCount() );
+        assertEquals( 1, report.getFailures().size() );
+        assertEquals( new File( input, "blocked/test.confluence" ),
+                      report.getFailures().keySet().iterator().next() );
+        assertTrue( report.getFailures().values().iterator().next() instanceof IOException );
+
+        for ( int i = 0; i < pages.length; i++ )
+        {
+            if ( pages[i].getName().endsWith( ".confluence" ) )
+            {
+                String expected = convert( pages[i] );
+
+                assertEquals( expected, FileUtils.fileRead( new File( output, pages[i].getName() ), "UTF-8" ) );
+                assertEquals( expected, FileUtils.fileRead( new File( output, "sub/dir/" + pages[i].getName() ),
+                                                            "UTF-8" ) );
+            }
+        }
+    }
+
+    /**
+     * A page that fails once some of it is written leaves neither a truncated output file nor a temporary file behind.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testFailedPage()
+        throws Exception
+    {
+        File input = new File( directory, "input" );
+        File output = new File( directory, "output" );
+        input.mkdirs();
+        FileUtils.fileWrite( new File( input, "page.confluence" ).getPath(), "UTF-8", "written\n\nfailed\n" );
+
+        SinkFactory sinkFactory = new AbstractTextSinkFactory()
+        {
+            protected Sink createSink( final Writer writer, String encoding )
+            {
+                return new SinkAdapter()
+                {
+                    public void text( String text )
+                    {
+                        if ( "failed".equals( text ) )
+                        {
+                            throw new IllegalStateException( "Failed on purpose" );
+                        }
+
+                        try
+                        {
+                            writer.write( text );
+                            writer.flush();
+                        }
+                        catch ( IOException e )
+                        {
+                            throw new IllegalStateException( e.getMessage() );
+                        }
+                    }
+
+                    public void close()
+                    {
+                        IOUtil.close( writer );
+                    }
+                };
+            }
+        };
+
+        ConfluenceBatchReport report =
+            new ConfluenceBatchConverter( new ConfluenceParser(), sinkFactory, "txt" ).convert( input, output );
+
+        assertEquals( 0, report.getConvertedCount() );
+        assertEquals( 1, report.getFailures().size() );
+        assertFalse( new File( output, "page.txt" ).exists() );
+        assertFalse( new File( output, "page.txt.tmp" ).exists() );
+    }
+
+    /**
+     * A page whose output cannot be put in place leaves its previous output as it was.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testFailedRename()
+        throws Exception
+    {
+        File input = new File( directory, "input" );
+        final File output = new File( directory, "output" );
+        input.mkdirs();
+        output.mkdirs();
+        FileUtils.fileWrite( new File( input, "page.confluence" ).getPath(), "UTF-8", "new\n" );
+        FileUtils.fileWrite( new File( output, "page.txt" ).getPath(), "UTF-8", "old" );
+
+        SinkFactory sinkFactory = new AbstractTextSinkFactory()
+        {
+            protected Sink createSink( final Writer writer, String encoding )
+            {
+                return new SinkAdapter()
+                {
+                    public void close()
+                    {
+                        IOUtil.close( writer );
+
+                        // nothing left to rename
+                        new File( output, "page.txt.tmp" ).delete();
+                    }
+                };
+            }
+        };
+
+        ConfluenceBatchReport report =
+            new ConfluenceBatchConverter( new ConfluenceParser(), sinkFactory, "txt" ).convert( input, output );
+
+        assertEquals( 0, report.getConvertedCount() );
+        assertEquals( 1, report.getFailures().size() );
+        assertTrue( report.getFailures().values().iterator().next() instanceof IOException );
+        assertEquals( "old", FileUtils.fileRead( new File( output, "page.txt" ), "UTF-8" ) );
+        assertEquals( 1, output.list().length );
+    }
+
+    /**
+     * A task that the executor fails with a checked exception makes the batch fail with an <code>IOException</code>.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testFailedTask()
+        throws Exception
+    {
+        File input = new File( directory, "input" );
+        input.mkdirs();
+        FileUtils.fileWrite( new File( input, "page.confluence" ).getPath(), "UTF-8", "page\n" );
+
+        final Exception failure = new Exception( "Failed on purpose" );
+        ExecutorService executor =
+            new ThreadPoolExecutor( 1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>() )
+            {
+                public Future<?> submit( Runnable task )
+                {
+                    FutureTask<Object> future = new FutureTask<Object>( new Callable<Object>()
+                    {
+                        public Object call()
+                            throws Exception
+                        {
+                            throw failure;
+                        }
+                    } );
+                    future.run();
+
+                    return future;
+                }
+            };
+
+        ConfluenceBatchConverter converter = new ConfluenceBatchConverter();
+
+        try
+        {
+            converter.setExecutor( executor );
+            converter.convert( input, new File( directory, "output" ) );
+
+            fail( "The task did not fail the batch" );
+        }
+        catch ( IOException e )
+        {
+            assertSame( failure, e.getCause() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String convert( File page )
+        throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Sink sink = new ConfluenceSinkFactory().createSink( out, "UTF-8" );
+
+        try
+        {
+            new ConfluenceParser().parse( page, sink );
+        }
+        finally
+        {
+            sink.close();
+        }
+
+        return out.toString( "UTF-8" );
+    }
+}
@@ -21,19 +21,43 @@ package org.apache.maven.doxia.module.confluence;
  * under the License.
  */
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.doxia.module.confluence.parser.Block;
+import org.apache.maven.doxia.module.confluence.parser.BlockParser;
+import org.apache.maven.doxia.module.confluence.parser.CharArrayLineSource;
+import org.apache.maven.doxia.module.confluence.parser.ParagraphBlockParser;
+import org.apache.maven.doxia.module.confluence.parser.SectionBlockParser;
 import org.apache.maven.doxia.parser.AbstractParserTest;
 import org.apache.maven.doxia.parser.ParseException;
 import org.apache.maven.doxia.parser.Parser;
 import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkAdapter;
+import org.apache.maven.doxia.sink.SinkEventAttributes;
+import org.apache.maven.doxia.sink.SinkEventElement;
+import org.apache.maven.doxia.sink.SinkEventTestingSink;
 import org.apache.maven.doxia.sink.TextSink;
+import org.apache.maven.doxia.util.ByLineSource;
 
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.StringUtils;
 
@@ -43,6 +67,12 @@ import org.codehaus.plexus.util.StringUtils;
 public class ConfluenceParserTest
     extends AbstractParserTest
 {
+    /** All test documents, by name. */
+    private static final String[] TEST_DOCUMENTS =
+        { "test", "simple-paragraph", "nested-list", "nested-list-heterogenous", "simple-list", "paragraph-list",
+            "paragraph-figure", "paragraph-header", "figure", "table", "table-link", "code", "note-tip-info",
+            "nested-format", "escapes", "linebreak", "anchor", "link", "section", "unknown-macro" };
+
     private ConfluenceParser parser;
 
     private StringWriter output;
@@ -205,6 +235,232 @@ public class ConfluenceParserTest
         assertEquals( 8, result.split( "end:listItem\n" ).length );
     }
 
+    /**
+     * Tests a list that goes 50 levels down and back up, and items that are more than one level deeper than the
+     * item before them.
+     *
+     * @throws ParseException if the document cannot be parsed.
+     */
+    public void testDeeplyNestedList()
+        throws ParseException
+    {
+        StringBuilder document = new StringBuilder();
+
+        for ( int i = 0; i < 99; i++ )
+        {
+            int level = i < 50 ? i + 1 : 99 - i;
+
+            for ( int j = 0; j < level; j++ )
+            {
+                document.append( j % 2 == 0 ? '*' : '#' );
+            }
+
+            document.append( " item " ).append( i ).append( '\n' );
+        }
+
+        ConfluenceParser parser = new ConfluenceParser();
+        List<String> names = eventNames( parser, document.toString() );
+
+        int depth = 0;
+        int maxDepth = 0;
+        int items = 0;
+
+        for ( String name : names )
+        {
+            if ( "list".equals( name ) || "numberedList".equals( name ) )
+            {
+                maxDepth = Math.max( maxDepth, ++depth );
+            }
+            else if ( "list_".equals( name ) || "numberedList_".equals( name ) )
+            {
+                depth--;
+            }
+            else if ( "listItem".equals( name ) )
+            {
+                items++;
+            }
+        }
+
+        assertEquals( 0, depth );
+        assertEquals( 50, maxDepth );
+        assertEquals( 99, items );
+
+        // an item goes one level down only if the item before it has no children, whatever its markers say
+        assertEquals( "[head, head_, body, list, listItem, list, listItem, list, listItem, text, listItem_, list_, "
+            + "listItem_, list_, listItem_, listItem, text, list, listItem, text, listItem_, list_, listItem_, list_, "
+            + "body_]",
+            eventNames( parser, "*** a\n* b\n*** c\n" ).toString() );
+    }
+
+    /**
+     * Tests that lists are read again when they are traversed, also after the whole document has been parsed.
+     *
+     * @throws ParseException if the document cannot be parsed.
+     */
+    public void testStreamedLists()
+        throws ParseException
+    {
+        String document = "* a\n** b\ncontinued\n# c\n\ntext\n## d\n\n";
+
+        ConfluenceParser parser = new ConfluenceParser();
+        List<String> streamed = eventNames( parser, document );
+
+        parser.setStreaming( false );
+        List<String> parsed = eventNames( parser, document );
+
+        assertEquals( "[head, head_, body, list, listItem, text, list, listItem, text, listItem_, list_, listItem_, "
+            + "listItem, text, listItem_, list_, paragraph, text, paragraph_, numberedList, listItem, numberedList, "
+            + "listItem, text, listItem_, numberedList_, listItem_, numberedList_, body_]", streamed.toString() );
+        assertEquals( streamed, parsed );
+    }
+
+    /**
+     * Tests that the body of a macro is parsed into blocks, like a document of its own.
+     *
+     * @throws ParseException if the document cannot be parsed.
+     */
+    public void testMacroBody()
+        throws ParseException
+    {
+        String document = "{note:title=Blocks}\nSome *text*\n\n* one\n* two\n\n{code}\nx < y\n{code}\n|a|b|\n{note}\n"
+            + "after\n";
+
+        ConfluenceParser parser = new ConfluenceParser();
+        List<String> streamed = eventNames( parser, document );
+
+        parser.setStreaming( false );
+        List<String> parsed = eventNames( parser, document );
+
+        assertEquals( "[head, head_, body, definitionList, definedTerm, text, definedTerm_, definition, paragraph, "
+            + "text, bold, text, bold_, paragraph_, list, listItem, text, listItem_, listItem, text, listItem_, list_, "
+            + "verbatim, text, verbatim_, table, tableRows, tableRow, tableCell, text, tableCell_, tableCell, text, "
+            + "tableCell_, tableRow_, tableRows_, table_, definition_, definitionList_, paragraph, text, paragraph_, "
+            + "body_]", streamed.toString() );
+        assertEquals( streamed, parsed );
+    }
+
+    /**
+     * Tests that documents found in the cache are sent to the sink like parsed ones, that documents are told apart
+     * by their text, and that the least recently used documents are evicted.
+     *
+     * @throws ParseException if a document cannot be parsed.
+     */
+    public void testParseCache()
+        throws ParseException
+    {
+        String document = "h1. Title\n\n* a\n* b\n\n|x|y|\n\n{code}\nz\n{code}\n";
+        List<String> expected = eventNames( new ConfluenceParser(), document );
+
+        ConfluenceParser parser = new ConfluenceParser();
+        ConfluenceParseCache cache = new ConfluenceParseCache();
+        parser.setParseCache( cache );
+
+        assertEquals( expected, eventNames( parser, document ) );
+        assertEquals( expected, eventNames( parser, document ) );
+        assertEquals( 1, cache.getHits() );
+        assertEquals( 1, cache.getMisses() );
+        assertEquals( 1, cache.getDocuments() );
+        assertTrue( cache.getBytes() > 2 * document.length() );
+
+        // same length, another text
+        assertFalse( expected.equals( eventNames( parser, document.replace( "h1.", "h2." ) ) ) );
+        assertEquals( 2, cache.getMisses() );
+        assertEquals( 2, cache.getDocuments() );
+
+        // room for about one document
+        cache = new ConfluenceParseCache( cache.getBytes() * 2 / 3 );
+        parser.setParseCache( cache );
+
+        eventNames( parser, document );
+        eventNames( parser, "a paragraph\n" );
+        eventNames( parser, document );
+
+        assertEquals( 0, cache.getHits() );
+        assertEquals( 3, cache.getMisses() );
+        assertEquals( 2, cache.getEvictions() );
+        assertEquals( 1, cache.getDocuments() );
+        assertTrue( cache.getBytes() <= cache.getMaxBytes() );
+
+        // too large to be kept
+        cache = new ConfluenceParseCache( document.length() );
+        parser.setParseCache( cache );
+
+        assertEquals( expected, eventNames( parser, document ) );
+        assertEquals( 0, cache.getDocuments() );
+        assertEquals( 0, cache.getBytes() );
+    }
+
+    /**
+     * Tests that documents found in the disk cache are sent to the sink like parsed ones, by a later parser too, and
+     * that stale and damaged files are discarded.
+     *
+     * @throws Exception if a document cannot be parsed, or a file cannot be read or written.
+     */
+    public void testDiskCache()
+        throws Exception
+    {
+        File directory = new File( getBasedir(), "target/disk-cache-test" );
+        FileUtils.deleteDirectory( directory );
+
+        String document = "h1. Title\n\n* a\n*# *b* -c- \u00e9\u20ac\n\n||x||y||\n|1|2|\n\n{code}\nz\n{code}\n"
+            + "{note:title=N}\nn\n{note}\n";
+        List<String> expected = events( new ConfluenceParser(), document );
+
+        ConfluenceParser parser = new ConfluenceParser();
+        ConfluenceDiskCache cache = new ConfluenceDiskCache( directory );
+        parser.setDiskCache( cache );
+
+        assertEquals( expected, events( parser, document ) );
+        assertEquals( 1, cache.getMisses() );
+        assertEquals( 1, cache.getWrites() );
+
+        File[] files = directory.listFiles();
+        assertEquals( 1, files.length );
+
+        // a later build, with a cache in memory too
+        parser = new ConfluenceParser();
+        cache = new ConfluenceDiskCache( directory );
+        parser.setDiskCache( cache );
+        parser.setParseCache( new ConfluenceParseCache() );
+
+        assertEquals( expected, events( parser, document ) );
+        assertEquals( expected, events( parser, document ) );
+        assertEquals( 1, cache.getHits() );
+        assertEquals( 0, cache.getMisses() );
+        assertEquals( 1, parser.getParseCache().getHits() );
+
+        // written by another version
+        parser = new ConfluenceParser();
+        cache = new ConfluenceDiskCache( directory, "0.0" );
+        parser.setDiskCache( cache );
+
+        assertEquals( expected, events( parser, document ) );
+        assertEquals( 1, cache.getDiscarded() );
+        assertEquals( 1, cache.getWrites() );
+        assertEquals( expected, events( parser, document ) );
+        assertEquals( 1, cache.getHits() );
+
+        // damaged, then truncated
+        byte[] bytes = FileUtils.fileRead( files[0], "ISO-8859-1" ).getBytes( "ISO-8859-1" );
+        bytes[bytes.length - 2] ^= 1;
+        writeBytes( files[0], bytes );
+
+        assertEquals( expected, events( parser, document ) );
+        assertEquals( 2, cache.getDiscarded() );
+
+        byte[] truncated = new byte[ConfluenceDiskCache.HEADER_SIZE - 1];
+        System.arraycopy( bytes, 0, truncated, 0, truncated.length );
+        writeBytes( files[0], truncated );
+
+        assertEquals( expected, events( parser, document ) );
+        assertEquals( 3, cache.getDiscarded() );
+        assertEquals( 1, cache.getHits() );
+        assertEquals( 3, cache.getWrites() );
+
+        cache.clear();
+        assertEquals( 0, directory.listFiles().length );
+    }
+
     /** @throws Exception */
     public void testAnchor()
         throws Exception
@@ -376,8 +632,71 @@ public class ConfluenceParserTest
         assertEquals( 8, result.split( "end:bold\n" ).length );
         // 7 italics in the input...
         assertEquals( 7, result.split( "end:italic\n" ).length );
-        // 4 monospaced in the input...
-        assertEquals( 4, result.split( "end:monospaced\n" ).length );
+        // an italic that is never closed leaves its underscore and the monospaced text after it alone
+        assertContainsLines( result, "text: A _leading_underscore_is_a_problem (but \nbegin:monospaced\n"
+            + "text: _not_in_monospace\nend:monospaced" );
+        // 5 monospaced in the input...
+        assertEquals( 5, result.split( "end:monospaced\n" ).length );
+    }
+
+    /**
+     * Strike-through, underline, superscript and subscript are text attributes, citations are in italics.
+     *
+     * @throws ParseException if something goes wrong.
+     */
+    public void testDecoratedFormats()
+        throws ParseException
+    {
+        SinkEventTestingSink sink = new SinkEventTestingSink();
+        createParser().parse( new StringReader( "-struck- +under+ ^sup^ ~sub~ ??cite?? -*bold struck*- +-both-+" ),
+                              sink );
+        List<SinkEventElement> events = sink.getEventList();
+
+        assertTextEvent( events, "struck", SinkEventAttributes.DECORATION, "line-through" );
+        assertTextEvent( events, "under", SinkEventAttributes.DECORATION, "underline" );
+        assertTextEvent( events, "sup", SinkEventAttributes.VALIGN, "sup" );
+        assertTextEvent( events, "sub", SinkEventAttributes.VALIGN, "sub" );
+        assertTextEvent( events, "bold struck", SinkEventAttributes.DECORATION, "line-through" );
+        assertTextEvent( events, "both", SinkEventAttributes.DECORATION, "underline" );
+        assertTextEvent( events, "both", SinkEventAttributes.DECORATION, "line-through" );
+        assertEquals( "italic", events.get( indexOfText( events, "cite" ) - 1 ).getName() );
+        assertEquals( "bold", events.get( indexOfText( events, "bold struck" ) - 1 ).getName() );
+    }
+
+    /**
+     * Delimiters that are not closed, or that do not hug their text, are plain text.
+     *
+     * @throws ParseException if something goes wrong.
+     */
+    public void testUnmatchedDelimiters()
+        throws ParseException
+    {
+        output = new StringWriter();
+        createParser().parse( new StringReader( "2 * 3 - 1 = 5, a -b ^c^ ~d [e\n\nf {g {{h" ), new TextSink( output ) );
+        String result = output.toString();
+
+        assertContainsLines( result, "begin:paragraph\ntext: 2 * 3 - 1 = 5, a -b \ntext: c\ntext:  ~d [e\nend:paragraph" );
+        assertContainsLines( result, "begin:paragraph\ntext: f {g {{h\nend:paragraph" );
+    }
+
+    /**
+     * The inline parser is linear: deeply nested or unbalanced delimiters must not blow up.
+     *
+     * @throws ParseException if something goes wrong.
+     */
+    public void testManyUnbalancedDelimiters()
+        throws ParseException
+    {
+        StringBuffer document = new StringBuffer();
+        for ( int i = 0; i < 20000; i++ )
+        {
+            document.append( "-a +b ^c ~d ??e *f _g [h {{i {j " );
+        }
+
+        output = new StringWriter();
+        createParser().parse( new StringReader( document.toString() ), new TextSink( output ) );
+
+        assertContainsLines( output.toString(), "begin:paragraph\ntext: -a +b ^c ~d ??e *f _g [h {{i {j -a +b" );
     }
 
     /** @throws Exception */
@@ -535,6 +854,651 @@ public class ConfluenceParserTest
 
     }
 
+    /**
+     * Streaming and non-streaming mode must send exactly the same events.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testStreamingModeEventSequence()
+        throws Exception
+    {
+        for ( int i = 0; i < TEST_DOCUMENTS.length; i++ )
+        {
+            parser.setStreaming( false );
+            String expected = parseTestSourceFile( TEST_DOCUMENTS[i] );
+
+            parser.setStreaming( true );
+            String actual = parseTestSourceFile( TEST_DOCUMENTS[i] );
+
+            assertEquals( "Different events for " + TEST_DOCUMENTS[i], expected, actual );
+        }
+    }
+
+    /**
+     * One parser instance must give the same results when many threads use it at once.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testConcurrentParsing()
+        throws Exception
+    {
+        String[] expected = new String[TEST_DOCUMENTS.length];
+
+        for ( int i = 0; i < TEST_DOCUMENTS.length; i++ )
+        {
+            expected[i] = parseTestSourceFile( TEST_DOCUMENTS[i] );
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+
+        try
+        {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+
+            for ( int round = 0; round < 25; round++ )
+            {
+                for ( int i = 0; i < TEST_DOCUMENTS.length; i++ )
+                {
+                    final String stem = TEST_DOCUMENTS[i];
+
+                    results.add( executor.submit( new Callable<String>()
+                    {
+                        public String call()
+                            throws Exception
+                        {
+                            return parseTestSourceFile( stem );
+                        }
+                    } ) );
+                }
+            }
+
+            for ( int i = 0; i < results.size(); i++ )
+            {
+                int document = i % TEST_DOCUMENTS.length;
+
+                assertEquals( "Different events for " + TEST_DOCUMENTS[document], expected[document],
+                              results.get( i ).get() );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A document parsed in chunks by an executor must give the same events as when it is parsed in one go, wherever
+     * it is split, including inside blocks that run across blank lines.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testParallelParsing()
+        throws Exception
+    {
+        StringBuffer document = new StringBuffer();
+
+        for ( int i = 0; i < TEST_DOCUMENTS.length; i++ )
+        {
+            Reader in = getTestReader( TEST_DOCUMENTS[i], outputExtension() );
+
+            try
+            {
+                document.append( IOUtil.toString( in ) ).append( "\n\n" );
+            }
+            finally
+            {
+                IOUtil.close( in );
+            }
+        }
+
+        // blocks that hide or fake the start of a {code} block
+        document.append( "* item\n{code}\n\nh1. Title\n\n{code}\nbody\n\nmore body\n{code}\n\n|| a || b ||\n" );
+        document.append( "{code}\n\nafter\n\n{note}\nnote\n\nmore note\n{note}\n\nText\n{noformat}\n\nx\n" );
+        document.append( "{noformat}\n\nlast\n" );
+
+        output = new StringWriter();
+        parser.parse( new StringReader( document.toString() ), new TextSink( output ) );
+        String expected = output.toString();
+
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+        try
+        {
+            parser.setExecutor( executor );
+
+            int[] chunkSizes = { 1, 10, 100, 1000 };
+
+            for ( int i = 0; i < chunkSizes.length; i++ )
+            {
+                parser.setChunkSize( chunkSizes[i] );
+
+                parser.setStreaming( true );
+                output = new StringWriter();
+                parser.parse( new StringReader( document.toString() ), new TextSink( output ) );
+                assertEquals( "Different events in chunks of " + chunkSizes[i], expected, output.toString() );
+
+                parser.setStreaming( false );
+                output = new StringWriter();
+                parser.parse( new StringReader( document.toString() ), new TextSink( output ) );
+                assertEquals( "Different events in chunks of " + chunkSizes[i], expected, output.toString() );
+            }
+        }
+        finally
+        {
+            parser.setExecutor( null );
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The rows of a table are parsed when the table is traversed: with an executor, they are parsed by the executor,
+     * not by the thread that sends them to the sink.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testParallelTableRows()
+        throws Exception
+    {
+        StringBuilder document = new StringBuilder();
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            document.append( "Table " ).append( i ).append( "\n\n|| a || b ||\n| " ).append( i ).append( " | x |\n\n" );
+        }
+
+        assertParsedByExecutor( document.toString(), "StreamedTableBlock", 100 );
+    }
+
+    /**
+     * The items of a list are parsed when the list is traversed: with an executor, they are parsed by the executor,
+     * not by the thread that sends them to the sink.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testParallelListItems()
+        throws Exception
+    {
+        StringBuilder document = new StringBuilder();
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            document.append( "List " ).append( i ).append( "\n\n* item " ).append( i ).append( "\n** nested\n\n" );
+        }
+
+        assertParsedByExecutor( document.toString(), "StreamedListBlock", 100 );
+    }
+
+    /**
+     * A line that several block parsers accept belongs to the first of them, but ends a paragraph if any of the
+     * parsers that may interrupt a paragraph accepts it.
+     *
+     * @throws ParseException if something goes wrong.
+     */
+    public void testLineAcceptedBySeveralParsers()
+        throws ParseException
+    {
+        output = new StringWriter();
+        createParser().parse( new StringReader( "Text\n---- rule\n  * item\nh6. text\n" ), new TextSink( output ) );
+        String result = output.toString();
+
+        assertContainsLines( result, "begin:paragraph\ntext: Text\nend:paragraph\n\n\nhorizontalRule\n" );
+        assertContainsLines( result, "begin:listItem\ntext: item h6. text\nend:listItem\n" );
+    }
+
+    /**
+     * A paragraph parser built from a chain of block parsers ends a paragraph where one of them accepts a line, be it
+     * a parser of this module or any other.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    @SuppressWarnings( "deprecation" )
+    public void testParagraphParserChain()
+        throws Exception
+    {
+        BlockParser stop = new BlockParser()
+        {
+            public boolean accept( String line, ByLineSource source )
+            {
+                return line.startsWith( "stop" );
+            }
+
+            public Block visit( String line, ByLineSource source )
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        ParagraphBlockParser paragraphParser =
+            new ParagraphBlockParser( new BlockParser[] { new SectionBlockParser(), stop } );
+        CharArrayLineSource source = new CharArrayLineSource( new StringReader( "a\nb\nh1. c\nd\nstop e\n" ) );
+
+        output = new StringWriter();
+        paragraphParser.visit( source.getNextLine(), source ).traverse( new TextSink( output ) );
+        assertContainsLines( output.toString(), "begin:paragraph\ntext: a b\nend:paragraph\n" );
+        assertEquals( "h1. c", source.getNextLine() );
+
+        output = new StringWriter();
+        paragraphParser.visit( source.getNextLine(), source ).traverse( new TextSink( output ) );
+        assertContainsLines( output.toString(), "begin:paragraph\ntext: d\nend:paragraph\n" );
+        assertEquals( "stop e", source.getNextLine() );
+    }
+
+    /**
+     * Lines may end with LF, CRLF or CR, verbatim text included.
+     *
+     * @throws ParseException if something goes wrong.
+     */
+    public void testLineTerminators()
+        throws ParseException
+    {
+        String document = "h1. Title\nA paragraph\non two lines\n\n{code}\nfirst\n  second\n{code}\n* item\n"
+            + "continued\n!image.png!\ncaption";
+
+        output = new StringWriter();
+        createParser().parse( new StringReader( document ), new TextSink( output ) );
+        String expected = output.toString();
+
+        assertContainsLines( expected, "begin:paragraph\ntext: A paragraph on two lines\nend:paragraph" );
+        assertContainsLines( expected, "text: first" + EOL + "  second" + EOL + "\nend:verbatim" );
+
+        String[] terminators = { "\r\n", "\r" };
+        for ( int i = 0; i < terminators.length; i++ )
+        {
+            output = new StringWriter();
+            createParser().parse( new StringReader( StringUtils.replace( document, "\n", terminators[i] ) ),
+                                  new TextSink( output ) );
+
+            assertEquals( expected, output.toString() );
+        }
+    }
+
+    /**
+     * Parsing a file sends the same events as parsing a reader on it, whether the file is mapped or not.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testParseFile()
+        throws Exception
+    {
+        String page = "h1. T\u00eftle \u4e2d \uD83D\uDE00\r\n\r\nParagraph *bold* \uFFFD\r\n{code}\r\nx\ry\r\n{code}\n";
+        int[] repeats = { 1, 2000 };
+
+        for ( int i = 0; i < repeats.length; i++ )
+        {
+            StringBuffer document = new StringBuffer();
+            for ( int j = 0; j < repeats[i]; j++ )
+            {
+                document.append( page );
+            }
+
+            File file = File.createTempFile( "confluence", ".confluence" );
+            file.deleteOnExit();
+
+            // an invalid byte in place of the U+FFFD
+            byte[] bytes = document.toString().replace( '\uFFFD', '\u0001' ).getBytes( "UTF-8" );
+            for ( int j = 0; j < bytes.length; j++ )
+            {
+                if ( bytes[j] == 1 )
+                {
+                    bytes[j] = (byte) 0xFF;
+                }
+            }
+
+            OutputStream out = new FileOutputStream( file );
+            try
+            {
+                // byte order mark
+                out.write( new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF } );
+                out.write( bytes );
+            }
+            finally
+            {
+                out.close();
+            }
+
+            output = new StringWriter();
+            createParser().parse( new StringReader( document.toString() ), new TextSink( output ) );
+            String expected = output.toString();
+
+            output = new StringWriter();
+            parser.parse( file, new TextSink( output ) );
+
+            assertEquals( expected, output.toString() );
+        }
+    }
+
+    /**
+     * Parsing a file replaces malformed UTF-8 as an <code>InputStreamReader</code> does: one <code>U+FFFD</code> for
+     * each truncated sequence, not one for each of its bytes, including at the end of a chunk and of the file.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testParseMalformedFile()
+        throws Exception
+    {
+        byte[][] malformed =
+            { { (byte) 0xE4, (byte) 0xB8 }, { (byte) 0xF0, (byte) 0x9F, (byte) 0x98 }, { (byte) 0x80 },
+                { (byte) 0xC0, (byte) 0xAF }, { (byte) 0xE0, (byte) 0x80, (byte) 0x80 },
+                { (byte) 0xED, (byte) 0xA0, (byte) 0x80 }, { (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80 },
+                { (byte) 0xE4, (byte) 0xB8, (byte) 0xE4, (byte) 0xB8, (byte) 0xAD } };
+        int[] repeats = { malformed.length, 2000 };
+
+        for ( int i = 0; i < repeats.length; i++ )
+        {
+            ByteArrayOutputStream document = new ByteArrayOutputStream();
+            for ( int j = 0; j < repeats[i]; j++ )
+            {
+                document.write( "Paragraph a".getBytes( "UTF-8" ) );
+                document.write( malformed[j % malformed.length] );
+                document.write( "b\n\n".getBytes( "UTF-8" ) );
+            }
+
+            // truncated at the end of the file
+            document.write( new byte[] { 'c', (byte) 0xF0, (byte) 0x9F } );
+            byte[] bytes = document.toByteArray();
+
+            File file = File.createTempFile( "confluence", ".confluence" );
+            file.deleteOnExit();
+            writeBytes( file, bytes );
+
+            output = new StringWriter();
+            createParser().parse( new InputStreamReader( new ByteArrayInputStream( bytes ), "UTF-8" ),
+                                  new TextSink( output ) );
+            String expected = output.toString();
+
+            assertTrue( expected.indexOf( "a\uFFFDb" ) > 0 );
+            assertTrue( expected.indexOf( "a\uFFFD\u4e2db" ) > 0 );
+            assertTrue( expected.indexOf( "c\uFFFD" ) > 0 );
+
+            output = new StringWriter();
+            parser.parse( file, new TextSink( output ) );
+
+            assertEquals( expected, output.toString() );
+        }
+    }
+
+    /**
+     * The body of a large code block is sent in chunks that end with a line, unless a line is larger than a chunk.
+     *
+     * @throws ParseException if something goes wrong.
+     */
+    public void testVerbatimChunks()
+        throws ParseException
+    {
+        String eol = System.getProperty( "line.separator" );
+        StringBuilder body = new StringBuilder();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            body.append( "line " ).append( i ).append( eol );
+        }
+
+        body.append( StringUtils.repeat( "x", 150 ) ).append( eol ).append( "last" ).append( eol );
+
+        String document = "{code}" + eol + body + "{code}" + eol;
+
+        ConfluenceParser parser = new ConfluenceParser();
+        List<String> texts = verbatimTexts( parser, document );
+        assertEquals( 1, texts.size() );
+        assertEquals( body.toString(), texts.get( 0 ) );
+
+        parser.setVerbatimChunkSize( 64 );
+        texts = verbatimTexts( parser, document );
+        assertTrue( texts.size() > 10 );
+        assertEquals( body.toString(), StringUtils.join( texts.iterator(), "" ) );
+
+        for ( String text : texts )
+        {
+            assertTrue( text.length() <= 64 );
+            assertTrue( text.endsWith( eol ) || text.startsWith( "xxx" ) );
+        }
+    }
+
+    /**
+     * The body of a code block ends its lines with the platform line separator, whatever the document ends them with,
+     * in one text or in chunks.
+     *
+     * @throws ParseException if something goes wrong.
+     */
+    public void testVerbatimLineTerminators()
+        throws ParseException
+    {
+        String eol = System.getProperty( "line.separator" );
+        StringBuilder body = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            body.append( "line " ).append( i ).append( i % 3 == 0 ? "\n" : "\r\n" );
+            expected.append( "line " ).append( i ).append( eol );
+        }
+
+        String document = "{code}\r\n" + body + "{code}\r\n";
+
+        ConfluenceParser parser = new ConfluenceParser();
+        List<String> texts = verbatimTexts( parser, document );
+        assertEquals( 1, texts.size() );
+        assertEquals( expected.toString(), texts.get( 0 ) );
+
+        parser.setVerbatimChunkSize( 64 );
+        texts = verbatimTexts( parser, document );
+        assertTrue( texts.size() > 10 );
+        assertEquals( expected.toString(), StringUtils.join( texts.iterator(), "" ) );
+
+        for ( String text : texts )
+        {
+            assertTrue( text.endsWith( eol ) );
+        }
+
+        texts = verbatimTexts( new ConfluenceParser(), "{code}\r\na\r\nb" );
+        assertEquals( 1, texts.size() );
+        assertEquals( "a" + eol + "b" + eol, texts.get( 0 ) );
+    }
+
+    /**
+     * A cell that opens a link goes on to the next cell, even past empty cells, and a row that ends inside a link
+     * keeps the text it has.
+     *
+     * @throws ParseException if something goes wrong.
+     */
+    public void testTableCellsWithOpenLinks()
+        throws ParseException
+    {
+        SinkEventTestingSink sink = new SinkEventTestingSink();
+        createParser().parse( new StringReader( "||h1|||h2||\n|a [b||c]|d|\n|e [f|\n" ), sink );
+
+        List<String> cells = new ArrayList<String>();
+        StringBuilder cell = null;
+
+        for ( SinkEventElement event : sink.getEventList() )
+        {
+            String name = event.getName();
+
+            if ( "tableCell".equals( name ) || "tableHeaderCell".equals( name ) )
+            {
+                cell = new StringBuilder();
+            }
+            else if ( "tableCell_".equals( name ) || "tableHeaderCell_".equals( name ) )
+            {
+                cells.add( cell.toString() );
+                cell = null;
+            }
+            else if ( cell != null )
+            {
+                cell.append( name );
+
+                if ( event.getArgs() != null && event.getArgs().length > 0 )
+                {
+                    cell.append( '(' ).append( event.getArgs()[0] ).append( ')' );
+                }
+
+                cell.append( ' ' );
+            }
+        }
+
+        assertEquals( "[bold text(h1) bold_ , bold text(h2) bold_ , text(a ) link(c.html) text(b) link_ , text(d) , "
+            + "text(e [f) ]", cells.toString() );
+    }
+
+    /**
+     * Tests that the rows of a table are read again when the table is traversed, also after the whole document has
+     * been parsed.
+     *
+     * @throws ParseException if the document cannot be parsed.
+     */
+    public void testStreamedTableRows()
+        throws ParseException
+    {
+        String document = "||a||b||\n|1|2|\n|3|4|\n\nafter\n";
+
+        ConfluenceParser parser = new ConfluenceParser();
+        List<String> streamed = eventNames( parser, document );
+
+        parser.setStreaming( false );
+        List<String> parsed = eventNames( parser, document );
+
+        assertEquals( "[head, head_, body, table, tableRows, tableRow, tableHeaderCell, bold, text, bold_, "
+            + "tableHeaderCell_, tableHeaderCell, bold, text, bold_, tableHeaderCell_, tableRow_, tableRow, tableCell, "
+            + "text, tableCell_, tableCell, text, tableCell_, tableRow_, tableRow, tableCell, text, tableCell_, "
+            + "tableCell, text, tableCell_, tableRow_, tableRows_, table_, paragraph, text, paragraph_, body_]",
+            streamed.toString() );
+        assertEquals( streamed, parsed );
+    }
+
+    private static List<String> eventNames( ConfluenceParser parser, String document )
+        throws ParseException
+    {
+        SinkEventTestingSink sink = new SinkEventTestingSink();
+        parser.parse( new StringReader( document ), sink );
+
+        List<String> names = new ArrayList<String>();
+
+        for ( SinkEventElement event : sink.getEventList() )
+        {
+            names.add( event.getName() );
+        }
+
+        return names;
+    }
+
+    private static List<String> events( ConfluenceParser parser, String document )
+        throws ParseException
+    {
+        SinkEventTestingSink sink = new SinkEventTestingSink();
+        parser.parse( new StringReader( document ), sink );
+
+        List<String> events = new ArrayList<String>();
+
+        for ( SinkEventElement event : sink.getEventList() )
+        {
+            events.add( event.getName() + Arrays.deepToString( event.getArgs() ) );
+        }
+
+        return events;
+    }
+
+    private static void writeBytes( File file, byte[] bytes )
+        throws IOException
+    {
+        OutputStream out = new FileOutputStream( file );
+
+        try
+        {
+            out.write( bytes );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Checks that the lazy blocks of a document are traversed on the calling thread without an executor, and only
+     * by the executor with one, streaming or not.
+     */
+    private static void assertParsedByExecutor( String document, String blockClass, int events )
+        throws ParseException
+    {
+        ConfluenceParser parser = new ConfluenceParser();
+        parser.setStreaming( true );
+
+        LazyBlockSink sink = new LazyBlockSink( blockClass );
+        parser.parse( new StringReader( document ), sink );
+        assertEquals( events, sink.events );
+        assertEquals( events, sink.lazyEvents );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+
+        try
+        {
+            parser.setExecutor( executor );
+            parser.setChunkSize( 100 );
+
+            boolean[] modes = { true, false };
+
+            for ( int i = 0; i < modes.length; i++ )
+            {
+                parser.setStreaming( modes[i] );
+
+                sink = new LazyBlockSink( blockClass );
+                parser.parse( new StringReader( document ), sink );
+                assertEquals( events, sink.events );
+                assertEquals( "Blocks traversed on the calling thread", 0, sink.lazyEvents );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> verbatimTexts( ConfluenceParser parser, String document )
+        throws ParseException
+    {
+        SinkEventTestingSink sink = new SinkEventTestingSink();
+        parser.parse( new StringReader( document ), sink );
+
+        List<String> texts = new ArrayList<String>();
+        boolean verbatim = false;
+
+        for ( SinkEventElement event : sink.getEventList() )
+        {
+            if ( "verbatim".equals( event.getName() ) || "verbatim_".equals( event.getName() ) )
+            {
+                verbatim = !verbatim;
+            }
+            else if ( verbatim && "text".equals( event.getName() ) )
+            {
+                texts.add( (String) event.getArgs()[0] );
+            }
+        }
+
+        return texts;
+    }
+
+    private static int indexOfText( List<SinkEventElement> events, String text )
+    {
+        for ( int i = 0; i < events.size(); i++ )
+        {
+            SinkEventElement event = events.get( i );
+            if ( "text".equals( event.getName() ) && text.equals( event.getArgs()[0] ) )
+            {
+                return i;
+            }
+        }
+
+        fail( "text event not found: " + text );
+        return -1;
+    }
+
+    private static void assertTextEvent( List<SinkEventElement> events, String text, String name, String value )
+    {
+        SinkEventElement event = events.get( indexOfText( events, text ) );
+        SinkEventAttributes attributes = (SinkEventAttributes) event.getArgs()[1];
+
+        assertTrue( text + " should have " + name + "=" + value, attributes.containsAttribute( name, value ) );
+    }
+
     private void assertContainsLines( String message, String result, String lines )
     {
         lines = StringUtils.replace( lines, "\n", EOL );
@@ -562,6 +1526,24 @@ public class ConfluenceParserTest
         return sw.toString();
     }
 
+    private String parseTestSourceFile( String stem )
+        throws IOException, ParseException
+    {
+        StringWriter out = new StringWriter();
+        Reader in = getTestReader( stem, outputExtension() );
+
+        try
+        {
+            createParser().parse( in, new TextSink( out ) );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+
+        return out.toString();
+    }
+
     private String locateAndParseTestSourceFile( String stem )
         throws IOException, ParseException
     {
@@ -579,4 +1561,47 @@ public class ConfluenceParserTest
         return expected;
     }
 
+    /** Counts the table rows and list items, and those sent from within the traversal of a given block class. */
+    private static class LazyBlockSink
+        extends SinkAdapter
+    {
+        private final String blockClass;
+
+        private int events;
+
+        private int lazyEvents;
+
+        LazyBlockSink( String blockClass )
+        {
+            this.blockClass = "." + blockClass;
+        }
+
+        /** {@inheritDoc} */
+        public void tableRow()
+        {
+            count();
+        }
+
+        /** {@inheritDoc} */
+        public void listItem()
+        {
+            count();
+        }
+
+        private void count()
+        {
+            events++;
+
+            StackTraceElement[] stack = new Throwable().getStackTrace();
+
+            for ( int i = 0; i < stack.length; i++ )
+            {
+                if ( stack[i].getClassName().endsWith( blockClass ) )
+                {
+                    lazyEvents++;
+                    break;
+                }
+            }
+        }
+    }
 }
@@ -21,11 +21,22 @@ package org.apache.maven.doxia.module.confluence;
  * under the License.
  */
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
 
 import org.apache.maven.doxia.sink.AbstractSinkTest;
 import org.apache.maven.doxia.sink.Sink;
+import org.apache.maven.doxia.sink.SinkEventAttributeSet;
 import org.apache.maven.doxia.util.HtmlTools;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
 
 /**
  * Test the Confluence Sink
@@ -236,6 +247,293 @@ public class ConfluenceSinkTest
         return "twiki";
     }
 
+    /**
+     * A line is trimmed when it ends, and the whitespace before the first line goes with it, as if the whole document
+     * had been trimmed; a list starts on a new line unless it follows a blank line.
+     */
+    public void testTrimmedLines()
+    {
+        StringWriter writer = new StringWriter();
+        Sink sink = createSink( writer );
+
+        sink.text( "  \n " );
+        sink.paragraph();
+        sink.text( " a " );
+        sink.paragraph_();
+        sink.list();
+        sink.listItem();
+        sink.text( "b" );
+        sink.listItem_();
+        sink.list_();
+        sink.text( " c " );
+        sink.list();
+        sink.listItem();
+        sink.text( "d " );
+        sink.listItem_();
+        sink.list_();
+        sink.text( " e " );
+        sink.close();
+
+        assertEquals( "a" + EOL + EOL + "* b" + EOL + " c" + EOL + "* d" + EOL + " e ", writer.toString() );
+    }
+
+    /**
+     * The markup reaches the writer as it is rendered, and flush() does not close the sink.
+     */
+    public void testFlush()
+    {
+        StringWriter writer = new StringWriter();
+        Sink sink = createSink( writer );
+        StringBuffer expected = new StringBuffer();
+
+        for ( int i = 0; i < 10000; i++ )
+        {
+            sink.paragraph();
+            sink.text( "Paragraph " + i + " " );
+            sink.paragraph_();
+            expected.append( "Paragraph " ).append( i ).append( EOL ).append( EOL );
+        }
+
+        // most of it was sent already
+        assertTrue( writer.getBuffer().length() > expected.length() / 2 );
+
+        sink.text( "Last" );
+        sink.flush();
+        assertEquals( expected.toString() + "Last", writer.toString() );
+
+        sink.text( " line " );
+        sink.flush();
+        assertEquals( expected.toString() + "Last line", writer.toString() );
+
+        sink.close();
+        assertEquals( expected.toString() + "Last line ", writer.toString() );
+    }
+
+    /**
+     * A document that starts with whitespace is held back until a line is trimmed, however far past its first line
+     * and the flush threshold that is, and then reaches the writer as if the whole document had been trimmed.
+     */
+    public void testLeadingWhitespace()
+    {
+        StringBuffer text = new StringBuffer();
+
+        for ( int i = 0; i < 2000; i++ )
+        {
+            text.append( "Line " ).append( i ).append( '\n' );
+        }
+
+        StringWriter expected = new StringWriter();
+        Sink sink = createSink( expected );
+        sink.paragraph();
+        sink.text( text.toString() );
+        sink.paragraph_();
+        sink.close();
+
+        StringWriter writer = new StringWriter();
+        sink = createSink( writer );
+        sink.text( " \n " );
+        sink.paragraph();
+        sink.text( text.toString() );
+
+        // no line of the paragraph has been trimmed yet, so the leading whitespace may still be
+        assertTrue( text.length() > 8192 );
+        assertEquals( "", writer.toString() );
+
+        sink.paragraph_();
+
+        // the end of the paragraph trimmed its line, which let most of the document go
+        assertTrue( writer.getBuffer().length() > text.length() / 2 );
+
+        sink.close();
+        assertEquals( expected.toString(), writer.toString() );
+    }
+
+    /**
+     * Escapes and line terminators in the text of a paragraph.
+     */
+    public void testEscapedText()
+    {
+        StringWriter writer = new StringWriter();
+        Sink sink = createSink( writer );
+
+        sink.paragraph();
+        sink.text( "a < b & \"c\" 'd' > e\r\nf\rg\nh\r\r\ni" );
+        sink.paragraph_();
+        sink.close();
+
+        assertEquals( "a &lt; b &amp; &quot;c&quot; &apos;d&apos; &gt; e" + EOL + "f" + EOL + "g" + EOL + "h" + EOL
+            + EOL + "i", writer.toString().trim() );
+    }
+
+    /**
+     * The text of a verbatim block is written as it is, small or large.
+     */
+    public void testRawVerbatimText()
+    {
+        String code = "if ( a < b && c > \"d\" ) {\r\n    return '&';\r\n}\r\n";
+        String large = StringUtils.repeat( code, 1000 ) + "  \r\n ";
+
+        StringWriter writer = new StringWriter();
+        Sink sink = createSink( writer );
+
+        sink.paragraph();
+        sink.text( "<code>" );
+        sink.paragraph_();
+        sink.verbatim( null );
+        sink.text( code );
+        sink.verbatim_();
+        sink.verbatim( SinkEventAttributeSet.BOXED );
+        sink.text( large );
+        sink.verbatim_();
+        sink.close();
+
+        assertEquals( "&lt;code&gt;" + EOL + EOL + "{noformat}" + EOL + code + "{noformat}" + EOL + EOL
+            + "{code|borderStyle=solid}" + EOL + large + "{code}", writer.toString().trim() );
+    }
+
+    /**
+     * Verbatim text of whitespace only is held back with the whitespace before it, however large it is, so a later
+     * trim still removes all of it.
+     */
+    public void testLargeVerbatimWhitespace()
+    {
+        String whitespace = StringUtils.repeat( " \n", 5000 );
+
+        StringWriter expected = new StringWriter();
+        Sink sink = createSink( expected );
+        sink.paragraph();
+        sink.text( "Text" );
+        sink.paragraph_();
+        sink.verbatim( null );
+        sink.text( "code  " );
+
+        for ( int i = 0; i < whitespace.length(); i += 1000 )
+        {
+            sink.text( whitespace.substring( i, i + 1000 ) );
+        }
+
+        sink.paragraph_();
+        sink.close();
+
+        StringWriter writer = new StringWriter();
+        sink = createSink( writer );
+        sink.paragraph();
+        sink.text( "Text" );
+        sink.paragraph_();
+        sink.verbatim( null );
+        sink.text( "code  " );
+        sink.text( whitespace );
+        sink.paragraph_();
+        sink.close();
+
+        assertTrue( whitespace.length() > 8192 );
+        assertEquals( expected.toString(), writer.toString() );
+        assertTrue( writer.toString().length() < 1000 );
+    }
+
+    /**
+     * The sinks that write bytes encode the same markup as a writer gets, across many buffers.
+     *
+     * @throws Exception if any
+     */
+    public void testByteSinks()
+        throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        renderUnicode( createSink( writer ) );
+        byte[] expected = writer.toString().getBytes( "UTF-8" );
+
+        ConfluenceSinkFactory factory = new ConfluenceSinkFactory();
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        renderUnicode( factory.createSink( stream, "UTF-8" ) );
+        assertTrue( Arrays.equals( expected, stream.toByteArray() ) );
+
+        stream = new ByteArrayOutputStream();
+        renderUnicode( factory.createSink( Channels.newChannel( stream ) ) );
+        assertTrue( Arrays.equals( expected, stream.toByteArray() ) );
+
+        File file = new File( getBasedir(), "target/test-output/confluence/byte-sink.confluence" );
+        file.getParentFile().mkdirs();
+        renderUnicode( factory.createSink( new FileOutputStream( file ).getChannel() ) );
+
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            assertTrue( Arrays.equals( expected, IOUtil.toByteArray( in ) ) );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * A pooled factory hands out closed sinks again, reset, and keeps their buffers small.
+     *
+     * @throws Exception if any
+     */
+    public void testPooledSinkFactory()
+        throws Exception
+    {
+        PooledConfluenceSinkFactory factory = new PooledConfluenceSinkFactory( 1, 1024 );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Sink first = factory.createSink( out );
+        first.numberedList( Sink.NUMBERING_DECIMAL );
+        first.numberedListItem();
+        first.text( StringUtils.repeat( "x", 10000 ) );
+        first.close();
+        first.close();
+
+        assertEquals( 0, factory.getHits() );
+        assertEquals( 1, factory.getMisses() );
+        assertEquals( 1, factory.getPooledSinks() );
+        assertEquals( 1, factory.getTrimmedBuffers() );
+        assertTrue( factory.getLargestBuffer() >= 10000 );
+
+        out = new ByteArrayOutputStream();
+        Sink second = factory.createSink( out );
+        assertSame( first, second );
+        assertEquals( 0, factory.getPooledSinks() );
+
+        // the numbered list was not closed, but does not show in the new document
+        second.list();
+        second.listItem();
+        second.text( "item" );
+        second.listItem_();
+        second.list_();
+        second.close();
+        assertEquals( "* item", out.toString( "UTF-8" ).trim() );
+
+        // the pool only keeps one of two sinks used at the same time
+        Sink third = factory.createSink( new ByteArrayOutputStream() );
+        Sink fourth = factory.createSink( new ByteArrayOutputStream() );
+        assertSame( first, third );
+        assertNotSame( first, fourth );
+        third.close();
+        fourth.close();
+
+        assertEquals( 2, factory.getHits() );
+        assertEquals( 2, factory.getMisses() );
+        assertEquals( 0.5, factory.getHitRate(), 0 );
+        assertEquals( 1, factory.getPooledSinks() );
+    }
+
+    /** Renders paragraphs with characters of every UTF-8 length and unpaired surrogates. */
+    private static void renderUnicode( Sink sink )
+    {
+        for ( int i = 0; i < 5000; i++ )
+        {
+            sink.paragraph();
+            sink.text( "Paragraph " + i + ": caf\u00e9 \u20ac \ud83d\ude00 \ud800 x \udc00 y" );
+            sink.paragraph_();
+        }
+
+        sink.text( "\ud83d" );
+        sink.close();
+    }
+
     // ----------------------------------------------------------------------
     // Override unused tests
     // ----------------------------------------------------------------------